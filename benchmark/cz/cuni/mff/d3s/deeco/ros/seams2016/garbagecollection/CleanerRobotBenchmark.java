@@ -0,0 +1,117 @@
+package cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import cz.cuni.mff.d3s.deeco.task.ParamHolder;
+import cz.cuni.mff.d3s.jdeeco.position.Position;
+
+/**
+ * Benchmarks of CleanerRobot processes
+ *
+ * Each benchmark runs the process once for every robot of the fleet. Routes modified by setDestination are copied before
+ * every invocation. Route version and the inputs of setDestination are unknown, so it includes route optimization. The
+ * senseRecording benchmark changes destination of every robot on each invocation, so every sense writes a trajectory
+ * record.
+ *
+ */
+public class CleanerRobotBenchmark {
+	/**
+	 * Knowledge modified by processes
+	 */
+	@State(Scope.Thread)
+	public static class Working {
+		Route[] routes;
+
+		@Setup(Level.Invocation)
+		public void setup(Fleet fleet) {
+			routes = fleet.copyRoutes();
+		}
+	}
+
+	/**
+	 * Trajectory recording to temporary file
+	 */
+	@State(Scope.Benchmark)
+	public static class Recording {
+		File file;
+		Fleet.StubClock clock;
+		int tick;
+
+		@Setup(Level.Trial)
+		public void setup() throws IOException {
+			file = File.createTempFile("trajectory", ".gct");
+			clock = new Fleet.StubClock();
+			TrajectoryRecorder.start(file.getPath());
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws IOException {
+			TrajectoryRecorder.stop();
+			file.delete();
+		}
+	}
+
+	@Benchmark
+	public void sense(Fleet fleet, Blackhole blackhole) {
+		for (int i = 0; i < fleet.fleetSize; ++i) {
+			ParamHolder<Position> position = new ParamHolder<>(fleet.positions[i]);
+			CleanerRobot.sense(fleet.ids[i], position, new ParamHolder<>(0l), new ParamHolder<>(0l), fleet.states[i],
+					null, fleet.routes[i], fleet.positionings[i], fleet.clock, null);
+			blackhole.consume(position.value);
+		}
+	}
+
+	@Benchmark
+	public void senseRecording(Fleet fleet, Recording recording, Blackhole blackhole) {
+		recording.clock.time += 100;
+		recording.tick++;
+		for (int i = 0; i < fleet.fleetSize; ++i) {
+			ParamHolder<Position> position = new ParamHolder<>(fleet.positions[i]);
+			Route route = fleet.routes[i];
+			CleanerRobot.sense(fleet.ids[i], position, new ParamHolder<>(0l), new ParamHolder<>(0l), fleet.states[i],
+					route.get(recording.tick % route.size()), route, fleet.positionings[i], recording.clock, null);
+			blackhole.consume(position.value);
+		}
+	}
+
+	@Benchmark
+	public void setDestination(Fleet fleet, Working working, Blackhole blackhole) {
+		for (int i = 0; i < fleet.fleetSize; ++i) {
+			ParamHolder<Position> destination = new ParamHolder<>(fleet.positions[i]);
+			CleanerRobot.setDestination(fleet.ids[i], fleet.positions[i], 0l, new ParamHolder<>(working.routes[i]),
+					new ParamHolder<>(-1), destination, new ParamHolder<>(null), fleet.clock, fleet.monitor);
+			blackhole.consume(destination.value);
+		}
+	}
+
+	@Benchmark
+	public void autoUnblock(Fleet fleet, Blackhole blackhole) {
+		for (int i = 0; i < fleet.fleetSize; ++i) {
+			ParamHolder<Position> destination = new ParamHolder<>(null);
+			CleanerRobot.autoUnblock(fleet.ids[i], fleet.clock,
+					new ParamHolder<>(fleet.clock.time - CleanerRobot.BLOCKED_AUTORECOVERY_THRESHOLD_S * 1000 - 1),
+					new ParamHolder<>(fleet.states[i]), destination, fleet.generator, fleet.routes[i], fleet.random);
+			blackhole.consume(destination.value);
+		}
+	}
+
+	@Benchmark
+	public void detectBlocked(Fleet fleet, Blackhole blackhole) {
+		for (int i = 0; i < fleet.fleetSize; ++i) {
+			ParamHolder<CleanerRobot.State> state = new ParamHolder<>(fleet.states[i]);
+			CleanerRobot.detectBlocked(fleet.ids[i], fleet.positions[i], new ParamHolder<>(fleet.positions[i]),
+					new ParamHolder<>(fleet.clock.time - CleanerRobot.NOCHANGE_POS_THRESH_MS), state,
+					new ParamHolder<>(null), fleet.routes[i].get(0), fleet.clock);
+			blackhole.consume(state.value);
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection;
+
+import java.util.List;
+import java.util.Map;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import cz.cuni.mff.d3s.deeco.task.ParamHolder;
+import cz.cuni.mff.d3s.jdeeco.position.Position;
+
+/**
+ * Benchmarks of ensemble membership and knowledge exchange
+ *
+ * Membership benchmarks evaluate all pairs of robots, the same way the framework does. Exchange benchmarks run exchange
+ * once for every robot with the next robot as coordinator. Knowledge modified by the exchange is copied before every
+ * invocation.
+ *
+ */
+public class EnsembleBenchmark {
+	/**
+	 * Knowledge modified by exchange
+	 */
+	@State(Scope.Thread)
+	public static class Working {
+		Route[] routes;
+		AdoptedDestinations[] adopted;
+		List<Map<String, Long>> processed;
+
+		@Setup(Level.Invocation)
+		public void setup(Fleet fleet) {
+			routes = fleet.copyRoutes();
+			adopted = fleet.copyAdopted();
+			processed = fleet.emptyProcessed();
+		}
+	}
+
+	@Benchmark
+	public void adoptionMembership(Fleet fleet, Blackhole blackhole) {
+		for (int coord = 0; coord < fleet.fleetSize; ++coord) {
+			for (int member = 0; member < fleet.fleetSize; ++member) {
+				blackhole.consume(DestinationAdoptionEnsemble.membership(fleet.ids[coord], fleet.positions[coord],
+						fleet.ids[member], fleet.positions[member], fleet.states[coord], fleet.states[member],
+						fleet.clock.time, fleet.clock));
+			}
+		}
+	}
+
+	@Benchmark
+	public void adoptionExchange(Fleet fleet, Working working, Blackhole blackhole) {
+		for (int member = 0; member < fleet.fleetSize; ++member) {
+			int coord = (member + 1) % fleet.fleetSize;
+			ParamHolder<Position> destination = new ParamHolder<>(working.routes[member].get(0));
+			ParamHolder<List<Position>> route = new ParamHolder<>(working.routes[member]);
+			DestinationAdoptionEnsemble.exchange(fleet.clock, fleet.ids[coord], fleet.ids[member],
+					working.routes[coord].get(0), destination,
+					new ParamHolder<>(fleet.clock.time - DestinationAdoptionEnsemble.BLOCKED_REMOTERECOVERY_THRESHOLD_S * 1000),
+					new ParamHolder<>(null), new ParamHolder<>(working.adopted[member]), route, fleet.monitor);
+			blackhole.consume(destination.value);
+		}
+	}
+
+	@Benchmark
+	public void removeMembership(Fleet fleet, Blackhole blackhole) {
+		for (int member = 0; member < fleet.fleetSize; ++member) {
+			EnsembleGuard guard = new EnsembleGuard(AdoptedDestinationRemoveEnsemble.class);
+			for (int coord = 0; coord < fleet.fleetSize; ++coord) {
+				blackhole.consume(AdoptedDestinationRemoveEnsemble.membership(fleet.ids[coord], fleet.adopted[coord],
+						fleet.ids[member], fleet.routes[member], fleet.adopted[member], fleet.processed.get(member),
+						fleet.clock.time, fleet.clock, guard));
+			}
+		}
+	}
+
+	@Benchmark
+	public void removeExchange(Fleet fleet, Working working, Blackhole blackhole) {
+		for (int member = 0; member < fleet.fleetSize; ++member) {
+			int coord = (member + fleet.fleetSize - 1) % fleet.fleetSize;
+			ParamHolder<List<Position>> route = new ParamHolder<>(working.routes[member]);
+			AdoptedDestinationRemoveEnsemble.exchange(fleet.ids[coord], fleet.ids[member], fleet.clock,
+					working.adopted[coord], working.adopted[member], route, new ParamHolder<>(working.processed.get(member)));
+			blackhole.consume(route.value.size());
+		}
+	}
+}
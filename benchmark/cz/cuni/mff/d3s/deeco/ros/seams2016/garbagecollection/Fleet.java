@@ -0,0 +1,161 @@
+package cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+
+import cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection.CleanerRobot.State;
+import cz.cuni.mff.d3s.deeco.timer.CurrentTimeProvider;
+import cz.cuni.mff.d3s.jdeeco.position.Position;
+import cz.cuni.mff.d3s.jdeeco.ros.Positioning;
+import cz.cuni.mff.d3s.jdeeco.ros.datatypes.Orientation;
+import cz.cuni.mff.d3s.jdeeco.ros.datatypes.PoseWithCovariance;
+import cz.cuni.mff.d3s.jdeeco.ros.datatypes.ROSPosition;
+
+/**
+ * Knowledge of a fleet of robots shared by the benchmarks
+ *
+ * Holds the same knowledge the framework would pass to the processes and ensembles, generated deterministically from
+ * the parameters. No ROS or simulation is needed, sensors and time are provided by stubs.
+ *
+ * All robots are blocked, so the ensembles take their most expensive path. Adopted destinations of each robot are taken
+ * from the route of the next robot, so the removal ensemble finds something to remove.
+ *
+ */
+@org.openjdk.jmh.annotations.State(Scope.Benchmark)
+public class Fleet {
+	/**
+	 * Time source returning fixed time
+	 */
+	public static class StubClock implements CurrentTimeProvider {
+		long time = 100000;
+
+		@Override
+		public long getCurrentMilliseconds() {
+			return time;
+		}
+	}
+
+	/**
+	 * Positioning returning fixed pose and ignoring goals
+	 */
+	public static class StubPositioning extends Positioning {
+		private final PoseWithCovariance pose;
+
+		public StubPositioning(Position position) {
+			pose = new PoseWithCovariance(new ROSPosition(position.x, position.y, 0), new Orientation(0, 0, 0, 1),
+					new double[36]);
+		}
+
+		@Override
+		public PoseWithCovariance getPoseWithCovariance() {
+			return pose;
+		}
+
+		@Override
+		public void setSimpleGoal(ROSPosition position, Orientation orientation) {
+			// Goals are ignored
+		}
+	}
+
+	@Param({ "10", "100", "1000" })
+	public int routeLength;
+
+	@Param({ "4", "16", "64" })
+	public int fleetSize;
+
+	@Param({ "0", "4", "16" })
+	public int adoptedSize;
+
+	StubClock clock;
+	PositionMonitor monitor;
+	PositionGenerator generator;
+	Random random;
+
+	String[] ids;
+	Position[] positions;
+	State[] states;
+	Route[] routes;
+	AdoptedDestinations[] adopted;
+	StubPositioning[] positionings;
+	List<Map<String, Long>> processed;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		clock = new StubClock();
+		monitor = new PositionMonitor(clock);
+		generator = new PositionGenerator(new Random(1), GarbageCollectDemo.GARBAGE_AREAS);
+		random = new Random(2);
+
+		ids = new String[fleetSize];
+		positions = new Position[fleetSize];
+		states = new State[fleetSize];
+		routes = new Route[fleetSize];
+		positionings = new StubPositioning[fleetSize];
+		for (int i = 0; i < fleetSize; ++i) {
+			ids[i] = "Collector" + i;
+			positions[i] = generator.getRandomPosition();
+			states[i] = State.Blocked;
+			positionings[i] = new StubPositioning(positions[i]);
+			routes[i] = new Route();
+			for (int j = 0; j < routeLength; ++j) {
+				Position pos = generator.getRandomPosition();
+				routes[i].add(pos);
+				monitor.addPosition(pos, ids[i]);
+			}
+		}
+
+		processed = emptyProcessed();
+		adopted = new AdoptedDestinations[fleetSize];
+		for (int i = 0; i < fleetSize; ++i) {
+			adopted[i] = new AdoptedDestinations();
+			Route other = routes[(i + 1) % fleetSize];
+			for (int j = 0; j < adoptedSize; ++j) {
+				adopted[i].add(other.get(j % other.size()), clock.time);
+			}
+		}
+	}
+
+	/**
+	 * Copies routes, so that they can be modified by the benchmark
+	 */
+	Route[] copyRoutes() {
+		Route[] result = new Route[fleetSize];
+		for (int i = 0; i < fleetSize; ++i) {
+			result[i] = new Route(routes[i]);
+		}
+		return result;
+	}
+
+	/**
+	 * Copies adopted destinations, so that they can be modified by the benchmark
+	 */
+	AdoptedDestinations[] copyAdopted() {
+		AdoptedDestinations[] result = new AdoptedDestinations[fleetSize];
+		for (int i = 0; i < fleetSize; ++i) {
+			result[i] = new AdoptedDestinations();
+			for (Position pos : adopted[i]) {
+				result[i].add(pos, clock.time);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Creates empty maps of processed adoptions
+	 */
+	List<Map<String, Long>> emptyProcessed() {
+		List<Map<String, Long>> result = new ArrayList<>(fleetSize);
+		for (int i = 0; i < fleetSize; ++i) {
+			result.add(new HashMap<>());
+		}
+		return result;
+	}
+}
@@ -0,0 +1,82 @@
+package cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection;
+
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import cz.cuni.mff.d3s.jdeeco.position.Position;
+
+/**
+ * Benchmarks of PositionMonitor and PositionGenerator
+ *
+ * Monitor holds garbage of the whole fleet. Each invocation reports one fresh garbage location per robot as reached,
+ * locations are never reported twice.
+ *
+ */
+public class MonitorBenchmark {
+	/**
+	 * Number of invocations served by single monitor
+	 */
+	private static final int BATCHES = 1000;
+
+	/**
+	 * Monitor with garbage of the fleet and BATCHES locations per robot that were not reached yet
+	 *
+	 * The monitor is rebuilt in setup once all its extra locations were reported, so the benchmark never reports a
+	 * location that was already reached.
+	 */
+	@State(Scope.Thread)
+	public static class Unreached {
+		PositionMonitor monitor;
+		Position[][] batches;
+		int next = BATCHES;
+		final PositionGenerator generator = new PositionGenerator(new Random(3), GarbageCollectDemo.GARBAGE_AREAS);
+
+		@Setup(Level.Invocation)
+		public void setup(Fleet fleet) {
+			if (next < BATCHES) {
+				return;
+			}
+			monitor = new PositionMonitor(fleet.clock);
+			for (int i = 0; i < fleet.fleetSize; ++i) {
+				for (Position pos : fleet.routes[i]) {
+					monitor.addPosition(pos, fleet.ids[i]);
+				}
+			}
+			batches = new Position[BATCHES][fleet.fleetSize];
+			for (int batch = 0; batch < BATCHES; ++batch) {
+				for (int i = 0; i < fleet.fleetSize; ++i) {
+					batches[batch][i] = generator.getRandomPosition();
+					monitor.addPosition(batches[batch][i], fleet.ids[i]);
+				}
+			}
+			next = 0;
+		}
+	}
+
+	/**
+	 * Generator independent of the fleet, so the benchmark does not run for every fleet parameter
+	 */
+	@State(Scope.Thread)
+	public static class Generator {
+		final PositionGenerator generator = new PositionGenerator(new Random(1), GarbageCollectDemo.GARBAGE_AREAS);
+	}
+
+	@Benchmark
+	public void reportReached(Fleet fleet, Unreached unreached) {
+		Position[] batch = unreached.batches[unreached.next++];
+		for (int i = 0; i < fleet.fleetSize; ++i) {
+			unreached.monitor.reportReached(batch[i], fleet.ids[i]);
+		}
+	}
+
+	@Benchmark
+	public void getRandomPosition(Generator generator, Blackhole blackhole) {
+		blackhole.consume(generator.generator.getRandomPosition());
+	}
+}
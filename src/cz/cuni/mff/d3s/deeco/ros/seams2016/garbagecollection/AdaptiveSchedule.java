@@ -0,0 +1,208 @@
+package cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import cz.cuni.mff.d3s.deeco.model.runtime.api.ComponentInstance;
+import cz.cuni.mff.d3s.deeco.model.runtime.api.ComponentProcess;
+import cz.cuni.mff.d3s.deeco.model.runtime.api.TimeTrigger;
+import cz.cuni.mff.d3s.deeco.model.runtime.api.Trigger;
+import cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection.CleanerRobot.State;
+import cz.cuni.mff.d3s.jdeeco.position.Position;
+
+/**
+ * Activity driven periods of robot processes
+ *
+ * The PeriodicScheduling annotation of each process gives its base period. Once the component is deployed the schedule
+ * is attached to the time triggers of its processes and changes their periods, the scheduler plans every next
+ * invocation by the current period of the trigger. Process bodies are not involved, so a process that backs off is
+ * really invoked less often.
+ *
+ * <ul>
+ * <li>Idle robot (no destination, finished or parked) backs off, the periods double with each update up to the maximal
+ * period.</li>
+ * <li>Busy robot (blocked, which happens near other robots, or moving faster than FAST_SPEED_M_S) runs sense and
+ * detectBlocked at their minimal period.</li>
+ * <li>Otherwise the processes run at their base period.</li>
+ * </ul>
+ *
+ * The schedule is updated by the sense process, which reads the position anyway. Any change of destination, state or
+ * route returns the periods to the base period. New period applies from the next planned invocation, so a process that
+ * backed off may react to the change up to its maximal period later.
+ *
+ * Thresholds of the processes are in simulated time, so they do not depend on the current period. Changed periods are
+ * reported to {@link TaskMetrics}, so that the lag of the processes is measured against them.
+ *
+ */
+public class AdaptiveSchedule {
+	/**
+	 * Robots moving faster than this are busy
+	 *
+	 * Above the cruise speed of the robots (KinematicSimulation.MAX_LINEAR_SPEED_MPS), so a robot driving to its goal
+	 * runs at the base periods. Only jumps of the sensed position, e.g. re-localization, count as fast movement.
+	 */
+	public static double FAST_SPEED_M_S = 1.5 * KinematicSimulation.MAX_LINEAR_SPEED_MPS;
+
+	/**
+	 * Adapted processes with their minimal and maximal periods
+	 *
+	 * Base period is taken from the trigger of the process when the schedule is attached.
+	 */
+	public enum Slot {
+		Sense("sense", 50, 1000),
+		DetectBlocked("detectBlocked", 500, 5000),
+		AutoUnblock("autoUnblock", 1000, 5000),
+		ReportStatus("reportStatus", 1000, 10000),
+		ExpireAdoptedDestinations("expireAdoptedDestinations", 3000, 15000),
+		SetDestination("setDestination", 500, 4000),
+		OfferGoals("offerGoals", 3000, 15000),
+		DriveRobot("driveRobot", 2000, 10000);
+
+		final String process;
+		final long minMs, maxMs;
+
+		Slot(String process, long minMs, long maxMs) {
+			this.process = process;
+			this.minMs = minMs;
+			this.maxMs = maxMs;
+		}
+	}
+
+	/**
+	 * Activity of the robot
+	 */
+	public enum Activity {
+		Idle, Normal, Busy
+	}
+
+	private final String robot;
+	private final Map<Slot, TimeTrigger> triggers = new EnumMap<>(Slot.class);
+	private final long[] base = new long[Slot.values().length];
+
+	private volatile Activity activity = Activity.Normal;
+	private double lastX = Double.NaN, lastY;
+	private long lastTime;
+	private long fingerprint;
+	private int idleUpdates;
+
+	/**
+	 * Creates schedule of robot processes
+	 *
+	 * @param robot
+	 *            Robot identification used to report the periods
+	 */
+	public AdaptiveSchedule(String robot) {
+		this.robot = robot;
+	}
+
+	/**
+	 * Attaches the schedule to the processes of deployed component
+	 *
+	 * @param component
+	 *            Deployed CleanerRobot component
+	 */
+	public void attach(ComponentInstance component) {
+		for (ComponentProcess process : component.getComponentProcesses()) {
+			for (Slot slot : Slot.values()) {
+				if (!slot.process.equals(process.getName())) {
+					continue;
+				}
+				for (Trigger trigger : process.getTriggers()) {
+					if (trigger instanceof TimeTrigger) {
+						triggers.put(slot, (TimeTrigger) trigger);
+						base[slot.ordinal()] = ((TimeTrigger) trigger).getPeriod();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Updates activity of the robot and periods of its processes
+	 *
+	 * @param x
+	 *            Current x coordinate
+	 * @param y
+	 *            Current y coordinate
+	 * @param nowMs
+	 *            Current time
+	 * @param destination
+	 *            Current destination
+	 * @param state
+	 *            Current state
+	 * @param routeVersion
+	 *            Modification count of the route
+	 */
+	public void update(double x, double y, long nowMs, Position destination, State state, long routeVersion) {
+		double speed = 0;
+		if (!Double.isNaN(lastX) && nowMs > lastTime) {
+			speed = Math.hypot(x - lastX, y - lastY) * 1000 / (nowMs - lastTime);
+		}
+		lastX = x;
+		lastY = y;
+		lastTime = nowMs;
+
+		if (destination == null) {
+			activity = Activity.Idle;
+		} else if (state == State.Blocked || speed > FAST_SPEED_M_S) {
+			activity = Activity.Busy;
+		} else {
+			activity = Activity.Normal;
+		}
+
+		long knowledge = fingerprint(destination, null, state.ordinal() * 31l + routeVersion);
+		if (knowledge != fingerprint || activity != Activity.Idle) {
+			idleUpdates = 0;
+		} else if (idleUpdates < Integer.SIZE) {
+			idleUpdates++;
+		}
+		fingerprint = knowledge;
+
+		for (Map.Entry<Slot, TimeTrigger> entry : triggers.entrySet()) {
+			long period = getPeriod(entry.getKey());
+			if (entry.getValue().getPeriod() != period) {
+				entry.getValue().setPeriod(period);
+				TaskMetrics.setPeriod(CleanerRobot.class, entry.getKey().process, robot, period);
+			}
+		}
+	}
+
+	Activity getActivity() {
+		return activity;
+	}
+
+	/**
+	 * Gets period of the process for current activity
+	 */
+	long getPeriod(Slot slot) {
+		long basePeriod = base[slot.ordinal()];
+		switch (activity) {
+		case Idle:
+			return idleUpdates >= Integer.SIZE - 1 ? slot.maxMs
+					: Math.max(basePeriod, Math.min(basePeriod << idleUpdates, slot.maxMs));
+		case Busy:
+			return Math.min(basePeriod, slot.minMs);
+		default:
+			return basePeriod;
+		}
+	}
+
+	/**
+	 * Computes fingerprint of knowledge values
+	 *
+	 * Positions are compared by coordinates, the other value by its numeric value.
+	 */
+	public static long fingerprint(Position a, Position b, long other) {
+		long hash = 17;
+		hash = hash * 31 + hash(a);
+		hash = hash * 31 + hash(b);
+		return hash * 31 + other;
+	}
+
+	private static long hash(Position position) {
+		if (position == null) {
+			return 0;
+		}
+		return Double.doubleToLongBits(position.x) * 31 + Double.doubleToLongBits(position.y);
+	}
+}
@@ -1,9 +1,9 @@
 package cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection;
 
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 
 import cz.cuni.mff.d3s.deeco.annotations.Ensemble;
 import cz.cuni.mff.d3s.deeco.annotations.In;
@@ -12,6 +12,7 @@ import cz.cuni.mff.d3s.deeco.annotations.KnowledgeExchange;
 import cz.cuni.mff.d3s.deeco.annotations.Membership;
 import cz.cuni.mff.d3s.deeco.annotations.PeriodicScheduling;
 import cz.cuni.mff.d3s.deeco.task.ParamHolder;
+import cz.cuni.mff.d3s.deeco.timer.CurrentTimeProvider;
 import cz.cuni.mff.d3s.jdeeco.position.Position;
 
 /**
@@ -19,6 +20,9 @@ import cz.cuni.mff.d3s.jdeeco.position.Position;
  * 
  * Destinations adopted by coordinator are removed from members route.
  * 
+ * Destination adopted by both the coordinator and the member is kept by the robot that adopted it most recently, ties
+ * are broken by lower robot id. Exactly one of the robots keeps such destination, see {@link WorkStealingEnsemble}.
+ * 
  * @author Vladimir Matena <matena@d3s.mff.cuni.cz>
  *
  */
@@ -28,27 +32,62 @@ public class AdoptedDestinationRemoveEnsemble {
 	/**
 	 * Ensemble membership
 	 * 
-	 * Returns true when there is way-point to remove from members route
+	 * Returns true when there is way-point to remove from members route. Versions of adopted destinations the member
+	 * has already processed are skipped.
+	 * 
+	 * Replicas of coordinators that did not publish recently are ignored, see {@link ReplicaCache}.
+	 * 
+	 * Result can change only when adopted destinations of some robot or the member's route change, so the route is
+	 * scanned again only then. Results are cached in the member's own guard, see {@link EnsembleGuard}.
 	 */
 	@Membership
-	public static boolean membership(@In("coord.id") String coordId, @In("coord.adoptedDestinations") ArrayList<Position> coordAdopted,
-			@In("member.id") String memberId, @In("member.route") List<Position> memberRoute) {
-		System.out.println(AdoptedDestinationRemoveEnsemble.class.getSimpleName() + " MEMBERSHIP:" + coordId + " -> " + memberId);
-		// Do not remove destinations from ourself
-		if(coordId.equals(memberId)) {
-			return false;
-		}
+	public static boolean membership(@In("coord.id") String coordId, @In("coord.adoptedDestinations") AdoptedDestinations coordAdopted,
+			@In("member.id") String memberId, @In("member.route") List<Position> memberRoute,
+			@In("member.adoptedDestinations") AdoptedDestinations memberAdopted,
+			@In("member.processedAdoptions") Map<String, Long> processedAdoptions,
+			@In("coord.timestamp") Long coordTimestamp, @In("member.clock") CurrentTimeProvider clock,
+			@In("member.removeGuard") EnsembleGuard guard) {
+		long started = TaskMetrics.begin();
+		try {
+			// Do not remove destinations from ourself
+			if(coordId.equals(memberId)) {
+				return false;
+			}
 		
-		// If member has destination adopted by coordinator then do exchange
-		for(Position mbrPos: memberRoute) {
-			for(Position cordPos: coordAdopted)
-			if(mbrPos.euclidDistanceTo(cordPos) < CleanerRobot.SAME_POS_THRESH_M) {
-				System.out.println(AdoptedDestinationRemoveEnsemble.class.getSimpleName() + " members");
-				return true;
+			// Do not act on stale replica
+			if(!ReplicaCache.isFresh(coordTimestamp, clock)) {
+				return false;
+			}
+		
+			// Skip already processed version
+			Long processed = processedAdoptions.get(coordId);
+			if(processed != null && processed == coordAdopted.getVersion()) {
+				return false;
+			}
+		
+			// Nothing adopted, nothing to remove
+			if(coordAdopted.isEmpty()) {
+				return false;
+			}
+		
+			// Same adoptions and route give the same result
+			long fingerprint = guardFingerprint(coordAdopted, memberAdopted, memberRoute);
+			Boolean cached = guard.cached(coordId, fingerprint);
+			if(cached != null) {
+				return cached;
+			}
+		
+			// If member has destination adopted by coordinator then do exchange
+			for(Position mbrPos: memberRoute) {
+				if(coordAdopted.isAdopted(mbrPos) && shouldRemove(mbrPos, coordId, coordAdopted, memberId, memberAdopted)) {
+					return guard.store(coordId, fingerprint, true);
+				}
 			}
-		}
 		
-		return false;
+			return guard.store(coordId, fingerprint, false);
+		} finally {
+			TaskMetrics.end(AdoptedDestinationRemoveEnsemble.class, "membership", memberId, clock, started);
+		}
 	}
 
 	/**
@@ -57,18 +96,62 @@ public class AdoptedDestinationRemoveEnsemble {
 	 * When membership test passes this removes the adopted waypoints
 	 */
 	@KnowledgeExchange
-	public static void exchange(@In("coord.adoptedDestinations") ArrayList<Position> coordAdopted, @InOut("member.route") ParamHolder<List<Position>> memberRoute) {
-		System.err.println(AdoptedDestinationRemoveEnsemble.class.getSimpleName() + " EXCHANGE");
+	public static void exchange(@In("coord.id") String coordId, @In("member.id") String memberId,
+			@In("member.clock") CurrentTimeProvider clock, @In("coord.adoptedDestinations") AdoptedDestinations coordAdopted,
+			@In("member.adoptedDestinations") AdoptedDestinations memberAdopted,
+			@InOut("member.route") ParamHolder<List<Position>> memberRoute,
+			@InOut("member.processedAdoptions") ParamHolder<Map<String, Long>> processedAdoptions) {
+		if (DecisionLog.isEnabled()) {
+			DecisionLog.record(AdoptedDestinationRemoveEnsemble.class, "exchange", coordId, memberId, clock,
+					coordAdopted, memberAdopted, memberRoute, processedAdoptions);
+		}
+
+		long started = TaskMetrics.begin();
+		try {
+			EventLog.log(EventLog.Kind.Exchange, clock.getCurrentMilliseconds(), memberId, null, null, coordId);
 		
-		// If member has destination adopted by coordinator then remove it
-		Collection<Position> toRemove = new HashSet<Position>();
-		for(Position mbrPos: memberRoute.value) {
-			for(Position cordPos: coordAdopted)
-			if(mbrPos.euclidDistanceTo(cordPos) < CleanerRobot.SAME_POS_THRESH_M) {
-				System.err.println("Removing adopted destination " + mbrPos);
-				toRemove.add(mbrPos);
+			// If member has destination adopted by coordinator then remove it
+			Collection<Position> toRemove = new HashSet<Position>();
+			for(Position mbrPos: memberRoute.value) {
+				if(coordAdopted.isAdopted(mbrPos) && shouldRemove(mbrPos, coordId, coordAdopted, memberId, memberAdopted)) {
+					EventLog.log(EventLog.Kind.AdoptedRemoved, clock.getCurrentMilliseconds(), memberId, mbrPos, null,
+							coordId);
+					toRemove.add(mbrPos);
+				}
 			}
+			memberRoute.value.removeAll(toRemove);
+			processedAdoptions.value.put(coordId, coordAdopted.getVersion());
+		} finally {
+			TaskMetrics.end(AdoptedDestinationRemoveEnsemble.class, "exchange", memberId, clock, started);
 		}
-		memberRoute.value.removeAll(toRemove);
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Checks whenever member should remove destination adopted by coordinator
+	 * 
+	 * Member keeps destination it adopted itself more recently than the coordinator, or at the same time when it has
+	 * lower id.
+	 */
+	static boolean shouldRemove(Position position, String coordId, AdoptedDestinations coordAdopted, String memberId,
+			AdoptedDestinations memberAdopted) {
+		long memberTime = memberAdopted.getAdoptionTime(position);
+		if(memberTime < 0) {
+			return true;
+		}
+		long coordTime = coordAdopted.getAdoptionTime(position);
+		return coordTime > memberTime || (coordTime == memberTime && coordId.compareTo(memberId) < 0);
+	}
+
+	/**
+	 * Computes fingerprint of the knowledge the membership depends on
+	 */
+	private static long guardFingerprint(AdoptedDestinations coordAdopted, AdoptedDestinations memberAdopted,
+			List<Position> memberRoute) {
+		long routeVersion = memberRoute instanceof Route ? ((Route) memberRoute).getModificationCount()
+				: memberRoute.hashCode();
+		long hash = 17;
+		hash = hash * 31 + coordAdopted.getVersion();
+		hash = hash * 31 + memberAdopted.getVersion();
+		return hash * 31 + routeVersion;
+	}
+}
@@ -0,0 +1,216 @@
+package cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.AbstractCollection;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+import cz.cuni.mff.d3s.jdeeco.position.Position;
+
+/**
+ * Bounded, versioned collection of destinations adopted from other robots
+ *
+ * Adopted destinations work as tombstones telling the other robots to remove the destinations from their routes. Once
+ * the other robots had enough time to see them, the entries are no longer needed. Each entry therefore expires after
+ * TTL_MS and the collection never holds more than CAPACITY entries, the oldest entries are dropped first.
+ *
+ * Version is incremented on every change. Robots that already processed some version can skip it.
+ *
+ * Adoption times are kept with TIME_RESOLUTION_MS resolution, so the times survive the compact encoding of
+ * {@link #write(DataOutput)} unchanged and the adoption times of replica can be compared with the local ones. Positions
+ * are delta encoded by {@link PositionCodec} and times are stored as varint deltas.
+ *
+ */
+public class AdoptedDestinations extends AbstractCollection<Position> implements Externalizable {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * How long the adopted destination is kept
+	 */
+	static final long TTL_MS = 60000;
+
+	/**
+	 * Maximal number of kept destinations, bounded so that the knowledge of the robot fits single frame, see
+	 * {@link KnowledgeMarshaller}
+	 */
+	static final int CAPACITY = 8;
+
+	/**
+	 * Resolution of adoption times
+	 */
+	static final long TIME_RESOLUTION_MS = 100;
+
+	/**
+	 * Single adopted destination
+	 */
+	private static class Entry {
+		final Position position;
+		final long adoptedAtMs;
+
+		Entry(Position position, long adoptedAtMs) {
+			this.position = position;
+			this.adoptedAtMs = adoptedAtMs;
+		}
+	}
+
+	private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+	private long version = 0;
+
+	/**
+	 * Adds adopted destination
+	 *
+	 * @param position
+	 *            Adopted destination
+	 * @param nowMs
+	 *            Current time, stored rounded down to TIME_RESOLUTION_MS
+	 */
+	public void add(Position position, long nowMs) {
+		expire(nowMs);
+		if (entries.size() == CAPACITY) {
+			entries.removeFirst();
+		}
+		entries.addLast(new Entry(position, nowMs / TIME_RESOLUTION_MS * TIME_RESOLUTION_MS));
+		version++;
+	}
+
+	/**
+	 * Removes entries older than TTL_MS
+	 *
+	 * @param nowMs
+	 *            Current time
+	 * @return Whenever some entry was removed
+	 */
+	public boolean expire(long nowMs) {
+		boolean removed = false;
+		while (!entries.isEmpty() && nowMs - entries.peekFirst().adoptedAtMs > TTL_MS) {
+			entries.removeFirst();
+			removed = true;
+		}
+		if (removed) {
+			version++;
+		}
+		return removed;
+	}
+
+	/**
+	 * Gets time when the position was adopted
+	 * 
+	 * @return Adoption time, or -1 when the position is not adopted
+	 */
+	public long getAdoptionTime(Position position) {
+		long time = -1;
+		for (Entry entry : entries) {
+			if (entry.position.euclidDistanceTo(position) < CleanerRobot.SAME_POS_THRESH_M) {
+				time = Math.max(time, entry.adoptedAtMs);
+			}
+		}
+		return time;
+	}
+
+	/**
+	 * Checks whenever the position is the same as some adopted destination
+	 *
+	 * There are at most CAPACITY entries, so they are scanned directly. Indexing them would cost more than the scan.
+	 */
+	public boolean isAdopted(Position position) {
+		for (Entry entry : entries) {
+			if (entry.position.euclidDistanceTo(position) < CleanerRobot.SAME_POS_THRESH_M) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Gets time of the most recent adoption
+	 * 
+	 * @return Adoption time, or -1 when nothing is adopted
+	 */
+	public long getLastAdoptionTime() {
+		return entries.isEmpty() ? -1 : entries.peekLast().adoptedAtMs;
+	}
+
+	/**
+	 * Gets version of the collection, changes whenever entries are added or removed
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	@Override
+	public void writeExternal(ObjectOutput out) throws IOException {
+		write(out);
+	}
+
+	@Override
+	public void readExternal(ObjectInput in) throws IOException {
+		read(in);
+	}
+
+	/**
+	 * Writes compact form of the collection
+	 */
+	void write(DataOutput out) throws IOException {
+		int count = entries.size();
+		double[] xs = new double[count];
+		double[] ys = new double[count];
+		int i = 0;
+		for (Entry entry : entries) {
+			xs[i] = entry.position.x;
+			ys[i] = entry.position.y;
+			i++;
+		}
+
+		PositionCodec.writeVarLong(out, version);
+		PositionCodec.writeDeltas(out, xs, ys, count);
+		long last = 0;
+		for (Entry entry : entries) {
+			long time = entry.adoptedAtMs / TIME_RESOLUTION_MS;
+			PositionCodec.writeVarLong(out, PositionCodec.zigZag(time - last));
+			last = time;
+		}
+	}
+
+	/**
+	 * Reads compact form written by write, replaces the current content
+	 */
+	void read(DataInput in) throws IOException {
+		entries.clear();
+		version = PositionCodec.readVarLong(in);
+		double[][] positions = PositionCodec.readDeltas(in);
+		if (positions[0].length > CAPACITY) {
+			throw new IOException("Too many adopted destinations: " + positions[0].length);
+		}
+		long time = 0;
+		for (int i = 0; i < positions[0].length; ++i) {
+			time += PositionCodec.unZigZag(PositionCodec.readVarLong(in));
+			entries.addLast(new Entry(new CompactPosition(positions[0][i], positions[1][i]), time * TIME_RESOLUTION_MS));
+		}
+	}
+
+	@Override
+	public int size() {
+		return entries.size();
+	}
+
+	@Override
+	public Iterator<Position> iterator() {
+		Iterator<Entry> it = entries.iterator();
+		return new Iterator<Position>() {
+			@Override
+			public boolean hasNext() {
+				return it.hasNext();
+			}
+
+			@Override
+			public Position next() {
+				return it.next().position;
+			}
+		};
+	}
+}
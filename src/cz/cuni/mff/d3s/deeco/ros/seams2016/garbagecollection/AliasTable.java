@@ -0,0 +1,92 @@
+package cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection;
+
+import java.io.Serializable;
+import java.util.Random;
+
+/**
+ * Weighted random selection in constant time
+ *
+ * Implements Vose's alias method. Construction takes time linear in number of weights, each sample then takes one
+ * random integer and one random double regardless of the number of weights.
+ *
+ */
+public class AliasTable implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private final double[] probability;
+	private final int[] alias;
+
+	/**
+	 * Constructs table for given weights
+	 *
+	 * @param weights
+	 *            Non-negative weights, at least one needs to be positive
+	 */
+	public AliasTable(double[] weights) {
+		int n = weights.length;
+		double total = 0;
+		for (double weight : weights) {
+			if (weight < 0) {
+				throw new RuntimeException("Negative weight: " + weight);
+			}
+			total += weight;
+		}
+		if (n == 0 || total <= 0) {
+			throw new RuntimeException("No positive weight");
+		}
+
+		probability = new double[n];
+		alias = new int[n];
+
+		// Scale weights so that their average is one, split indices to small and large ones
+		double[] scaled = new double[n];
+		int[] small = new int[n];
+		int[] large = new int[n];
+		int smallCount = 0, largeCount = 0;
+		for (int i = 0; i < n; ++i) {
+			scaled[i] = weights[i] * n / total;
+			if (scaled[i] < 1) {
+				small[smallCount++] = i;
+			} else {
+				large[largeCount++] = i;
+			}
+		}
+
+		// Fill each small column up to one using some large column
+		while (smallCount > 0 && largeCount > 0) {
+			int s = small[--smallCount];
+			int l = large[--largeCount];
+			probability[s] = scaled[s];
+			alias[s] = l;
+			scaled[l] = scaled[l] + scaled[s] - 1;
+			if (scaled[l] < 1) {
+				small[smallCount++] = l;
+			} else {
+				large[largeCount++] = l;
+			}
+		}
+
+		// Remaining columns are full, up to rounding errors
+		while (largeCount > 0) {
+			probability[large[--largeCount]] = 1;
+		}
+		while (smallCount > 0) {
+			probability[small[--smallCount]] = 1;
+		}
+	}
+
+	/**
+	 * Number of weights
+	 */
+	public int size() {
+		return probability.length;
+	}
+
+	/**
+	 * Picks random index with probability proportional to its weight
+	 */
+	public int sample(Random random) {
+		int column = random.nextInt(probability.length);
+		return random.nextDouble() < probability[column] ? column : alias[column];
+	}
+}
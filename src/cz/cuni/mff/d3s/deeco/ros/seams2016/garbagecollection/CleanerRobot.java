@@ -1,9 +1,8 @@
 package cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.LinkedList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 
 import cz.cuni.mff.d3s.deeco.annotations.Component;
@@ -31,13 +30,6 @@ import cz.cuni.mff.d3s.jdeeco.ros.datatypes.ROSPosition;
  */
 @Component
 public class CleanerRobot {
-	/**
-	 * Deterministic pseudo-random source
-	 * 
-	 * Used when robot wants to make random decision.
-	 */
-	static final Random random = new Random(42);
-
 	/**
 	 * Maximum distance to destination at which the destination is considered reached
 	 */
@@ -48,6 +40,30 @@ public class CleanerRobot {
 	 */
 	public static double SAME_POS_THRESH_M = 0.01;
 
+	/**
+	 * Minimal movement for which the sensed position is published
+	 * 
+	 * Processes depending on the position redo their work only when it changes, so publishing small movements would only
+	 * cause useless work. Keep this well below REACHED_POS_THRESH_M, the published position can lag the real one by up
+	 * to this distance.
+	 */
+	public static double SENSE_EPSILON_M = 0.2;
+
+	/**
+	 * Movement smaller than SENSE_EPSILON_M, but larger than SAME_POS_THRESH_M is published after this time
+	 * 
+	 * This keeps slowly moving robot from being detected as blocked.
+	 */
+	public static long SENSE_REFRESH_MS = 1000;
+
+	/**
+	 * Whenever process periods adapt to robot activity, see {@link AdaptiveSchedule}
+	 * 
+	 * When disabled the processes run at the periods given by their PeriodicScheduling annotations, as in the original
+	 * demo.
+	 */
+	public static boolean ADAPTIVE_PERIODS = false;
+
 	/**
 	 * State of the robot
 	 */
@@ -64,14 +80,14 @@ public class CleanerRobot {
 	}
 
 	/**
-	 * When the robot is in blocked state for this time or longer local adaptation mechanisms kick-in.
+	 * When the robot is in blocked state for longer than this time local adaptation mechanisms kick-in.
 	 */
 	static final int BLOCKED_AUTORECOVERY_THRESHOLD_S = 6;
 
 	/**
-	 * How many times the robot needs to be found in the same place in order to declare it blocked.
+	 * How long the robot needs to stay in the same place in order to declare it blocked.
 	 */
-	static final long NOCHANGE_POS_THRESH_CNT = 3;
+	static final long NOCHANGE_POS_THRESH_MS = 4000;
 
 	/**
 	 * Current destination of the robot
@@ -81,10 +97,10 @@ public class CleanerRobot {
 	public Position destination;
 
 	/**
-	 * How many cycles is the robot blocked
+	 * Time when the robot was found blocked, null when it is not blocked
 	 */
 	@Local
-	public Long blockedCounter;
+	public Long blockedSince;
 
 	/**
 	 * Time-stamp of the last remote adaptation
@@ -95,9 +111,46 @@ public class CleanerRobot {
 	/**
 	 * Destinations adopted from other robots
 	 * 
-	 * This needs to be non @Local as other robots needs to know and remove such destinations.
+	 * This needs to be non @Local as other robots needs to know and remove such destinations. Entries expire once other
+	 * robots had enough time to see them.
+	 */
+	public AdoptedDestinations adoptedDestinations;
+
+	/**
+	 * Versions of other robots' adopted destinations already removed from the route
+	 * 
+	 * Maps robot id to the last processed version of its adoptedDestinations.
+	 */
+	@Local
+	public Map<String, Long> processedAdoptions;
+
+	/**
+	 * Cached results of AdoptedDestinationRemoveEnsemble membership for this robot as member
+	 */
+	@Local
+	public EnsembleGuard removeGuard;
+
+	/**
+	 * Number of way-points in the route, published for work stealing
+	 */
+	public Integer load;
+
+	/**
+	 * Goals offered to idle robots, see {@link WorkStealingEnsemble}
+	 */
+	public OfferedGoals offeredGoals;
+
+	/**
+	 * Best offer of goals received from loaded robots
+	 */
+	@Local
+	public WorkStealingEnsemble.Offer stealOffer;
+
+	/**
+	 * Time-stamp of the last work stealing
 	 */
-	public Collection<Position> adoptedDestinations;
+	@Local
+	public Long lastSteal;
 
 	/**
 	 * Destination currently set to robots navigation stack
@@ -115,11 +168,28 @@ public class CleanerRobot {
 	 */
 	public Position position;
 
+	/**
+	 * Time when the position was last published
+	 */
+	@Local
+	public Long positionTime;
+
 	/**
 	 * Current state of the robot
 	 */
 	public State state;
 
+	/**
+	 * Time when the robot last sensed, published so that other robots can ignore stale replicas
+	 */
+	public Long timestamp;
+
+	/**
+	 * Inputs setDestination last worked with, see {@link #setDestination}
+	 */
+	@Local
+	public Long destinationInputs;
+
 	/**
 	 * Last position of the robot
 	 * 
@@ -129,16 +199,22 @@ public class CleanerRobot {
 	public Position oldPosition;
 
 	/**
-	 * Number of passes when the robot's position has not changed
+	 * Time since which the robot stays at the last position
 	 */
 	@Local
-	public Long noPosChangeCounter;
+	public Long oldPositionTime;
 
 	/**
 	 * List of garbage locations to be cleaned by robot
 	 */
 	@Local
-	public List<Position> route;
+	public Route route;
+
+	/**
+	 * Modification count of the route when it was last ordered by {@link RouteOptimizer}
+	 */
+	@Local
+	public Integer routeVersion;
 
 	/**
 	 * Reference to robot sensors and actuators
@@ -166,7 +242,43 @@ public class CleanerRobot {
 	 * Generate random position within reachable space of the map
 	 */
 	@Local
-	public PositionGenerator positionGenerator;
+	public PositionSource positionGenerator;
+
+	/**
+	 * Deterministic pseudo-random source
+	 * 
+	 * Used when robot wants to make random decision. Each robot has its own source so that simulations running in
+	 * parallel do not affect each other.
+	 */
+	@Local
+	public Random random;
+
+	/**
+	 * Adaptive periods of the processes, null when the processes run at fixed periods
+	 */
+	@Local
+	public AdaptiveSchedule schedule;
+
+	/**
+	 * Constructor sets robots initial knowledge
+	 * 
+	 * @param id
+	 *            Robot's identification
+	 * @param positioning
+	 *            Reference to sensor and actuator provider
+	 * @param clock
+	 *            Reference to time source
+	 * @param garbage
+	 *            Initial list of garbage locations
+	 * @param monitor
+	 *            Reference to monitoring object
+	 * @param generator
+	 *            Reference to location generator
+	 */
+	public CleanerRobot(String id, Positioning positioning, CurrentTimeProvider clock, List<Position> garbage,
+			PositionMonitor monitor, PositionSource generator) {
+		this(id, positioning, clock, garbage, monitor, generator, new Random(42 ^ id.hashCode()));
+	}
 
 	/**
 	 * Constructor sets robots initial knowledge
@@ -183,129 +295,310 @@ public class CleanerRobot {
 	 *            Reference to monitoring object
 	 * @param generator
 	 *            Reference to location generator
+	 * @param random
+	 *            Source of random decisions
 	 */
 	public CleanerRobot(String id, Positioning positioning, CurrentTimeProvider clock, List<Position> garbage,
-			PositionMonitor monitor, PositionGenerator generator) {
+			PositionMonitor monitor, PositionSource generator, Random random) {
 		this.id = id;
+		this.random = random;
 		this.positioning = positioning;
 		this.position = new Position(0, 0, 0);
 		this.clock = clock;
 		this.monitor = monitor;
 		this.positionGenerator = generator;
-		this.noPosChangeCounter = 0l;
-		this.adoptedDestinations = new ArrayList<>();
+		this.oldPositionTime = clock.getCurrentMilliseconds();
+		this.positionTime = 0l;
+		this.timestamp = clock.getCurrentMilliseconds();
+		this.adoptedDestinations = new AdoptedDestinations();
+		this.processedAdoptions = new HashMap<>();
+		this.removeGuard = new EnsembleGuard(AdoptedDestinationRemoveEnsemble.class);
 		this.state = State.Free;
-		this.blockedCounter = 0l;
 
 		// Set waypoints and initial destination
-		this.route = garbage;
+		this.route = garbage instanceof Route ? (Route) garbage : new Route(garbage);
 		this.destination = route.get(0);
+		this.routeVersion = -1;
+		this.load = route.size();
+		this.offeredGoals = new OfferedGoals();
+		this.schedule = ADAPTIVE_PERIODS ? new AdaptiveSchedule(id) : null;
 	}
 
 	/**
 	 * Collects information from sensors
 	 * 
+	 * The position is replaced only when the robot moved by more than SENSE_EPSILON_M, or by more than
+	 * SAME_POS_THRESH_M and SENSE_REFRESH_MS passed since the last change, positionTime then tells when. Standing robot
+	 * keeps the same position object and position time, so processes depending on the position skip their work.
+	 * 
+	 * The knowledge manager notifies triggers of all knowledge written by a process, changed or not. Position is written
+	 * with every sense, so no process is triggered by its change, the dependent processes run periodically.
+	 * 
+	 * Unfiltered position together with state and destination is passed to {@link TrajectoryRecorder} when recording.
+	 * 
+	 * Sensed position together with destination, state and route also updates the schedule of the robot's processes.
+	 * 
+	 * @param id
+	 *            Robot identification
 	 * @param position
 	 *            Collected position
+	 * @param positionTime
+	 *            Time of the last position change
+	 * @param timestamp
+	 *            Time of the sensing, see {@link ReplicaCache#isFresh(Long, CurrentTimeProvider)}
+	 * @param state
+	 *            Robot state, recorded only
+	 * @param destination
+	 *            Current destination, recorded only
+	 * @param route
+	 *            Remaining way-points, passed to the schedule only
 	 * @param positioning
 	 *            Position sensor access object
+	 * @param clock
+	 *            Time source
+	 * @param schedule
+	 *            Adaptive schedule, null for fixed periods
 	 */
 	@Process
 	@PeriodicScheduling(period = 100)
-	public static void sense(@Out("position") ParamHolder<Position> position,
-			@In("positioning") Positioning positioning) {
-		PoseWithCovariance pos = positioning.getPoseWithCovariance();
-		if (pos != null) {
-			position.value = new Position(pos.position.x, pos.position.y, pos.position.z);
-		} else {
-			position.value = new Position(0, 0, 0);
+	public static void sense(@In("id") String id, @InOut("position") ParamHolder<Position> position,
+			@InOut("positionTime") ParamHolder<Long> positionTime, @Out("timestamp") ParamHolder<Long> timestamp,
+			@In("state") State state, @In("destination") Position destination, @In("route") Route route,
+			@In("positioning") Positioning positioning, @In("clock") CurrentTimeProvider clock,
+			@In("schedule") AdaptiveSchedule schedule) {
+		long started = TaskMetrics.begin();
+		try {
+			PoseWithCovariance pos = positioning.getPoseWithCovariance();
+			double x = pos != null ? pos.position.x : 0;
+			double y = pos != null ? pos.position.y : 0;
+
+			long now = clock.getCurrentMilliseconds();
+			if (schedule != null) {
+				schedule.update(x, y, now, destination, state, route.getModificationCount());
+			}
+			timestamp.value = now;
+			TrajectoryRecorder.record(id, now, x, y, state, destination);
+
+			if (position.value != null) {
+				double moved = Math.hypot(position.value.x - x, position.value.y - y);
+				boolean refresh = moved > SAME_POS_THRESH_M && now - positionTime.value >= SENSE_REFRESH_MS;
+				if (moved <= SENSE_EPSILON_M && !refresh) {
+					return;
+				}
+			}
+
+			position.value = new CompactPosition(x, y);
+			positionTime.value = now;
+		} finally {
+			TaskMetrics.end(CleanerRobot.class, "sense", id, clock, started);
 		}
 	}
 
 	/**
-	 * Reports robots status by printing information to console
+	 * Reports robots status to the event log
 	 */
 	@Process
 	@PeriodicScheduling(period = 1000)
 	public static void reportStatus(@In("id") String id, @In("position") Position position,
 			@In("clock") CurrentTimeProvider clock, @In("destination") Position destination, @In("curDestination") Position curDestination,
 			@In("route") List<Position> route, @In("state") State state) {
-		System.out.format("%d: id: %s", clock.getCurrentMilliseconds(), id);
-		System.out.format(", pos: %s, state: %s", position.toString(), state);
-		System.out.format(", destination: (pos: %s, dist: %f, set: %s) remaining:%d%n", destination != null ? destination : "none",
-				destination != null ? destination.euclidDistanceTo(position) : -1.0, curDestination, route.size());
+		long started = TaskMetrics.begin();
+		try {
+			if (EventLog.isEnabled(EventLog.Kind.Status)) {
+				EventLog.log(EventLog.Kind.Status, clock.getCurrentMilliseconds(), id, position, destination,
+						String.format("state: %s, set: %s, remaining: %d", state, curDestination, route.size()));
+			}
+		} finally {
+			TaskMetrics.end(CleanerRobot.class, "reportStatus", id, clock, started);
+		}
 	}
 
 	/**
 	 * Local adaptation to robot blocking
 	 * 
-	 * If robot is blocked long enough this tries to set different destination from list of entirely random one.
+	 * If robot is blocked long enough this tries to set different destination from list of entirely random one. The
+	 * time the robot is blocked is measured from the time detectBlocked found it blocked.
 	 */
 	@Process
 	@PeriodicScheduling(period = 1000)
 	public static void autoUnblock(@In("id") String id, @In("clock") CurrentTimeProvider clock,
-			@InOut("blockedCounter") ParamHolder<Long> blockedCounter, @InOut("state") ParamHolder<State> state,
-			@InOut("destination") ParamHolder<Position> destination, @In("positionGenerator") PositionGenerator generator,
-			@In("route") List<Position> route) {
-		// Increase blocked counter
-		if (state.value == State.Blocked) {
-			blockedCounter.value++;
-		} else {
-			blockedCounter.value = 0l;
+			@InOut("blockedSince") ParamHolder<Long> blockedSince, @InOut("state") ParamHolder<State> state,
+			@InOut("destination") ParamHolder<Position> destination, @In("positionGenerator") PositionSource generator,
+			@In("route") Route route, @In("random") Random random) {
+		if (DecisionLog.isEnabled()) {
+			DecisionLog.record(CleanerRobot.class, "autoUnblock", id, clock, blockedSince, state, destination,
+					generator, route, random);
 		}
 
-		if (blockedCounter.value > BLOCKED_AUTORECOVERY_THRESHOLD_S) {
-			System.out.println(">>>>>>> Auto unblocking robot " + id + "<<<<<<");
-
-			if (random.nextDouble() > (1.0 / (route.size() + 1.0)) && !route.isEmpty()) {
-				// Set completely random destination
-				destination.value = generator.getRandomPosition();
-				System.out.println("Random");
-			} else {
-				// Set random destination from list
-				System.out.println("Another");
-				destination.value = route.get(random.nextInt(route.size()));
+		long started = TaskMetrics.begin();
+		try {
+			if (state.value == State.Blocked && blockedSince.value != null
+					&& clock.getCurrentMilliseconds() - blockedSince.value > BLOCKED_AUTORECOVERY_THRESHOLD_S * 1000) {
+				if (random.nextDouble() > (1.0 / (route.size() + 1.0)) && !route.isEmpty()) {
+					// Set completely random destination
+					destination.value = generator.getRandomPosition();
+					EventLog.log(EventLog.Kind.AutoUnblockRandom, clock.getCurrentMilliseconds(), id, destination.value,
+							null);
+				} else {
+					// Set random destination from list
+					destination.value = route.get(random.nextInt(route.size()));
+					EventLog.log(EventLog.Kind.AutoUnblockRoute, clock.getCurrentMilliseconds(), id, destination.value,
+							null);
+				}
+
+				state.value = State.Free;
+				blockedSince.value = null;
 			}
+		} finally {
+			TaskMetrics.end(CleanerRobot.class, "autoUnblock", id, clock, started);
+		}
+	}
 
-			System.out.println("New destination: " + destination.value);
-
-			state.value = State.Free;
-			blockedCounter.value = 0l;
+	/**
+	 * Drops expired destinations adopted from other robots
+	 */
+	@Process
+	@PeriodicScheduling(period = 3000)
+	public static void expireAdoptedDestinations(@In("id") String id, @In("clock") CurrentTimeProvider clock,
+			@InOut("adoptedDestinations") ParamHolder<AdoptedDestinations> adoptedDestinations) {
+		long started = TaskMetrics.begin();
+		try {
+			adoptedDestinations.value.expire(clock.getCurrentMilliseconds());
+		} finally {
+			TaskMetrics.end(CleanerRobot.class, "expireAdoptedDestinations", id, clock, started);
 		}
 	}
 
 	/**
 	 * Sets current destination according to garbage locations
+	 * 
+	 * Whenever the route changes (way-point reached, adopted or removed) it is reordered into a short tour from the
+	 * current position. Unchanged route is not reordered, so the process stays cheap.
+	 * 
+	 * Nothing is done when neither the position (see positionTime), nor the route, nor the destination changed since the
+	 * last run, as the result would be the same. Standing robot therefore only checks its inputs.
 	 */
 	@Process
 	@PeriodicScheduling(period = 500)
 	public static void setDestination(@In("id") String id, @In("position") Position position,
-			@InOut("route") ParamHolder<List<Position>> route, @InOut("destination") ParamHolder<Position> destination,
-			@In("clock") CurrentTimeProvider clock, @In("monitor") PositionMonitor monitor) {
-		// Report and remove reached position
-		List<Position> toRemove = new LinkedList<>();
-		for (Position pos : route.value) {
-			if (position.euclidDistanceTo(pos) < REACHED_POS_THRESH_M) {
-				monitor.reportReached(pos, id);
-				toRemove.add(pos);
+			@In("positionTime") Long positionTime, @InOut("route") ParamHolder<Route> route,
+			@InOut("routeVersion") ParamHolder<Integer> routeVersion,
+			@InOut("destination") ParamHolder<Position> destination,
+			@InOut("destinationInputs") ParamHolder<Long> destinationInputs, @In("clock") CurrentTimeProvider clock,
+			@In("monitor") PositionMonitor monitor) {
+		if (DecisionLog.isEnabled()) {
+			DecisionLog.record(CleanerRobot.class, "setDestination", id, position, positionTime, route, routeVersion,
+					destination, destinationInputs, clock, monitor);
+		}
+
+		long started = TaskMetrics.begin();
+		try {
+			if (destinationInputs.value != null
+					&& destinationInputs.value == destinationInputs(positionTime, route.value, destination.value)) {
+				return;
+			}
+
+			// Report and remove reached position
+			route.value.removeWithin(position.x, position.y, REACHED_POS_THRESH_M,
+					pos -> monitor.reportReached(pos, id));
+
+			// Keep the route ordered
+			if (route.value.getModificationCount() != routeVersion.value) {
+				RouteOptimizer.optimize(route.value, position.x, position.y);
+				routeVersion.value = route.value.getModificationCount();
 			}
+
+			if (destination.value == null || position.euclidDistanceTo(destination.value) < REACHED_POS_THRESH_M) {
+				// Try to set new destination
+				if (route.value.isEmpty()) {
+					EventLog.log(EventLog.Kind.NoWaypoints, clock.getCurrentMilliseconds(), id, position, null);
+					destination.value = null;
+				} else {
+					destination.value = route.value.get(0);
+					EventLog.log(EventLog.Kind.NextWaypoint, clock.getCurrentMilliseconds(), id, position,
+							destination.value);
+				}
+			}
+			destinationInputs.value = destinationInputs(positionTime, route.value, destination.value);
+		} finally {
+			TaskMetrics.end(CleanerRobot.class, "setDestination", id, clock, started);
 		}
-		route.value.removeAll(toRemove);
+	}
 
-		if (destination.value == null || position.euclidDistanceTo(destination.value) < REACHED_POS_THRESH_M) {
-			// Try to set new destination
-			if (route.value.isEmpty()) {
-				System.out.format("%d: Id: %s, No more waypoints to reach%n", clock.getCurrentMilliseconds(), id);
-				destination.value = null;
-			} else {
-				System.out.format("%d: Id: %s, Setting next waypoint as destination%n", clock.getCurrentMilliseconds(), id);
-				destination.value = route.value.get(0);
+	/**
+	 * Fingerprint of the inputs of setDestination
+	 */
+	private static long destinationInputs(Long positionTime, Route route, Position destination) {
+		return AdaptiveSchedule.fingerprint(destination, null, positionTime * 31 + route.getModificationCount());
+	}
+
+	/**
+	 * Publishes load and goals offered to idle robots
+	 */
+	@Process
+	@PeriodicScheduling(period = 3000)
+	public static void offerGoals(@In("id") String id, @In("route") Route route,
+			@In("destination") Position destination, @Out("load") ParamHolder<Integer> load,
+			@Out("offeredGoals") ParamHolder<OfferedGoals> offeredGoals, @In("clock") CurrentTimeProvider clock) {
+		long started = TaskMetrics.begin();
+		try {
+			load.value = route.size();
+			offeredGoals.value = WorkStealingEnsemble.selectOffered(route, destination);
+		} finally {
+			TaskMetrics.end(CleanerRobot.class, "offerGoals", id, clock, started);
+		}
+	}
+
+	/**
+	 * Steals goals from loaded robot when the robot has nothing to do
+	 * 
+	 * Stolen goals are added to the route and to the adopted destinations, so that the victim removes them from its
+	 * route.
+	 */
+	@Process
+	@PeriodicScheduling(period = 1000)
+	public static void stealGoals(@In("id") String id, @In("clock") CurrentTimeProvider clock,
+			@In("position") Position position, @InOut("route") ParamHolder<Route> route,
+			@InOut("adoptedDestinations") ParamHolder<AdoptedDestinations> adoptedDestinations,
+			@InOut("stealOffer") ParamHolder<WorkStealingEnsemble.Offer> stealOffer,
+			@InOut("lastSteal") ParamHolder<Long> lastSteal, @In("monitor") PositionMonitor monitor) {
+		if (DecisionLog.isEnabled()) {
+			DecisionLog.record(CleanerRobot.class, "stealGoals", id, clock, position, route, adoptedDestinations,
+					stealOffer, lastSteal, monitor);
+		}
+
+		long started = TaskMetrics.begin();
+		try {
+			long now = clock.getCurrentMilliseconds();
+			WorkStealingEnsemble.Offer offer = stealOffer.value;
+			if (!route.value.isEmpty() || offer == null) {
+				return;
+			}
+			if (now - offer.receivedAtMs > WorkStealingEnsemble.OFFER_TTL_MS) {
+				stealOffer.value = null;
+				return;
+			}
+			if (lastSteal.value != null && now - lastSteal.value < WorkStealingEnsemble.STEAL_BACKOFF_MS) {
+				return;
 			}
+
+			for (Position pos : WorkStealingEnsemble.selectStolen(offer, position, adoptedDestinations.value)) {
+				EventLog.log(EventLog.Kind.Stolen, now, id, pos, null, offer.robot);
+				adoptedDestinations.value.add(pos, now);
+				route.value.add(pos);
+				monitor.reportReassigned(pos, id);
+			}
+			stealOffer.value = null;
+			lastSteal.value = now;
+		} finally {
+			TaskMetrics.end(CleanerRobot.class, "stealGoals", id, clock, started);
 		}
 	}
 
 	/**
 	 * Sets destination to robot navigation and routing stack
+	 * 
+	 * Runs periodically, also polls the result of the navigation.
 	 */
 	@Process
 	@PeriodicScheduling(period = 2000)
@@ -313,67 +606,106 @@ public class CleanerRobot {
 			@In("positioning") Positioning positioning, @In("destination") Position destination,
 			@InOut("curDestination") ParamHolder<Position> curDestination, @In("clock") CurrentTimeProvider clock,
 			@InOut("state") ParamHolder<State> state, @In("monitor") PositionMonitor monitor) throws Exception {
-		if (destination == null) {
-			System.out.format("%d: Id: %s, No destination to set%n", clock.getCurrentMilliseconds(), id);
-			return;
-		}
+		long started = TaskMetrics.begin();
+		try {
+			if (destination == null) {
+				EventLog.log(EventLog.Kind.NoDestination, clock.getCurrentMilliseconds(), id, pos, null);
+				return;
+			}
 
-		// Set destination if not yet set
-		if (curDestination.value == null || destination.euclidDistanceTo(curDestination.value) > SAME_POS_THRESH_M
-				|| positioning.getMoveBaseResult() == null) {
-			System.out.format("%d: Id: %s, Setting destination%n", clock.getCurrentMilliseconds(), id);
-			positioning.setSimpleGoal(ROSPosition.fromPosition(destination), new Orientation(0, 0, 0, 1));
-			curDestination.value = destination;
-		}
+			// Set destination if not yet set
+			if (curDestination.value == null || destination.euclidDistanceTo(curDestination.value) > SAME_POS_THRESH_M
+					|| positioning.getMoveBaseResult() == null) {
+				EventLog.log(EventLog.Kind.SetDestination, clock.getCurrentMilliseconds(), id, pos, destination);
+				positioning.setSimpleGoal(ROSPosition.fromPosition(destination), new Orientation(0, 0, 0, 1));
+				curDestination.value = destination;
+			}
 
-		// Process move result
-		if (positioning.getMoveBaseResult() != null && destination.euclidDistanceTo(pos) < SAME_POS_THRESH_M) {
-			switch (positioning.getMoveBaseResult().status) {
-			case Succeeded:
-				System.out.format("%d: Id: %s, Goal reached: %s%n", clock.getCurrentMilliseconds(), id, destination);
-				monitor.reportReached(pos, id);
-				break;
-			case Rejected:
-				System.out.format("%d: Id: %s, Goal rejected: %s%n", clock.getCurrentMilliseconds(), id, destination);
-				break;
-			case Canceled:
-				System.out.format("%d: Id: %s, Goal canceled: %s%n", clock.getCurrentMilliseconds(), id, destination);
-				break;
-			default:
-				System.out.format("%d: Id: %s, unknown result: %s%n", clock.getCurrentMilliseconds(), id,
-						positioning.getMoveBaseResult().toString());
+			// Process move result
+			if (positioning.getMoveBaseResult() != null
+					&& destination.euclidDistanceTo(pos) < goalTolerance(positioning)) {
+				switch (positioning.getMoveBaseResult().status) {
+				case Succeeded:
+					EventLog.log(EventLog.Kind.GoalReached, clock.getCurrentMilliseconds(), id, pos, destination);
+					monitor.reportReached(destination, id);
+					break;
+				case Rejected:
+					EventLog.log(EventLog.Kind.GoalRejected, clock.getCurrentMilliseconds(), id, pos, destination);
+					break;
+				case Canceled:
+					EventLog.log(EventLog.Kind.GoalCanceled, clock.getCurrentMilliseconds(), id, pos, destination);
+					break;
+				default:
+					EventLog.log(EventLog.Kind.GoalUnknown, clock.getCurrentMilliseconds(), id, pos, destination,
+							String.valueOf(positioning.getMoveBaseResult().status));
+				}
 			}
+		} finally {
+			TaskMetrics.end(CleanerRobot.class, "driveRobot", id, clock, started);
 		}
 	}
 
+	/**
+	 * Gets distance from the destination at which the navigation of the robot reports the goal reached
+	 *
+	 * The headless simulation stops within its goal tolerance. Robots navigated by ROS are expected to stop at the same
+	 * position.
+	 */
+	private static double goalTolerance(Positioning positioning) {
+		return positioning instanceof KinematicPositioning ? KinematicSimulation.GOAL_TOLERANCE_M : SAME_POS_THRESH_M;
+	}
+
 	/**
 	 * Detects whenever the robot is blocked by checking the current and the last position
+	 * 
+	 * The robot is blocked when it wants to move, but stays at the same position for NOCHANGE_POS_THRESH_MS. The time
+	 * is measured in simulated time, so the result does not depend on the period of the process. Blocked robot gets the
+	 * time it was found blocked, which is used by the recovery mechanisms.
+	 * 
+	 * The position is compared with SAME_POS_THRESH_M, but the published position changes only when the robot moves by
+	 * SENSE_EPSILON_M, or by SAME_POS_THRESH_M after SENSE_REFRESH_MS, see {@link #sense}. Robot moving less than
+	 * SENSE_EPSILON_M per SENSE_REFRESH_MS is therefore still seen moving, robot moving less than SAME_POS_THRESH_M is
+	 * seen standing.
 	 */
 	@Process
 	@PeriodicScheduling(period = 1000)
 	public static void detectBlocked(@In("id") String id, @In("position") Position pos,
 			@InOut("oldPosition") ParamHolder<Position> oldPos,
-			@InOut("noPosChangeCounter") ParamHolder<Long> noPosChangeCounter, @InOut("state") ParamHolder<State> state,
-			@In("destination") Position destination) {
-		// If we have nothing to do just return
-		if (destination == null) {
-			return;
+			@InOut("oldPositionTime") ParamHolder<Long> oldPosTime, @InOut("state") ParamHolder<State> state,
+			@InOut("blockedSince") ParamHolder<Long> blockedSince, @In("destination") Position destination,
+			@In("clock") CurrentTimeProvider clock) {
+		if (DecisionLog.isEnabled()) {
+			DecisionLog.record(CleanerRobot.class, "detectBlocked", id, pos, oldPos, oldPosTime, state, blockedSince,
+					destination, clock);
 		}
-		// Increment no change counter
-		boolean noMove = oldPos.value != null && oldPos.value.euclidDistanceTo(pos) < SAME_POS_THRESH_M;
-		boolean wantMove = pos.euclidDistanceTo(destination) > REACHED_POS_THRESH_M;
-		if (wantMove && noMove) {
-			noPosChangeCounter.value++;
-		} else {
-			noPosChangeCounter.value = 0l;
-		}
-		oldPos.value = pos;
 
-		// Adjust blocked
-		if (noPosChangeCounter.value > NOCHANGE_POS_THRESH_CNT) {
-			state.value = State.Blocked;
-		} else {
-			state.value = State.Free;
+		long started = TaskMetrics.begin();
+		try {
+			// If we have nothing to do just return
+			if (destination == null) {
+				return;
+			}
+			// Restart the time when the robot moved or does not want to move
+			long now = clock.getCurrentMilliseconds();
+			boolean noMove = oldPos.value != null && oldPos.value.euclidDistanceTo(pos) < SAME_POS_THRESH_M;
+			boolean wantMove = pos.euclidDistanceTo(destination) > REACHED_POS_THRESH_M;
+			if (!wantMove || !noMove) {
+				oldPos.value = pos;
+				oldPosTime.value = now;
+			}
+
+			// Adjust blocked
+			if (now - oldPosTime.value >= NOCHANGE_POS_THRESH_MS) {
+				if (state.value != State.Blocked) {
+					blockedSince.value = now;
+				}
+				state.value = State.Blocked;
+			} else {
+				state.value = State.Free;
+				blockedSince.value = null;
+			}
+		} finally {
+			TaskMetrics.end(CleanerRobot.class, "detectBlocked", id, clock, started);
 		}
 	}
 }
@@ -0,0 +1,19 @@
+package cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection;
+
+import cz.cuni.mff.d3s.jdeeco.position.Position;
+
+/**
+ * Planar position rounded to the precision of {@link PositionCodec}
+ *
+ * Behaves as ordinary position. Coordinates are rounded when the position is created, so {@link KnowledgeMarshaller}
+ * transfers the position exactly and the replica of the knowledge holds the same coordinates as the robot that
+ * published it.
+ *
+ */
+public class CompactPosition extends Position {
+	private static final long serialVersionUID = 1L;
+
+	public CompactPosition(double x, double y) {
+		super(PositionCodec.quantize(x), PositionCodec.quantize(y));
+	}
+}
@@ -0,0 +1,228 @@
+package cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import cz.cuni.mff.d3s.deeco.task.ParamHolder;
+import cz.cuni.mff.d3s.deeco.timer.CurrentTimeProvider;
+
+/**
+ * Capture of process and ensemble inputs for offline replay
+ *
+ * Instrumented processes and knowledge exchanges pass all their arguments to {@link #record(Class, String, Object...)}
+ * before doing anything else. The arguments are serialized immediately, so the log holds the knowledge as the method
+ * saw it, including the state of the robot's random number generator. {@link DecisionReplay} then re-executes the
+ * methods from the log without ROS, network or the rest of the simulation.
+ *
+ * Arguments that can not be serialized are replaced by markers:
+ * <ul>
+ * <li>Clock is replaced by the time of the invocation, replay passes a clock fixed at that time.</li>
+ * <li>Position monitor is replaced by a marker, replay passes its own monitor.</li>
+ * <li>Position generator is written once, each invocation then stores only the state of its random data source.</li>
+ * <li>Anything else not serializable (positioning) is replaced by null.</li>
+ * </ul>
+ *
+ * Positions are serialized with centimeter precision by {@link CompactPosition}. The stream is compressed, class
+ * descriptors repeated for every invocation take most of the uncompressed size.
+ *
+ * Membership conditions are not captured, they are evaluated for every pair of robots and the log would be dominated
+ * by them. The exchange of the formed ensembles is captured.
+ *
+ * Logging is global and disabled until {@link #start(String)} is called. Call sites check {@link #isEnabled()} first,
+ * so disabled logging costs a single volatile read per invocation.
+ *
+ */
+public class DecisionLog {
+	/**
+	 * Captured invocation
+	 */
+	public static class Decision implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * Sequence number of the invocation
+		 */
+		public final long sequence;
+
+		/**
+		 * Name of the class declaring the method
+		 */
+		public final String owner;
+		public final String method;
+
+		/**
+		 * Time of the invocation, time of the previous invocation when the method has no clock
+		 */
+		public final long timeMs;
+
+		final Object[] args;
+
+		Decision(long sequence, String owner, String method, long timeMs, Object[] args) {
+			this.sequence = sequence;
+			this.owner = owner;
+			this.method = method;
+			this.timeMs = timeMs;
+			this.args = args;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d %d %s.%s", sequence, timeMs, owner.substring(owner.lastIndexOf('.') + 1), method);
+		}
+	}
+
+	/**
+	 * Captured ParamHolder
+	 */
+	static class Holder implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		final Object value;
+
+		Holder(Object value) {
+			this.value = value;
+		}
+	}
+
+	/**
+	 * Markers of arguments replaced by replay
+	 */
+	enum Marker {
+		Clock, Monitor, Unavailable
+	}
+
+	/**
+	 * Position generator written to the log when first seen
+	 */
+	static class GeneratorDefinition implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		final int id;
+		final PositionSource generator;
+
+		GeneratorDefinition(int id, PositionSource generator) {
+			this.id = id;
+			this.generator = generator;
+		}
+	}
+
+	/**
+	 * State of position generator at the time of invocation
+	 */
+	static class GeneratorState implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		final int id;
+		final Random random;
+
+		GeneratorState(int id, Random random) {
+			this.id = id;
+			this.random = random;
+		}
+	}
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private static volatile boolean enabled = false;
+
+	private static ObjectOutputStream out;
+	private static long sequence;
+	private static long lastTime;
+	private static final Map<PositionSource, Integer> generators = new IdentityHashMap<>();
+
+	/**
+	 * Checks whenever invocations are captured
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Starts capturing invocations to file
+	 */
+	public static synchronized void start(String filename) throws IOException {
+		if (enabled) {
+			throw new IllegalStateException("Decision log already started");
+		}
+		out = new ObjectOutputStream(new GZIPOutputStream(new FileOutputStream(filename), BUFFER_SIZE));
+		sequence = 0;
+		lastTime = 0;
+		generators.clear();
+		enabled = true;
+	}
+
+	/**
+	 * Captures invocation
+	 *
+	 * @param owner
+	 *            Class declaring the method
+	 * @param method
+	 *            Name of the static method
+	 * @param args
+	 *            All arguments of the method in declaration order
+	 */
+	public static void record(Class<?> owner, String method, Object... args) {
+		synchronized (DecisionLog.class) {
+			if (!enabled) {
+				return;
+			}
+			try {
+				Object[] captured = new Object[args.length];
+				for (int i = 0; i < args.length; ++i) {
+					captured[i] = capture(args[i]);
+				}
+				out.writeObject(new Decision(sequence++, owner.getName(), method, lastTime, captured));
+				// Later invocations must not refer to the objects written so far, their state changes
+				out.reset();
+			} catch (IOException e) {
+				System.err.println("Decision capture failed: " + e);
+				enabled = false;
+			}
+		}
+	}
+
+	private static Object capture(Object arg) throws IOException {
+		if (arg instanceof ParamHolder) {
+			return new Holder(capture(((ParamHolder<?>) arg).value));
+		}
+		if (arg instanceof CurrentTimeProvider) {
+			lastTime = ((CurrentTimeProvider) arg).getCurrentMilliseconds();
+			return Marker.Clock;
+		}
+		if (arg instanceof PositionMonitor) {
+			return Marker.Monitor;
+		}
+		if (arg instanceof PositionSource) {
+			PositionSource generator = (PositionSource) arg;
+			Integer id = generators.get(generator);
+			if (id == null) {
+				id = generators.size();
+				generators.put(generator, id);
+				out.writeObject(new GeneratorDefinition(id, generator));
+			}
+			return new GeneratorState(id, generator.getRandom());
+		}
+		if (arg != null && !(arg instanceof Serializable)) {
+			return Marker.Unavailable;
+		}
+		return arg;
+	}
+
+	/**
+	 * Flushes and closes the log
+	 */
+	public static synchronized void stop() throws IOException {
+		if (!enabled) {
+			return;
+		}
+		enabled = false;
+		out.close();
+		out = null;
+	}
+}
@@ -0,0 +1,299 @@
+package cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection.DecisionLog.Decision;
+import cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection.DecisionLog.GeneratorDefinition;
+import cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection.DecisionLog.GeneratorState;
+import cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection.DecisionLog.Holder;
+import cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection.DecisionLog.Marker;
+import cz.cuni.mff.d3s.deeco.task.ParamHolder;
+import cz.cuni.mff.d3s.deeco.timer.CurrentTimeProvider;
+import cz.cuni.mff.d3s.jdeeco.position.Position;
+
+/**
+ * Offline replay of invocations captured by {@link DecisionLog}
+ *
+ * Each captured invocation is executed again in the original order with the captured arguments. Clock arguments are
+ * fixed at the captured time and random data sources continue from the captured state, so replay of unchanged code
+ * makes the same decisions as the original run.
+ *
+ * For "what-if" experiments a class can be substituted by another one declaring static methods of the same names and
+ * parameters. Each invocation is replayed from its captured inputs, different decisions of the substituted code do not
+ * propagate to later invocations.
+ *
+ */
+public class DecisionReplay {
+	/**
+	 * Receives replayed invocations
+	 */
+	public interface Listener {
+		/**
+		 * Called after the invocation is replayed
+		 *
+		 * @param decision
+		 *            Captured invocation
+		 * @param args
+		 *            Arguments after the invocation, ParamHolders hold the outputs
+		 * @param result
+		 *            Value returned by the method, null for void methods
+		 */
+		void replayed(Decision decision, Object[] args, Object result);
+	}
+
+	/**
+	 * Clock fixed at the time of the replayed invocation
+	 */
+	private static class ReplayClock implements CurrentTimeProvider {
+		long time;
+
+		@Override
+		public long getCurrentMilliseconds() {
+			return time;
+		}
+	}
+
+	private final ReplayClock clock = new ReplayClock();
+	private final PositionMonitor monitor = new PositionMonitor(clock);
+	private final Map<Integer, PositionSource> generators = new HashMap<>();
+	private final Map<String, Class<?>> substitutes = new HashMap<>();
+	private final Map<String, Method> methods = new HashMap<>();
+
+	/**
+	 * Replaces class by another one
+	 *
+	 * @param original
+	 *            Class whose methods were captured
+	 * @param replacement
+	 *            Class declaring static methods of the same names and parameters, it needs to declare only the
+	 *            methods that differ
+	 */
+	public void substitute(Class<?> original, Class<?> replacement) {
+		substitutes.put(original.getName(), replacement);
+		methods.clear();
+	}
+
+	/**
+	 * Gets monitor receiving reports of the replayed invocations
+	 *
+	 * The monitor knows no goals, so reached and reassigned goals are not counted.
+	 */
+	public PositionMonitor getMonitor() {
+		return monitor;
+	}
+
+	/**
+	 * Replays all invocations from the log
+	 *
+	 * @param file
+	 *            Log written by DecisionLog
+	 * @param listener
+	 *            Receives replayed invocations, may be null
+	 * @return Number of replayed invocations
+	 */
+	public long replay(Path file, Listener listener) throws IOException {
+		generators.clear();
+		long count = 0;
+		try (InputStream stream = new GZIPInputStream(Files.newInputStream(file), 1 << 16);
+				ObjectInputStream in = new ObjectInputStream(stream)) {
+			while (true) {
+				Object entry;
+				try {
+					entry = in.readObject();
+				} catch (EOFException e) {
+					break;
+				} catch (ClassNotFoundException e) {
+					throw new IOException("Unknown class in decision log", e);
+				}
+
+				if (entry instanceof GeneratorDefinition) {
+					GeneratorDefinition definition = (GeneratorDefinition) entry;
+					generators.put(definition.id, definition.generator);
+				} else {
+					Decision decision = (Decision) entry;
+					Object[] args = resolve(decision);
+					Object result = invoke(decision, args);
+					if (listener != null) {
+						listener.replayed(decision, args, result);
+					}
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Converts captured arguments back to method arguments
+	 */
+	private Object[] resolve(Decision decision) {
+		clock.time = decision.timeMs;
+		Object[] args = new Object[decision.args.length];
+		for (int i = 0; i < args.length; ++i) {
+			args[i] = resolve(decision.args[i]);
+		}
+		return args;
+	}
+
+	private Object resolve(Object arg) {
+		if (arg instanceof Holder) {
+			return new ParamHolder<>(resolve(((Holder) arg).value));
+		}
+		if (arg == Marker.Clock) {
+			return clock;
+		}
+		if (arg == Marker.Monitor) {
+			return monitor;
+		}
+		if (arg == Marker.Unavailable) {
+			return null;
+		}
+		if (arg instanceof GeneratorState) {
+			GeneratorState state = (GeneratorState) arg;
+			PositionSource generator = generators.get(state.id);
+			generator.setRandom(state.random);
+			return generator;
+		}
+		return arg;
+	}
+
+	private Object invoke(Decision decision, Object[] args) {
+		try {
+			return findMethod(decision, args.length).invoke(null, args);
+		} catch (InvocationTargetException e) {
+			throw new RuntimeException("Replay of " + decision + " failed", e.getCause());
+		} catch (ReflectiveOperationException e) {
+			throw new RuntimeException("Can not replay " + decision, e);
+		}
+	}
+
+	/**
+	 * Finds static method by name and number of parameters
+	 *
+	 * Substitute class is searched first, methods it does not declare are taken from the original class.
+	 */
+	private Method findMethod(Decision decision, int parameterCount) throws ReflectiveOperationException {
+		String key = decision.owner + "#" + decision.method + "/" + parameterCount;
+		Method method = methods.get(key);
+		if (method == null) {
+			Class<?> substitute = substitutes.get(decision.owner);
+			if (substitute != null) {
+				method = findDeclared(substitute, decision.method, parameterCount);
+			}
+			if (method == null) {
+				method = findDeclared(Class.forName(decision.owner), decision.method, parameterCount);
+			}
+			if (method == null) {
+				throw new NoSuchMethodException(decision.owner + "." + decision.method);
+			}
+			method.setAccessible(true);
+			methods.put(key, method);
+		}
+		return method;
+	}
+
+	private static Method findDeclared(Class<?> owner, String name, int parameterCount) {
+		for (Method candidate : owner.getDeclaredMethods()) {
+			if (candidate.getName().equals(name) && candidate.getParameterCount() == parameterCount
+					&& Modifier.isStatic(candidate.getModifiers())) {
+				return candidate;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Describes outputs of replayed invocation
+	 *
+	 * @return Values of all ParamHolders and the returned value
+	 */
+	public static String describeOutputs(Object[] args, Object result) {
+		StringBuilder builder = new StringBuilder();
+		for (Object arg : args) {
+			if (arg instanceof ParamHolder) {
+				builder.append(describe(((ParamHolder<?>) arg).value)).append(' ');
+			}
+		}
+		if (result != null) {
+			builder.append("-> ").append(result);
+		}
+		return builder.toString().trim();
+	}
+
+	private static String describe(Object value) {
+		if (value instanceof Position) {
+			Position position = (Position) value;
+			return String.format("[%.2f, %.2f]", position.x, position.y);
+		}
+		if (value instanceof WorkStealingEnsemble.Offer) {
+			WorkStealingEnsemble.Offer offer = (WorkStealingEnsemble.Offer) value;
+			return String.format("offer(%s, %d, %s)", offer.robot, offer.load, describe(offer.goals));
+		}
+		if (value instanceof Collection) {
+			List<String> items = new ArrayList<>();
+			for (Object item : (Collection<?>) value) {
+				items.add(describe(item));
+			}
+			return items.toString();
+		}
+		return String.valueOf(value);
+	}
+
+	/**
+	 * Replays decision log, optionally comparing it with substituted classes
+	 *
+	 * Without substitutions outputs of all invocations are printed. With substitutions the log is replayed twice and
+	 * only invocations whose outputs differ are printed.
+	 *
+	 * @param args
+	 *            Decision log followed by substitutions in the form original=replacement (fully qualified names)
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.err.println("Usage: DecisionReplay <file.decisions> [original=replacement ...]");
+			System.exit(1);
+		}
+		Path file = Paths.get(args[0]);
+
+		if (args.length == 1) {
+			long count = new DecisionReplay().replay(file,
+					(decision, replayArgs, result) -> System.out.println(decision + " " + describeOutputs(replayArgs, result)));
+			System.out.println(count + " invocations replayed");
+			return;
+		}
+
+		List<String> original = new ArrayList<>();
+		new DecisionReplay().replay(file, (decision, replayArgs, result) -> original.add(describeOutputs(replayArgs, result)));
+
+		DecisionReplay whatIf = new DecisionReplay();
+		for (int i = 1; i < args.length; ++i) {
+			String[] pair = args[i].split("=");
+			whatIf.substitute(Class.forName(pair[0]), Class.forName(pair[1]));
+		}
+		long[] differences = { 0 };
+		long count = whatIf.replay(file, (decision, replayArgs, result) -> {
+			String outputs = describeOutputs(replayArgs, result);
+			String before = original.get((int) decision.sequence);
+			if (!before.equals(outputs)) {
+				differences[0]++;
+				System.out.println(decision + "\n\toriginal: " + before + "\n\twhat-if:  " + outputs);
+			}
+		});
+		System.out.println(differences[0] + " of " + count + " invocations differ");
+	}
+}
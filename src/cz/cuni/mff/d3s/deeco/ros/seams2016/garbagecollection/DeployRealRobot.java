@@ -1,15 +1,13 @@
 package cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection;
 
 import java.net.InetAddress;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Random;
 
+import cz.cuni.mff.d3s.deeco.model.runtime.api.ComponentInstance;
 import cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection.PositionGenerator.Area;
 import cz.cuni.mff.d3s.deeco.runtime.DEECoNode;
 import cz.cuni.mff.d3s.deeco.timer.WallTimeTimer;
 import cz.cuni.mff.d3s.jdeeco.network.Network;
-import cz.cuni.mff.d3s.jdeeco.network.l2.strategy.KnowledgeInsertingStrategy;
 import cz.cuni.mff.d3s.jdeeco.position.Position;
 import cz.cuni.mff.d3s.jdeeco.position.PositionPlugin;
 import cz.cuni.mff.d3s.jdeeco.publishing.DefaultKnowledgePublisher;
@@ -48,8 +46,14 @@ public class DeployRealRobot {
 	
 	public final static int ROBOT_ID = 42; 
 
+	/**
+	 * Let idle robots steal goals of loaded robots, see {@link WorkStealingEnsemble}
+	 */
+	private static boolean WORK_STEALING = false;
+
 	public static void main(String[] args) throws Exception {
 		WallTimeTimer wallTimer = new WallTimeTimer();
+		EventLog.startConsole();
 		
 		RosServices rosServices = new RosServices(
 				System.getenv("ROS_MASTER_URI"),
@@ -58,9 +62,10 @@ public class DeployRealRobot {
 		// Create main application container
 		DEECoNode node = new DEECoNode(ROBOT_ID, wallTimer,
 				new Network(),
+				new KnowledgeMarshaller(),
 				new BeeClick(),
 				new DefaultKnowledgePublisher(),
-				new KnowledgeInsertingStrategy(),
+				new ReplicaCache(wallTimer), // Replicas of nearby robots only
 				rosServices, positionPlugin);
 
 		final String name = "Collector" + ROBOT_ID;
@@ -68,7 +73,7 @@ public class DeployRealRobot {
 		PositionMonitor monitor = new PositionMonitor(wallTimer);
 
 		// Initial garbage location for robot
-		List<Position> garbage = new LinkedList<>();
+		Route garbage = new Route();
 		for (int j = 0; j < GARBAGE_PER_ROBOT; ++j) {
 			Position pos = generator.getRandomPosition();
 			garbage.add(pos);
@@ -78,11 +83,20 @@ public class DeployRealRobot {
 		Positioning positioning = new Positioning();
 
 		// Deploy Collector robot component
-		node.deployComponent(new CleanerRobot(name, positioning, wallTimer, garbage, monitor, generator));
+		CleanerRobot cleaner = new CleanerRobot(name, positioning, wallTimer, garbage, monitor, generator);
+		ComponentInstance component = node.deployComponent(cleaner);
+		if (cleaner.schedule != null) {
+			cleaner.schedule.attach(component);
+		}
 
 		// Deploy ensembles
 		node.deployEnsemble(DestinationAdoptionEnsemble.class);
 		node.deployEnsemble(AdoptedDestinationRemoveEnsemble.class);
+		if (WORK_STEALING) {
+			node.deployEnsemble(WorkStealingEnsemble.class);
+		} else {
+			WorkStealingEnsemble.disable(component);
+		}
 
 		wallTimer.start();
 	}
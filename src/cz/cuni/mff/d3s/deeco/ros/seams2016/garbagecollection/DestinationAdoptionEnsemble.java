@@ -1,6 +1,5 @@
 package cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection;
 
-import java.util.ArrayList;
 import java.util.List;
 
 import cz.cuni.mff.d3s.deeco.annotations.Ensemble;
@@ -42,7 +41,7 @@ public class DestinationAdoptionEnsemble {
 	static final double MAX_DISTANCE_M = 3.0;
 
 	/**
-	 * How long to wait before the adaptation takes palce
+	 * How long the member needs to be blocked before the adaptation takes palce
 	 */
 	static final int BLOCKED_REMOTERECOVERY_THRESHOLD_S = 1;
 
@@ -59,13 +58,40 @@ public class DestinationAdoptionEnsemble {
 	 * 
 	 * This returns true when two different blocked robots are close enough. Informally this checks whenever robots are
 	 * in mutual deadlock.
+	 * 
+	 * The framework evaluates this for the local robot and every replica held by the node. Candidates are filtered by
+	 * distance before that, the node holds replicas of robots within {@link ReplicaCache#RANGE_M} only, see
+	 * {@link ReplicaCache}. Of the remaining pairs the ones where some robot is not blocked are rejected by state first,
+	 * only blocked pairs get to the distance check.
+	 * 
+	 * Replicas of coordinators that did not publish recently are ignored.
+	 * 
+	 * State is the guard of this ensemble, it can not form unless both robots are blocked. The rest of the condition is
+	 * cheaper than any cache lookup, so it is not cached.
 	 */
 	@Membership
 	public static boolean membership(@In("coord.id") String coordId, @In("coord.position") Position coordPosition,
 			@In("member.id") String memberId, @In("member.position") Position memberPosition,
-			@In("coord.state") State coordState, @In("member.state") State memberState) {
-		return coordState == State.Blocked && memberState == State.Blocked && !coordId.equals(memberId)
-				&& coordPosition.euclidDistanceTo(memberPosition) < MAX_DISTANCE_M;
+			@In("coord.state") State coordState, @In("member.state") State memberState,
+			@In("coord.timestamp") Long coordTimestamp, @In("member.clock") CurrentTimeProvider clock) {
+		long started = TaskMetrics.begin();
+		try {
+			EnsembleCounters.increment(DestinationAdoptionEnsemble.class, "evaluated");
+
+			if (coordState != State.Blocked || memberState != State.Blocked || coordId.equals(memberId)) {
+				EnsembleCounters.increment(DestinationAdoptionEnsemble.class, "rejectedByState");
+				return false;
+			}
+
+			if (!ReplicaCache.isFresh(coordTimestamp, clock)) {
+				EnsembleCounters.increment(DestinationAdoptionEnsemble.class, "rejectedByAge");
+				return false;
+			}
+
+			return coordPosition.euclidDistanceTo(memberPosition) < MAX_DISTANCE_M;
+		} finally {
+			TaskMetrics.end(DestinationAdoptionEnsemble.class, "membership", memberId, clock, started);
+		}
 	}
 
 	/**
@@ -77,34 +103,52 @@ public class DestinationAdoptionEnsemble {
 	public static void exchange(@In("member.clock") CurrentTimeProvider clock, @In("coord.id") String coordId,
 			@In("member.id") String memberId, @In("coord.destination") Position coordDestination,
 			@InOut("member.destination") ParamHolder<Position> memberDestination,
-			@InOut("member.blockedCounter") ParamHolder<Long> memberBlockedCounter,
+			@InOut("member.blockedSince") ParamHolder<Long> memberBlockedSince,
 			@InOut("member.lastAdoption") ParamHolder<Long> lastAdoption,
-			@InOut("member.adoptedDestinations") ParamHolder<ArrayList<Position>> memberAdopedDestinations,
-			@InOut("member.route") ParamHolder<List<Position>> memberRoute) {
-		System.err.println(DestinationAdoptionEnsemble.class.getSimpleName() + " EXCHANGE");
-		System.err.println("memberDestination: " + memberDestination.value + " coordDestination: " + coordDestination);
-		// Check if the member is blocked for long enough
-		if (memberBlockedCounter.value < BLOCKED_REMOTERECOVERY_THRESHOLD_S) {
-			System.err.println(memberId + " Not yet blocked for long enough");
-			return;
+			@InOut("member.adoptedDestinations") ParamHolder<AdoptedDestinations> memberAdopedDestinations,
+			@InOut("member.route") ParamHolder<List<Position>> memberRoute,
+			@In("member.monitor") PositionMonitor monitor) {
+		if (DecisionLog.isEnabled()) {
+			DecisionLog.record(DestinationAdoptionEnsemble.class, "exchange", clock, coordId, memberId,
+					coordDestination, memberDestination, memberBlockedSince, lastAdoption, memberAdopedDestinations,
+					memberRoute, monitor);
 		}
 
-		// Limit adoption rate
-		if (lastAdoption.value != null
-				&& (clock.getCurrentMilliseconds() - lastAdoption.value) < REMOTE_RECOVERY_BACKOFF_MS) {
-			System.err.println(memberId + " Adopt rate limiter prevents adoption: "
-					+ (clock.getCurrentMilliseconds() - lastAdoption.value) + " ms ago");
-			return;
-		}
+		long started = TaskMetrics.begin();
+		try {
+			EventLog.log(EventLog.Kind.Exchange, clock.getCurrentMilliseconds(), memberId, memberDestination.value,
+					coordDestination, coordId);
+			// Check if the member is blocked for long enough
+			if (memberBlockedSince.value == null || clock.getCurrentMilliseconds()
+					- memberBlockedSince.value < BLOCKED_REMOTERECOVERY_THRESHOLD_S * 1000) {
+				EventLog.log(EventLog.Kind.AdoptionTooEarly, clock.getCurrentMilliseconds(), memberId, null, null,
+						coordId);
+				return;
+			}
 
-		// Adopt coordinator's destination
-		System.err.println(memberId + " adopting " + coordDestination + " from " + coordId);
-		memberAdopedDestinations.value.add(coordDestination);
-		memberDestination.value = coordDestination;
-		memberRoute.value.add(coordDestination);
+			// Limit adoption rate
+			if (lastAdoption.value != null
+					&& (clock.getCurrentMilliseconds() - lastAdoption.value) < REMOTE_RECOVERY_BACKOFF_MS) {
+				if (EventLog.isEnabled(EventLog.Kind.AdoptionRateLimited)) {
+					EventLog.log(EventLog.Kind.AdoptionRateLimited, clock.getCurrentMilliseconds(), memberId, null,
+							null, String.valueOf(clock.getCurrentMilliseconds() - lastAdoption.value));
+				}
+				return;
+			}
 
-		// Reset counters
-		memberBlockedCounter.value = 0l;
-		lastAdoption.value = clock.getCurrentMilliseconds();
+			// Adopt coordinator's destination
+			EventLog.log(EventLog.Kind.Adopted, clock.getCurrentMilliseconds(), memberId, coordDestination, null,
+					coordId);
+			memberAdopedDestinations.value.add(coordDestination, clock.getCurrentMilliseconds());
+			memberDestination.value = coordDestination;
+			memberRoute.value.add(coordDestination);
+			monitor.reportReassigned(coordDestination, memberId);
+
+			// Restart blocked time
+			memberBlockedSince.value = clock.getCurrentMilliseconds();
+			lastAdoption.value = clock.getCurrentMilliseconds();
+		} finally {
+			TaskMetrics.end(DestinationAdoptionEnsemble.class, "exchange", memberId, clock, started);
+		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,72 @@
+package cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of ensemble evaluation
+ *
+ * Ensembles count how many coordinator/member pairs were evaluated and how many of them were rejected by cheap checks
+ * before the full membership condition. {@link ReplicaCache} counts knowledge of robots it did not keep, these are
+ * not evaluated at all. Counters are identified by ensemble class and counter name and are shared by
+ * all nodes of the run. The static methods work with the counters of the run on the calling thread, see
+ * {@link RunContext}.
+ *
+ */
+public class EnsembleCounters {
+	private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+	/**
+	 * Use the static methods, counters of the run are created by its {@link RunContext}
+	 */
+	EnsembleCounters() {
+	}
+
+	/**
+	 * Increments counter
+	 *
+	 * @param ensemble
+	 *            Ensemble class
+	 * @param name
+	 *            Counter name
+	 */
+	public static void increment(Class<?> ensemble, String name) {
+		RunContext.current().getCounters().counters
+				.computeIfAbsent(ensemble.getSimpleName() + "." + name, k -> new LongAdder()).increment();
+	}
+
+	/**
+	 * Gets counter value
+	 */
+	public static long get(Class<?> ensemble, String name) {
+		LongAdder counter = RunContext.current().getCounters().counters.get(ensemble.getSimpleName() + "." + name);
+		return counter != null ? counter.sum() : 0;
+	}
+
+	/**
+	 * Resets all counters
+	 */
+	public static void reset() {
+		RunContext.current().getCounters().counters.clear();
+	}
+
+	/**
+	 * Formats all counters, one per line
+	 */
+	public static String report() {
+		return RunContext.current().getCounters().format();
+	}
+
+	/**
+	 * Formats these counters, one per line
+	 */
+	public String format() {
+		StringBuilder builder = new StringBuilder();
+		for (Map.Entry<String, LongAdder> entry : new TreeMap<>(counters).entrySet()) {
+			builder.append(String.format("%s: %d%n", entry.getKey(), entry.getValue().sum()));
+		}
+		return builder.toString();
+	}
+}
@@ -0,0 +1,110 @@
+package cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Cache of membership results guarded by fingerprint of their inputs
+ *
+ * The framework evaluates membership conditions for every pair of robots in every period, even when nothing the
+ * condition depends on has changed. Ensemble computes fingerprint of its guard knowledge (versions of the knowledge)
+ * and asks the guard for the previous result. The condition is evaluated only when the fingerprint changed, or when
+ * the pair was skipped sweepEvery times in a row, which bounds the damage of a knowledge change the fingerprint does
+ * not cover.
+ *
+ * Guard is local knowledge of the member robot, so each node has its own and results are cached by coordinator id
+ * only. Robots of the same name in simulations running in parallel do not share results. The cache is cleared when it
+ * grows over maxEntries.
+ *
+ * Guard pays off only when the condition is more expensive than the fingerprint, it is not worth for conditions that
+ * reduce to few comparisons.
+ *
+ * Skipped and performed evaluations are counted in {@link EnsembleCounters}.
+ *
+ */
+public class EnsembleGuard {
+	/**
+	 * Default number of consecutive skips after which the condition is evaluated anyway
+	 */
+	public static int SWEEP_EVERY = 10;
+
+	/**
+	 * Default maximal number of cached coordinators per node
+	 */
+	public static int MAX_ENTRIES = 1 << 12;
+
+	/**
+	 * Result of the last evaluation for single coordinator
+	 */
+	private static class Entry {
+		final long fingerprint;
+		final boolean result;
+		int skipped;
+
+		Entry(long fingerprint, boolean result) {
+			this.fingerprint = fingerprint;
+			this.result = result;
+		}
+	}
+
+	private final Class<?> ensemble;
+	private final int sweepEvery;
+	private final int maxEntries;
+	private final Map<String, Entry> entries = new HashMap<>();
+
+	/**
+	 * @param ensemble
+	 *            Ensemble class, used for counters
+	 * @param sweepEvery
+	 *            Number of consecutive skips after which the condition is evaluated anyway
+	 * @param maxEntries
+	 *            Maximal number of cached coordinators
+	 */
+	public EnsembleGuard(Class<?> ensemble, int sweepEvery, int maxEntries) {
+		this.ensemble = ensemble;
+		this.sweepEvery = sweepEvery;
+		this.maxEntries = maxEntries;
+	}
+
+	/**
+	 * Creates guard with default SWEEP_EVERY and MAX_ENTRIES
+	 *
+	 * @param ensemble
+	 *            Ensemble class, used for counters
+	 */
+	public EnsembleGuard(Class<?> ensemble) {
+		this(ensemble, SWEEP_EVERY, MAX_ENTRIES);
+	}
+
+	/**
+	 * Gets result of the previous evaluation when the guard knowledge did not change
+	 *
+	 * @param coordId
+	 *            Coordinator identification
+	 * @param fingerprint
+	 *            Fingerprint of the guard knowledge
+	 * @return Cached result, or null when the condition needs to be evaluated
+	 */
+	public synchronized Boolean cached(String coordId, long fingerprint) {
+		Entry entry = entries.get(coordId);
+		if (entry == null || entry.fingerprint != fingerprint || ++entry.skipped > sweepEvery) {
+			EnsembleCounters.increment(ensemble, "performed");
+			return null;
+		}
+		EnsembleCounters.increment(ensemble, "skipped");
+		return entry.result;
+	}
+
+	/**
+	 * Stores result of the evaluation
+	 *
+	 * @return The result
+	 */
+	public synchronized boolean store(String coordId, long fingerprint, boolean result) {
+		if (entries.size() >= maxEntries) {
+			entries.clear();
+		}
+		entries.put(coordId, new Entry(fingerprint, result));
+		return result;
+	}
+}
@@ -0,0 +1,334 @@
+package cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import cz.cuni.mff.d3s.jdeeco.position.Position;
+
+/**
+ * Asynchronous structured log of robot events
+ *
+ * Processes and ensembles report typed events instead of printing to console. Events are stored in a lock-free bounded
+ * ring buffer and written by a background thread as lines of the following format:
+ *
+ * time robot kind x1 y1 x2 y2 detail
+ *
+ * Positions that are not known are written as NaN. When the buffer is full new events are dropped rather than blocking
+ * the simulation, number of dropped events is written when the log is stopped.
+ *
+ * Logging is disabled until {@link #start(Writer)} is called. Disabled logging costs a single volatile read per event
+ * while no log is started in the JVM. Events can be further filtered per category by
+ * {@link #setLevel(Category, Level)}.
+ *
+ * Each run has its own log, the static methods work with the log of the run on the calling thread, see
+ * {@link RunContext}.
+ *
+ */
+public class EventLog {
+	/**
+	 * Event category used for filtering
+	 */
+	public enum Category {
+		Status, Navigation, Adaptation, Ensemble
+	}
+
+	/**
+	 * Event level, events are logged when their level is at most the level set to their category
+	 */
+	public enum Level {
+		Off, Info, Debug
+	}
+
+	/**
+	 * Kinds of logged events
+	 */
+	public enum Kind {
+		Status(Category.Status, Level.Info),
+		NoWaypoints(Category.Navigation, Level.Info),
+		NextWaypoint(Category.Navigation, Level.Info),
+		NoDestination(Category.Navigation, Level.Debug),
+		SetDestination(Category.Navigation, Level.Info),
+		GoalReached(Category.Navigation, Level.Info),
+		GoalRejected(Category.Navigation, Level.Info),
+		GoalCanceled(Category.Navigation, Level.Info),
+		GoalUnknown(Category.Navigation, Level.Info),
+		GoalReachedAgain(Category.Navigation, Level.Debug),
+		AutoUnblockRandom(Category.Adaptation, Level.Info),
+		AutoUnblockRoute(Category.Adaptation, Level.Info),
+		Exchange(Category.Ensemble, Level.Debug),
+		AdoptionTooEarly(Category.Ensemble, Level.Info),
+		AdoptionRateLimited(Category.Ensemble, Level.Info),
+		Adopted(Category.Ensemble, Level.Info),
+		AdoptedRemoved(Category.Ensemble, Level.Info),
+		StealOffer(Category.Ensemble, Level.Debug),
+		Stolen(Category.Adaptation, Level.Info);
+
+		final Category category;
+		final Level level;
+
+		Kind(Category category, Level level) {
+			this.category = category;
+			this.level = level;
+		}
+	}
+
+	/**
+	 * Single slot of the ring buffer
+	 */
+	private static class Event {
+		long time;
+		String robot;
+		Kind kind;
+		double x1, y1, x2, y2;
+		String detail;
+	}
+
+	/**
+	 * Capacity of the ring buffer, power of two
+	 */
+	static final int CAPACITY = 1 << 16;
+
+	/**
+	 * How often the writer drains the buffer
+	 */
+	static final long DRAIN_PERIOD_MS = 100;
+
+	/**
+	 * Number of started logs in the JVM
+	 */
+	private static volatile int started = 0;
+
+	private volatile boolean enabled = false;
+	private volatile int[] levels = initialLevels();
+
+	private Event[] slots;
+	private final AtomicLongArray published = new AtomicLongArray(CAPACITY);
+	private final AtomicLong head = new AtomicLong();
+	private final AtomicLong tail = new AtomicLong();
+	private final LongAdder dropped = new LongAdder();
+
+	private Thread writerThread;
+	private Writer out;
+
+	/**
+	 * Use the static methods, log of the run is created by its {@link RunContext}
+	 */
+	EventLog() {
+	}
+
+	private static int[] initialLevels() {
+		int[] result = new int[Category.values().length];
+		Arrays.fill(result, Level.Info.ordinal());
+		return result;
+	}
+
+	/**
+	 * Sets level of logged events for category
+	 */
+	public static void setLevel(Category category, Level level) {
+		EventLog log = RunContext.current().getEventLog();
+		int[] newLevels = log.levels.clone();
+		newLevels[category.ordinal()] = level.ordinal();
+		log.levels = newLevels;
+	}
+
+	/**
+	 * Checks whenever events of given kind are logged
+	 */
+	public static boolean isEnabled(Kind kind) {
+		return started > 0 && RunContext.current().getEventLog().accepts(kind);
+	}
+
+	private boolean accepts(Kind kind) {
+		return enabled && kind.level.ordinal() <= levels[kind.category.ordinal()];
+	}
+
+	/**
+	 * Logs event
+	 *
+	 * @param kind
+	 *            Event kind
+	 * @param time
+	 *            Simulation time in milliseconds
+	 * @param robot
+	 *            Robot identification
+	 * @param first
+	 *            First related position or null
+	 * @param second
+	 *            Second related position or null
+	 * @param detail
+	 *            Additional information or null
+	 */
+	public static void log(Kind kind, long time, String robot, Position first, Position second, String detail) {
+		if (started == 0) {
+			return;
+		}
+		EventLog log = RunContext.current().getEventLog();
+		if (log.accepts(kind)) {
+			log.append(kind, time, robot, first, second, detail);
+		}
+	}
+
+	/**
+	 * Logs event without detail
+	 */
+	public static void log(Kind kind, long time, String robot, Position first, Position second) {
+		log(kind, time, robot, first, second, null);
+	}
+
+	private void append(Kind kind, long time, String robot, Position first, Position second, String detail) {
+		// Claim slot, drop the event when the writer is behind
+		long seq;
+		do {
+			seq = head.get();
+			if (seq - tail.get() >= CAPACITY) {
+				dropped.increment();
+				return;
+			}
+		} while (!head.compareAndSet(seq, seq + 1));
+
+		int index = (int) (seq & (CAPACITY - 1));
+		Event event = slots[index];
+		event.time = time;
+		event.robot = robot;
+		event.kind = kind;
+		event.x1 = first != null ? first.x : Double.NaN;
+		event.y1 = first != null ? first.y : Double.NaN;
+		event.x2 = second != null ? second.x : Double.NaN;
+		event.y2 = second != null ? second.y : Double.NaN;
+		event.detail = detail;
+		published.set(index, seq + 1);
+	}
+
+	/**
+	 * Starts logging to file
+	 */
+	public static void start(String filename) throws IOException {
+		start(new BufferedWriter(new FileWriter(filename)));
+	}
+
+	/**
+	 * Starts logging to standard output
+	 */
+	public static void startConsole() {
+		start(new BufferedWriter(new OutputStreamWriter(System.out)));
+	}
+
+	/**
+	 * Starts background writer and enables logging
+	 */
+	public static void start(Writer writer) {
+		RunContext.current().getEventLog().open(writer);
+	}
+
+	private synchronized void open(Writer writer) {
+		if (writerThread != null) {
+			throw new IllegalStateException("Event log already started");
+		}
+		if (slots == null) {
+			// Allocated only for started logs, most runs do not log
+			slots = new Event[CAPACITY];
+			for (int i = 0; i < CAPACITY; ++i) {
+				slots[i] = new Event();
+			}
+		}
+		out = writer;
+		writerThread = new Thread(() -> {
+			try {
+				while (!Thread.currentThread().isInterrupted()) {
+					drain();
+					out.flush();
+					Thread.sleep(DRAIN_PERIOD_MS);
+				}
+			} catch (InterruptedException e) {
+				// Stopped
+			} catch (IOException e) {
+				System.err.println("Event log writer failed: " + e);
+			}
+		}, "EventLog writer");
+		writerThread.setDaemon(true);
+		writerThread.start();
+		enabled = true;
+		synchronized (EventLog.class) {
+			started++;
+		}
+	}
+
+	/**
+	 * Disables logging, writes remaining events and closes the output
+	 */
+	public static void stop() throws IOException {
+		RunContext.current().getEventLog().close();
+	}
+
+	private synchronized void close() throws IOException {
+		if (writerThread == null) {
+			return;
+		}
+		enabled = false;
+		synchronized (EventLog.class) {
+			started--;
+		}
+		writerThread.interrupt();
+		try {
+			writerThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		writerThread = null;
+
+		drain();
+		if (dropped.sum() > 0) {
+			out.write(String.format("# dropped %d events%n", dropped.sum()));
+		}
+		out.close();
+		out = null;
+	}
+
+	/**
+	 * Writes all published events
+	 */
+	private void drain() throws IOException {
+		StringBuilder line = new StringBuilder();
+		long seq = tail.get();
+		while (true) {
+			int index = (int) (seq & (CAPACITY - 1));
+			if (published.get(index) != seq + 1) {
+				break;
+			}
+			Event event = slots[index];
+			line.setLength(0);
+			line.append(event.time).append(' ').append(event.robot).append(' ').append(event.kind.name());
+			appendCoordinate(line, event.x1);
+			appendCoordinate(line, event.y1);
+			appendCoordinate(line, event.x2);
+			appendCoordinate(line, event.y2);
+			if (event.detail != null) {
+				line.append(' ').append(event.detail);
+			}
+			line.append(System.lineSeparator());
+			out.write(line.toString());
+
+			event.robot = null;
+			event.detail = null;
+			tail.set(++seq);
+		}
+	}
+
+	private static void appendCoordinate(StringBuilder line, double value) {
+		line.append(' ');
+		if (Double.isNaN(value)) {
+			line.append("NaN");
+		} else {
+			// Centimeter precision is enough for positions
+			line.append(Math.round(value * 100) / 100.0);
+		}
+	}
+}
@@ -0,0 +1,308 @@
+package cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import cz.cuni.mff.d3s.deeco.model.runtime.api.ComponentInstance;
+import cz.cuni.mff.d3s.deeco.runners.DEECoSimulation;
+import cz.cuni.mff.d3s.deeco.runtime.DEECoNode;
+import cz.cuni.mff.d3s.jdeeco.network.Network;
+import cz.cuni.mff.d3s.jdeeco.network.device.SimpleBroadcastDevice;
+import cz.cuni.mff.d3s.jdeeco.network.l2.strategy.KnowledgeInsertingStrategy;
+import cz.cuni.mff.d3s.jdeeco.position.Position;
+import cz.cuni.mff.d3s.jdeeco.position.PositionPlugin;
+import cz.cuni.mff.d3s.jdeeco.publishing.DefaultKnowledgePublisher;
+
+/**
+ * Single headless run of the garbage collection scenario
+ *
+ * This is the same scenario as in GarbageCollectDemo, but simulated by {@link KinematicSimulation} and fully described
+ * by {@link Config}. Each experiment has its own timer, monitor and position generator, so more experiments can run in
+ * parallel in one JVM.
+ *
+ * The experiment can also run as one shard of a simulation split among processes, see {@link ShardedExperiment}.
+ * Every shard generates the same garbage and routes, but simulates only its part of the robots.
+ *
+ */
+public class Experiment {
+	/**
+	 * Default of {@link Config#rangeNetwork}
+	 */
+	public static boolean RANGE_NETWORK = true;
+
+	/**
+	 * Default of {@link Config#boundedReplicas}
+	 */
+	public static boolean BOUNDED_REPLICAS = true;
+
+	/**
+	 * Default of {@link Config#workStealing}, off as in the original demo
+	 */
+	public static boolean WORK_STEALING = false;
+
+	/**
+	 * Configuration of single experiment run
+	 * 
+	 * Every switch that changes the behavior of the run is part of the configuration, and so of its key.
+	 */
+	public static class Config {
+		public final long seed;
+		public final int numRobots;
+		public final int garbagePerRobot;
+		public final boolean ensembles;
+		public final boolean assignment;
+		public final long durationMs;
+
+		/**
+		 * Whenever to use {@link RangeBroadcastDevice} instead of SimpleBroadcastDevice
+		 * 
+		 * Range device delivers only to robots in range, which keeps dense fleets fast to simulate.
+		 */
+		public final boolean rangeNetwork;
+
+		/**
+		 * Whenever nodes keep replicas of nearby robots only, see {@link ReplicaCache}
+		 */
+		public final boolean boundedReplicas;
+
+		/**
+		 * Whenever process periods adapt to robot activity, see {@link AdaptiveSchedule}
+		 */
+		public final boolean adaptivePeriods;
+
+		/**
+		 * Settings of the membership guard of AdoptedDestinationRemoveEnsemble, see {@link EnsembleGuard}
+		 */
+		public final int guardSweepEvery;
+		public final int guardMaxEntries;
+
+		/**
+		 * Whenever idle robots steal goals of loaded ones when ensembles are enabled, see {@link WorkStealingEnsemble}
+		 */
+		public final boolean workStealing;
+
+		public Config(long seed, int numRobots, int garbagePerRobot, boolean ensembles, boolean assignment,
+				long durationMs, boolean rangeNetwork, boolean boundedReplicas, boolean adaptivePeriods,
+				int guardSweepEvery, int guardMaxEntries, boolean workStealing) {
+			this.seed = seed;
+			this.numRobots = numRobots;
+			this.garbagePerRobot = garbagePerRobot;
+			this.ensembles = ensembles;
+			this.assignment = assignment;
+			this.durationMs = durationMs;
+			this.rangeNetwork = rangeNetwork;
+			this.boundedReplicas = boundedReplicas;
+			this.adaptivePeriods = adaptivePeriods;
+			this.guardSweepEvery = guardSweepEvery;
+			this.guardMaxEntries = guardMaxEntries;
+			this.workStealing = workStealing;
+		}
+
+		/**
+		 * Creates configuration with default switches
+		 */
+		public Config(long seed, int numRobots, int garbagePerRobot, boolean ensembles, boolean assignment,
+				long durationMs) {
+			this(seed, numRobots, garbagePerRobot, ensembles, assignment, durationMs, RANGE_NETWORK, BOUNDED_REPLICAS,
+					CleanerRobot.ADAPTIVE_PERIODS, EnsembleGuard.SWEEP_EVERY, EnsembleGuard.MAX_ENTRIES, WORK_STEALING);
+		}
+
+		@Override
+		public String toString() {
+			return String.format(
+					"seed=%d robots=%d garbagePerRobot=%d ensembles=%b assignment=%b durationMs=%d rangeNetwork=%b "
+							+ "boundedReplicas=%b adaptivePeriods=%b guardSweepEvery=%d guardMaxEntries=%d workStealing=%b",
+					seed, numRobots, garbagePerRobot, ensembles, assignment, durationMs, rangeNetwork, boundedReplicas,
+					adaptivePeriods, guardSweepEvery, guardMaxEntries, workStealing);
+		}
+
+		/**
+		 * Gets key identifying the configuration
+		 *
+		 * The key is hash of all the configuration values. Runs with the same key produce the same results.
+		 *
+		 * @return Hexadecimal hash of the configuration
+		 */
+		public String getKey() {
+			try {
+				MessageDigest digest = MessageDigest.getInstance("SHA-1");
+				byte[] hash = digest.digest(toString().getBytes(StandardCharsets.UTF_8));
+				StringBuilder builder = new StringBuilder();
+				for (int i = 0; i < 8; ++i) {
+					builder.append(String.format("%02x", hash[i]));
+				}
+				return builder.toString();
+			} catch (NoSuchAlgorithmException e) {
+				throw new RuntimeException("SHA-1 not available", e);
+			}
+		}
+	}
+
+	private final Config config;
+	private final RunContext context = new RunContext();
+
+	public Experiment(Config config) {
+		this.config = config;
+	}
+
+	public Config getConfig() {
+		return config;
+	}
+
+	/**
+	 * Gets event log and counters of the run
+	 */
+	public RunContext getContext() {
+		return context;
+	}
+
+	/**
+	 * Runs the experiment
+	 *
+	 * @return Monitor holding the results
+	 */
+	public PositionMonitor run() throws Exception {
+		return run(null);
+	}
+
+	/**
+	 * Runs the experiment streaming reached goals to file
+	 *
+	 * @param reachedFile
+	 *            File to stream reach events to, null for no streaming
+	 * @return Monitor holding the results
+	 */
+	public PositionMonitor run(String reachedFile) throws Exception {
+		return run(reachedFile, null, 1);
+	}
+
+	/**
+	 * Runs single shard of the experiment
+	 *
+	 * Robot i is simulated by shard i % shardCount. The monitor knows all the garbage, but only reaches by the robots
+	 * of this shard are reported to it.
+	 *
+	 * Robots of other shards are obstacles in the kinematic simulation of this shard, their poses are exchanged at every
+	 * synchronization.
+	 *
+	 * @param reachedFile
+	 *            File to stream reach events to, null for no streaming
+	 * @param link
+	 *            Connection to the other shards, null for the whole experiment in this process
+	 * @param shardCount
+	 *            Number of shards
+	 * @return Monitor holding the results
+	 */
+	public PositionMonitor run(String reachedFile, ShardHub.Link link, int shardCount) throws Exception {
+		return context.call(() -> simulate(reachedFile, link, shardCount));
+	}
+
+	private PositionMonitor simulate(String reachedFile, ShardHub.Link link, int shardCount) throws Exception {
+		int shard = link != null ? link.getShard() : 0;
+		Random random = new Random(config.seed);
+		KinematicSimulation kinematicSim = new KinematicSimulation();
+		OccupancyPositionGenerator generator = new OccupancyPositionGenerator(new Random(random.nextLong()),
+				kinematicSim.getInflatedMap(), GarbageCollectDemo.GARBAGE_AREAS);
+
+		DEECoSimulation realm = new DEECoSimulation(kinematicSim.getTimer());
+		realm.addPlugin(Network.class);
+		realm.addPlugin(KnowledgeMarshaller.class);
+		realm.addPlugin(DefaultKnowledgePublisher.class);
+		if (!config.boundedReplicas) {
+			realm.addPlugin(KnowledgeInsertingStrategy.class);
+		}
+		if (link != null) {
+			realm.addPlugin(new ShardBroadcastDevice(kinematicSim, link, ShardedExperiment.SYNC_PERIOD_MS));
+		} else if (config.rangeNetwork) {
+			realm.addPlugin(new RangeBroadcastDevice(kinematicSim.getTimer(), RangeBroadcastDevice.DEFAULT_RANGE_M,
+					RangeBroadcastDevice.DEFAULT_DELAY_MS, RangeBroadcastDevice.DEFAULT_JITTER_MS,
+					RangeBroadcastDevice.DEFAULT_LOSS, RangeBroadcastDevice.DEFAULT_TICK_MS, config.seed));
+		} else {
+			realm.addPlugin(new SimpleBroadcastDevice());
+		}
+
+		PositionMonitor monitor = new PositionMonitor(kinematicSim.getTimer());
+		if (reachedFile != null) {
+			monitor.startStreaming(reachedFile);
+		}
+
+		// Use demo start positions first, place remaining robots randomly
+		Position[] starts = new Position[config.numRobots];
+		for (int i = 0; i < config.numRobots; ++i) {
+			starts[i] = i < GarbageCollectDemo.initialPositions.length ? GarbageCollectDemo.initialPositions[i]
+					: generator.getRandomPosition();
+		}
+
+		double[] xs = new double[config.numRobots * config.garbagePerRobot];
+		double[] ys = new double[xs.length];
+		generator.fill(xs, ys);
+		List<Position> allGarbage = new ArrayList<>();
+		for (int i = 0; i < xs.length; ++i) {
+			allGarbage.add(new CompactPosition(xs[i], ys[i]));
+		}
+
+		List<Route> routes = new ArrayList<>();
+		if (config.assignment) {
+			routes = GarbageAssignment.assign(starts, allGarbage,
+					GarbageAssignment.pathLength(kinematicSim.getPlanner()));
+		} else {
+			for (int i = 0; i < config.numRobots; ++i) {
+				routes.add(new Route(allGarbage.subList(i * config.garbagePerRobot, (i + 1) * config.garbagePerRobot)));
+			}
+		}
+
+		for (int i = 0; i < config.numRobots; ++i) {
+			final String name = "Collector" + i;
+
+			Route garbage = routes.get(i);
+			for (Position pos : garbage) {
+				monitor.addPosition(pos, name);
+			}
+
+			// Draw the seed even for robots of other shards, so that all shards simulate the same robots
+			Random robotRandom = new Random(random.nextLong());
+			if (i % shardCount != shard) {
+				continue;
+			}
+
+			Position start = starts[i];
+
+			KinematicPositioning positioning = kinematicSim.createPositioning(start.x, start.y);
+			DEECoNode robot = config.boundedReplicas
+					? realm.createNode(i, positioning, new PositionPlugin(start.x, start.y),
+							new ReplicaCache(kinematicSim.getTimer()))
+					: realm.createNode(i, positioning, new PositionPlugin(start.x, start.y));
+			CleanerRobot cleaner = new CleanerRobot(name, positioning, kinematicSim.getTimer(), garbage, monitor,
+					generator, robotRandom);
+			cleaner.schedule = config.adaptivePeriods ? new AdaptiveSchedule(cleaner.id) : null;
+			cleaner.removeGuard = new EnsembleGuard(AdoptedDestinationRemoveEnsemble.class, config.guardSweepEvery,
+					config.guardMaxEntries);
+			ComponentInstance component = robot.deployComponent(cleaner);
+			if (cleaner.schedule != null) {
+				cleaner.schedule.attach(component);
+			}
+
+			if (config.ensembles) {
+				robot.deployEnsemble(DestinationAdoptionEnsemble.class);
+				robot.deployEnsemble(AdoptedDestinationRemoveEnsemble.class);
+			}
+			if (config.ensembles && config.workStealing) {
+				robot.deployEnsemble(WorkStealingEnsemble.class);
+			} else {
+				WorkStealingEnsemble.disable(component);
+			}
+		}
+
+		try {
+			realm.start(config.durationMs);
+		} finally {
+			monitor.stopStreaming();
+		}
+
+		return monitor;
+	}
+}
@@ -0,0 +1,175 @@
+package cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs sweep of headless experiments in parallel
+ *
+ * Every combination of the configured seeds, robot counts, garbage counts, ensemble, assignment, adaptive period
+ * and work stealing settings is simulated once. The experiments run on a thread pool sized to the available cores.
+ * Results are written to the results directory in the same format as GarbageCollectDemo writes, named by the
+ * configuration key. Configurations that already have a result file are skipped, so the sweep can be interrupted and
+ * resumed.
+ *
+ * Arguments are optional key=value pairs, lists are comma separated and ranges are written as from-to:
+ *
+ * seeds=0-9 robots=4,8 garbage=10 ensembles=true,false assignment=true,false adaptivePeriods=true,false
+ * workStealing=true,false duration=600000 threads=4
+ *
+ */
+public class ExperimentRunner {
+	/**
+	 * Directory where results are stored
+	 */
+	private static final String RESULTS_DIR = "results";
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = new HashMap<>();
+		options.put("seeds", "0-9");
+		options.put("robots", "4");
+		options.put("garbage", "10");
+		options.put("ensembles", "true,false");
+		options.put("assignment", "false");
+		options.put("adaptivePeriods", String.valueOf(CleanerRobot.ADAPTIVE_PERIODS));
+		options.put("workStealing", String.valueOf(Experiment.WORK_STEALING));
+		options.put("duration", "600000");
+		options.put("threads", String.valueOf(Runtime.getRuntime().availableProcessors()));
+		for (String arg : args) {
+			String[] parts = arg.split("=", 2);
+			if (parts.length != 2 || !options.containsKey(parts[0])) {
+				throw new IllegalArgumentException("Invalid argument: " + arg);
+			}
+			options.put(parts[0], parts[1]);
+		}
+
+		List<Experiment.Config> configs = new ArrayList<>();
+		long duration = Long.parseLong(options.get("duration"));
+		for (long seed : parseRange(options.get("seeds"))) {
+			for (long robots : parseRange(options.get("robots"))) {
+				for (long garbage : parseRange(options.get("garbage"))) {
+					for (String ensembles : options.get("ensembles").split(",")) {
+						for (String assignment : options.get("assignment").split(",")) {
+							for (String adaptive : options.get("adaptivePeriods").split(",")) {
+								for (String stealing : options.get("workStealing").split(",")) {
+									configs.add(new Experiment.Config(seed, (int) robots, (int) garbage,
+											Boolean.parseBoolean(ensembles), Boolean.parseBoolean(assignment),
+											duration, Experiment.RANGE_NETWORK, Experiment.BOUNDED_REPLICAS,
+											Boolean.parseBoolean(adaptive), EnsembleGuard.SWEEP_EVERY,
+											EnsembleGuard.MAX_ENTRIES, Boolean.parseBoolean(stealing)));
+								}
+							}
+						}
+					}
+				}
+			}
+		}
+
+		runAll(configs, Integer.parseInt(options.get("threads")));
+	}
+
+	/**
+	 * Runs the experiments that are not yet finished
+	 *
+	 * @param configs
+	 *            Experiments to run
+	 * @param threads
+	 *            Maximal number of experiments running at once
+	 */
+	public static void runAll(List<Experiment.Config> configs, int threads) throws InterruptedException {
+		new File(RESULTS_DIR).mkdirs();
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		Map<Experiment.Config, Future<?>> futures = new LinkedHashMap<>();
+		for (Experiment.Config config : configs) {
+			File result = getResultFile(config);
+			if (result.exists()) {
+				System.out.println("Skipping finished experiment " + config.getKey() + ": " + config);
+				continue;
+			}
+			futures.put(config, executor.submit(() -> {
+				System.out.println("Starting experiment " + config.getKey() + ": " + config);
+				// Stream reached goals, so that progress can be followed and a crash does not lose everything
+				File reached = new File(RESULTS_DIR, config.getKey() + ".reached");
+				Files.deleteIfExists(reached.toPath());
+				Experiment experiment = new Experiment(config);
+				PositionMonitor monitor = experiment.run(reached.getPath());
+				writeResult(config, monitor);
+				System.out.print("Finished experiment " + config.getKey() + System.lineSeparator()
+						+ experiment.getContext().getCounters().format());
+				return null;
+			}));
+		}
+		executor.shutdown();
+
+		for (Map.Entry<Experiment.Config, Future<?>> future : futures.entrySet()) {
+			try {
+				future.getValue().get();
+			} catch (ExecutionException e) {
+				System.err.println("Experiment " + future.getKey().getKey() + " failed: " + future.getKey());
+				e.printStackTrace();
+			}
+		}
+		executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+	}
+
+	private static File getResultFile(Experiment.Config config) {
+		return new File(RESULTS_DIR, config.getKey() + ".txt");
+	}
+
+	/**
+	 * Writes results and configuration of the finished experiment
+	 *
+	 * Results are written both as text and as columnar file for ResultsAggregator. The text result file is written
+	 * under temporary name first and written last, so an interrupted run never leaves a result file that would be
+	 * considered finished.
+	 */
+	private static void writeResult(Experiment.Config config, PositionMonitor monitor) throws IOException {
+		File result = getResultFile(config);
+		File tmp = new File(RESULTS_DIR, config.getKey() + ".tmp");
+		monitor.writeStatsToFile(tmp.getPath());
+		monitor.writeColumnarFile(new File(RESULTS_DIR, config.getKey() + ResultsFile.EXTENSION).getPath(),
+				config.toString());
+
+		try (BufferedWriter out = new BufferedWriter(new FileWriter(new File(RESULTS_DIR, config.getKey() + ".cfg")))) {
+			out.write(config.toString());
+			out.newLine();
+		}
+
+		Files.move(tmp.toPath(), result.toPath(), StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Parses list of numbers and ranges such as "1,3,5-7"
+	 */
+	private static List<Long> parseRange(String value) {
+		List<Long> values = new ArrayList<>();
+		for (String part : value.split(",")) {
+			int dash = part.indexOf('-', 1);
+			if (dash > 0) {
+				long from = Long.parseLong(part.substring(0, dash));
+				long to = Long.parseLong(part.substring(dash + 1));
+				for (long i = from; i <= to; ++i) {
+					values.add(i);
+				}
+			} else {
+				values.add(Long.parseLong(part));
+			}
+		}
+		return values;
+	}
+}
@@ -0,0 +1,279 @@
+package cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+
+import cz.cuni.mff.d3s.jdeeco.position.Position;
+
+/**
+ * Balanced assignment of garbage locations to robots
+ *
+ * Instead of giving each robot random garbage, all garbage is partitioned among the robots so that the sum of travel
+ * costs from robots' start positions to their garbage is minimal and no robot gets more than its fair share. Each robot
+ * has ceil(garbage / robots) slots and garbage is matched to slots by the Hungarian method. The result is a balanced
+ * clustering of the garbage around the start positions. Garbage of each robot is then ordered into a short tour from
+ * the start by {@link RouteOptimizer}.
+ *
+ * The matching takes O(g^3) time for g garbage locations, so more than MAX_EXACT locations are first clustered into
+ * regions by recursive bisection. The longer side of the bounding box of the garbage is split so that both halves get
+ * garbage in proportion to the robots starting on each side. Regions are matched exactly and independently, so the
+ * assignment is optimal within each region and stays balanced, but garbage is never matched across region borders.
+ *
+ * Travel costs are computed in parallel, one robot per task, regions are matched in parallel too.
+ *
+ */
+public class GarbageAssignment {
+	/**
+	 * Travel cost in between positions
+	 */
+	public interface Metric {
+		/**
+		 * Computes costs of travel from a position to each of the targets
+		 *
+		 * @return Costs in the order of targets, infinity for unreachable targets
+		 */
+		double[] costs(Position from, List<Position> targets);
+	}
+
+	/**
+	 * Straight line distance
+	 */
+	public static final Metric EUCLIDEAN = (from, targets) -> {
+		double[] costs = new double[targets.size()];
+		for (int i = 0; i < costs.length; ++i) {
+			costs[i] = from.euclidDistanceTo(targets.get(i));
+		}
+		return costs;
+	};
+
+	/**
+	 * Cost used instead of infinity, so that unreachable garbage is assigned only when nothing else is possible
+	 */
+	static final double UNREACHABLE_COST = 1e6;
+
+	/**
+	 * Largest number of garbage locations matched at once, larger sets are split into regions
+	 */
+	static final int MAX_EXACT = 256;
+
+	/**
+	 * Creates metric measuring path length on the map of the planner
+	 *
+	 * A single distance field is computed for each start position, so the cost of the metric does not depend on the
+	 * number of targets.
+	 */
+	public static Metric pathLength(GridPathPlanner planner) {
+		return (from, targets) -> {
+			double[] field = planner.distanceField(from.x, from.y);
+			double[] costs = new double[targets.size()];
+			for (int i = 0; i < costs.length; ++i) {
+				costs[i] = planner.distanceAt(field, targets.get(i).x, targets.get(i).y);
+			}
+			return costs;
+		};
+	}
+
+	/**
+	 * Assigns garbage to robots
+	 *
+	 * @param starts
+	 *            Start positions of the robots
+	 * @param garbage
+	 *            Garbage locations to assign
+	 * @param metric
+	 *            Travel cost in between positions
+	 * @return Route for each robot in the order of start positions
+	 */
+	public static List<Route> assign(Position[] starts, List<Position> garbage, Metric metric) {
+		int robots = starts.length;
+		int count = garbage.size();
+		if (robots == 0) {
+			throw new RuntimeException("No robots to assign garbage to");
+		}
+
+		// Cost of travel from each robot to each garbage
+		double[][] costs = new double[robots][];
+		IntStream.range(0, robots).parallel().forEach(r -> {
+			costs[r] = metric.costs(starts[r], garbage);
+			for (int g = 0; g < count; ++g) {
+				if (Double.isInfinite(costs[r][g]) || Double.isNaN(costs[r][g])) {
+					costs[r][g] = UNREACHABLE_COST;
+				}
+			}
+		});
+
+		// Cluster garbage into regions and match garbage to robot slots in each of them
+		List<int[][]> regions = new ArrayList<>();
+		split(starts, garbage, IntStream.range(0, robots).toArray(), IntStream.range(0, count).toArray(), regions);
+		int[] robotOfGarbage = new int[count];
+		regions.parallelStream().forEach(region -> match(region[0], region[1], costs, robotOfGarbage));
+
+		List<List<Position>> assigned = new ArrayList<>();
+		for (int r = 0; r < robots; ++r) {
+			assigned.add(new ArrayList<>());
+		}
+		for (int g = 0; g < count; ++g) {
+			assigned.get(robotOfGarbage[g]).add(garbage.get(g));
+		}
+
+		List<Route> routes = new ArrayList<>();
+		for (int r = 0; r < robots; ++r) {
+			Route route = new Route(assigned.get(r));
+			RouteOptimizer.optimize(route, starts[r].x, starts[r].y);
+			routes.add(route);
+		}
+		return routes;
+	}
+
+	/**
+	 * Splits robots and garbage into regions of at most MAX_EXACT garbage locations or a single robot
+	 *
+	 * @param robots
+	 *            Indices of the robots in the region
+	 * @param items
+	 *            Indices of the garbage in the region
+	 * @param regions
+	 *            Receives pairs of robot and garbage indices
+	 */
+	static void split(Position[] starts, List<Position> garbage, int[] robots, int[] items, List<int[][]> regions) {
+		if (robots.length == 1 || items.length <= MAX_EXACT) {
+			regions.add(new int[][] { robots, items });
+			return;
+		}
+
+		double minX = Double.POSITIVE_INFINITY, maxX = Double.NEGATIVE_INFINITY;
+		double minY = Double.POSITIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		for (int g : items) {
+			Position position = garbage.get(g);
+			minX = Math.min(minX, position.x);
+			maxX = Math.max(maxX, position.x);
+			minY = Math.min(minY, position.y);
+			maxY = Math.max(maxY, position.y);
+		}
+		boolean alongX = maxX - minX >= maxY - minY;
+
+		int[] sortedRobots = sortAlong(robots, r -> starts[r], alongX);
+		int[] sortedItems = sortAlong(items, garbage::get, alongX);
+		int firstRobots = robots.length / 2;
+		int firstItems = (int) Math.round((double) items.length * firstRobots / robots.length);
+		split(starts, garbage, Arrays.copyOfRange(sortedRobots, 0, firstRobots),
+				Arrays.copyOfRange(sortedItems, 0, firstItems), regions);
+		split(starts, garbage, Arrays.copyOfRange(sortedRobots, firstRobots, robots.length),
+				Arrays.copyOfRange(sortedItems, firstItems, items.length), regions);
+	}
+
+	private static int[] sortAlong(int[] indices, IntFunction<Position> position, boolean alongX) {
+		return Arrays.stream(indices).boxed()
+				.sorted(Comparator.comparingDouble(i -> alongX ? position.apply(i).x : position.apply(i).y))
+				.mapToInt(Integer::intValue).toArray();
+	}
+
+	/**
+	 * Matches garbage of a region to slots of the robots of the region
+	 *
+	 * @param robotOfGarbage
+	 *            Receives robot assigned to each garbage of the region
+	 */
+	private static void match(int[] robots, int[] items, double[][] costs, int[] robotOfGarbage) {
+		if (robots.length == 1) {
+			for (int g : items) {
+				robotOfGarbage[g] = robots[0];
+			}
+			return;
+		}
+		int slots = (items.length + robots.length - 1) / robots.length;
+		int[] slotOfGarbage = hungarian(items.length, robots.length * slots,
+				(g, slot) -> costs[robots[slot / slots]][items[g]]);
+		for (int g = 0; g < items.length; ++g) {
+			robotOfGarbage[items[g]] = robots[slotOfGarbage[g] / slots];
+		}
+	}
+
+	/**
+	 * Cost of matching row to column
+	 */
+	interface CostMatrix {
+		double get(int row, int column);
+	}
+
+	/**
+	 * Finds minimal cost matching of rows to columns by the Hungarian method
+	 *
+	 * Shortest augmenting path formulation with row and column potentials, O(rows^2 * columns).
+	 *
+	 * @param rows
+	 *            Number of rows
+	 * @param columns
+	 *            Number of columns, at least rows
+	 * @param cost
+	 *            Cost matrix
+	 * @return Column matched to each row
+	 */
+	static int[] hungarian(int rows, int columns, CostMatrix cost) {
+		if (columns < rows) {
+			throw new RuntimeException(String.format("Cannot match %d rows to %d columns", rows, columns));
+		}
+
+		// Arrays are indexed from one, column zero is a virtual column used to start the augmentation
+		double[] u = new double[rows + 1];
+		double[] v = new double[columns + 1];
+		int[] rowOfColumn = new int[columns + 1];
+		int[] way = new int[columns + 1];
+		double[] minValue = new double[columns + 1];
+		boolean[] used = new boolean[columns + 1];
+
+		for (int row = 1; row <= rows; ++row) {
+			rowOfColumn[0] = row;
+			int column0 = 0;
+			Arrays.fill(minValue, Double.POSITIVE_INFINITY);
+			Arrays.fill(used, false);
+			do {
+				used[column0] = true;
+				int row0 = rowOfColumn[column0];
+				double delta = Double.POSITIVE_INFINITY;
+				int column1 = 0;
+				for (int column = 1; column <= columns; ++column) {
+					if (!used[column]) {
+						double reduced = cost.get(row0 - 1, column - 1) - u[row0] - v[column];
+						if (reduced < minValue[column]) {
+							minValue[column] = reduced;
+							way[column] = column0;
+						}
+						if (minValue[column] < delta) {
+							delta = minValue[column];
+							column1 = column;
+						}
+					}
+				}
+				for (int column = 0; column <= columns; ++column) {
+					if (used[column]) {
+						u[rowOfColumn[column]] += delta;
+						v[column] -= delta;
+					} else {
+						minValue[column] -= delta;
+					}
+				}
+				column0 = column1;
+			} while (rowOfColumn[column0] != 0);
+
+			// Flip the augmenting path
+			do {
+				int column1 = way[column0];
+				rowOfColumn[column0] = rowOfColumn[column1];
+				column0 = column1;
+			} while (column0 != 0);
+		}
+
+		int[] result = new int[rows];
+		for (int column = 1; column <= columns; ++column) {
+			if (rowOfColumn[column] != 0) {
+				result[rowOfColumn[column] - 1] = column - 1;
+			}
+		}
+		return result;
+	}
+}
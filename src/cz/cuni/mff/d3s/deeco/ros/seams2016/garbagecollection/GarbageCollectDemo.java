@@ -1,15 +1,18 @@
 package cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection;
 
 import java.io.File;
-import java.util.LinkedList;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
 
+import cz.cuni.mff.d3s.deeco.model.runtime.api.ComponentInstance;
 import cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection.PositionGenerator.Area;
 import cz.cuni.mff.d3s.deeco.runners.DEECoSimulation;
 import cz.cuni.mff.d3s.deeco.runtime.DEECoNode;
+import cz.cuni.mff.d3s.deeco.timer.SimulationTimer;
 import cz.cuni.mff.d3s.jdeeco.network.Network;
-import cz.cuni.mff.d3s.jdeeco.network.l2.strategy.KnowledgeInsertingStrategy;
 import cz.cuni.mff.d3s.jdeeco.position.Position;
 import cz.cuni.mff.d3s.jdeeco.position.PositionPlugin;
 import cz.cuni.mff.d3s.jdeeco.publishing.DefaultKnowledgePublisher;
@@ -21,11 +24,19 @@ import cz.cuni.mff.d3s.jdeeco.ros.sim.ROSSimulation;
  * Example of robots cleaning garbage
  * 
  * This simulation shows ROBOTS robots in "corridor" map cleaning garbage from predefined locations. Each robot is
- * initially assigned GARBAGE_PER_ROBOT garbage locations to visit.
+ * initially assigned GARBAGE_PER_ROBOT garbage locations to visit. When ASSIGN_GARBAGE is set the garbage is partitioned
+ * among the robots according to their start positions by {@link GarbageAssignment}, otherwise it is assigned randomly.
  * 
  * This class defines main method and can be directly launched as java application, but it is necessary to adjust
  * SIMUALTION_SERVER_ADDRESS constant to math the simulation server which needs to be executed in advice.
  * 
+ * When launched with argument headless=true the ROS/Stage simulation is replaced by the in-process KinematicSimulation.
+ * No simulation server nor OMNeT++ is needed then and the simulation runs faster than real time.
+ * 
+ * Argument map=file.pgm loads the map image as used by ROS map_server, with arguments mapResolution and mapOrigin=x,y
+ * from its yaml file. Garbage is then generated on the free cells of the map and the headless simulation runs on it.
+ * Without the argument the headless simulation uses approximation of the "corridor" map.
+ * 
  * @author Vladimir Matena <matena@d3s.mff.cuni.cz>
  *
  */
@@ -35,6 +46,22 @@ public class GarbageCollectDemo {
 	 */
 	private static final String SIMUALTION_SERVER_ADDRESS = "127.0.0.1";
 	
+	/**
+	 * Use headless kinematic simulation instead of ROS/Stage, overridden by the headless=true|false argument
+	 */
+	private static boolean HEADLESS = false;
+	
+	/**
+	 * Map image to generate garbage on and to simulate in, overridden by the map=file.pgm argument
+	 */
+	private static String MAP_FILE = null;
+
+	/**
+	 * Resolution and origin of the map image, overridden by the mapResolution=m and mapOrigin=x,y arguments
+	 */
+	private static double MAP_RESOLUTION_M = 0.05;
+	private static double MAP_ORIGIN_X = 0, MAP_ORIGIN_Y = 0;
+
 	/**
 	 * Number of garbage locations initially assigned to each robot
 	 */
@@ -44,6 +71,43 @@ public class GarbageCollectDemo {
 	 * Number of robots in the simulation
 	 */
 	private static int NUM_ROBOTS = 4;
+
+	/**
+	 * Seed of the garbage position generator
+	 */
+	private static final long SEED = 42;
+
+	/**
+	 * How often live statistics are printed (wall clock)
+	 */
+	private static final long LIVE_STATS_PERIOD_MS = 10000;
+
+	/**
+	 * Assign garbage close to robots start positions instead of random garbage
+	 */
+	private static boolean ASSIGN_GARBAGE = false;
+
+	/**
+	 * Let idle robots steal goals of loaded robots, see {@link WorkStealingEnsemble}
+	 * 
+	 * Off by default, so the results stay comparable with the original demo.
+	 */
+	private static boolean WORK_STEALING = false;
+
+	/**
+	 * Record trajectories of all robots to the .gct file of the run
+	 */
+	private static boolean RECORD_TRAJECTORIES = true;
+
+	/**
+	 * Capture inputs of adaptation processes and ensembles to the .decisions file of the run for offline replay
+	 */
+	private static boolean CAPTURE_DECISIONS = false;
+
+	/**
+	 * Collect execution time and lag of processes and ensembles, exposed through JMX and the .tasks.csv file of the run
+	 */
+	private static boolean COLLECT_TASK_METRICS = false;
 	
 	/**
 	 * Colors of robots in simulation
@@ -53,47 +117,142 @@ public class GarbageCollectDemo {
 	/**
 	 * Initial robot positions
 	 */
-	private static PositionPlugin[] positionPlugins = {
-			new PositionPlugin(12, 5),
-			new PositionPlugin(17.50, 5),
-			new PositionPlugin(12, 13),
-			new PositionPlugin(26, 11),
-			new PositionPlugin(28, 11),
-			new PositionPlugin(9, 11),
-			new PositionPlugin(11, 13),
-			new PositionPlugin(10, 13),
-			new PositionPlugin(9, 13),
+	static Position[] initialPositions = {
+			new Position(12, 5),
+			new Position(17.50, 5),
+			new Position(12, 13),
+			new Position(26, 11),
+			new Position(28, 11),
+			new Position(9, 11),
+			new Position(11, 13),
+			new Position(10, 13),
+			new Position(9, 13),
 	};
+
+	/**
+	 * Position plugins holding initial robot positions
+	 */
+	private static PositionPlugin[] positionPlugins = new PositionPlugin[initialPositions.length];
+	static {
+		for (int i = 0; i < initialPositions.length; ++i) {
+			positionPlugins[i] = new PositionPlugin(initialPositions[i].x, initialPositions[i].y);
+		}
+	}
 	
 	/**
-	 * Random position generator
+	 * Areas of the "corridor" map where garbage can be placed
 	 */
-	private static PositionGenerator generator = new PositionGenerator(new Random(42),
+	static final Area[] GARBAGE_AREAS = {
 			new Area(11.50, 13.50, 1.00, 7.00), // Office1
 			new Area(16.50, 18.25, 1.00, 7.00), // Office2
 			new Area(02.25, 04.75, 11.10, 13.75), // Corridor left
 			new Area(06.25, 14.25, 11.10, 13.75), // Corridor center left
 			new Area(15.75, 23.75, 11.10, 13.75), // Corridor center right
 			new Area(25.25, 28.75, 11.10, 13.75) // Corridor right
-	);
+	};
 
 	public static void main(String[] args) throws Exception {
+		for (String arg : args) {
+			String[] parts = arg.split("=", 2);
+			if (parts.length != 2) {
+				throw new IllegalArgumentException("Invalid argument: " + arg);
+			}
+			switch (parts[0]) {
+			case "headless":
+				HEADLESS = Boolean.parseBoolean(parts[1]);
+				break;
+			case "map":
+				MAP_FILE = parts[1];
+				break;
+			case "mapResolution":
+				MAP_RESOLUTION_M = Double.parseDouble(parts[1]);
+				break;
+			case "mapOrigin":
+				String[] origin = parts[1].split(",");
+				if (origin.length != 2) {
+					throw new IllegalArgumentException("Invalid map origin: " + parts[1]);
+				}
+				MAP_ORIGIN_X = Double.parseDouble(origin[0]);
+				MAP_ORIGIN_Y = Double.parseDouble(origin[1]);
+				break;
+			default:
+				throw new IllegalArgumentException("Invalid argument: " + arg);
+			}
+		}
+
+		String runId = String.valueOf(System.currentTimeMillis());
+
+		// Random position generator, with known map only reachable positions are generated
+		OccupancyGrid map = MAP_FILE != null
+				? OccupancyGrid.fromPgm(Paths.get(MAP_FILE), MAP_RESOLUTION_M, MAP_ORIGIN_X, MAP_ORIGIN_Y)
+				: OccupancyGrid.corridor();
+		PositionSource generator = HEADLESS || MAP_FILE != null
+				? new OccupancyPositionGenerator(new Random(SEED), map.inflate(KinematicSimulation.ROBOT_RADIUS_M),
+						GARBAGE_AREAS)
+				: new PositionGenerator(new Random(SEED), GARBAGE_AREAS);
+
+		// Log robot events to file in background
+		EventLog.start("results" + File.separator + runId + ".events");
+		if (RECORD_TRAJECTORIES) {
+			TrajectoryRecorder.start("results" + File.separator + runId + ".gct");
+		}
+		if (CAPTURE_DECISIONS) {
+			DecisionLog.start("results" + File.separator + runId + ".decisions");
+		}
+		if (COLLECT_TASK_METRICS) {
+			TaskMetrics.start("results" + File.separator + runId + ".tasks.csv");
+		}
+
 		// Create ROS based simulation
 		// "corridor" is prefix of map files to use in the simulation		
-		ROSSimulation rosSim = new ROSSimulation(SIMUALTION_SERVER_ADDRESS, 11311, SIMUALTION_SERVER_ADDRESS,
-				"corridor", 0.02, 100);
+		ROSSimulation rosSim = null;
+		KinematicSimulation kinematicSim = null;
+		SimulationTimer timer;
+		if (HEADLESS) {
+			kinematicSim = new KinematicSimulation(map, KinematicSimulation.DEFAULT_STEP_MS);
+			timer = kinematicSim.getTimer();
+		} else {
+			rosSim = new ROSSimulation(SIMUALTION_SERVER_ADDRESS, 11311, SIMUALTION_SERVER_ADDRESS, "corridor", 0.02,
+					100);
+			timer = rosSim.getTimer();
+		}
 
 		// Create main application container
-		DEECoSimulation realm = new DEECoSimulation(rosSim.getTimer());
+		DEECoSimulation realm = new DEECoSimulation(timer);
 
 		// Configure loop-back networking for all nodes
 		realm.addPlugin(Network.class);
+		realm.addPlugin(KnowledgeMarshaller.class); // Compact knowledge packets, fit single 802.15.4 frame
 		realm.addPlugin(DefaultKnowledgePublisher.class);
-		realm.addPlugin(KnowledgeInsertingStrategy.class);
-		realm.addPlugin(BeeClick.class); // Network device simulation using OMNeT++ and INET
-		// realm.addPlugin(new SimpleBroadcastDevice()); // Simple fake network device (simulates range and delivery latency)
+		if (HEADLESS) {
+			realm.addPlugin(new RangeBroadcastDevice(timer)); // Fake network device delivering only in range, with latency and loss
+			// realm.addPlugin(new SimpleBroadcastDevice()); // Simple fake network device (simulates range and delivery latency)
+		} else {
+			realm.addPlugin(BeeClick.class); // Network device simulation using OMNeT++ and INET
+			// realm.addPlugin(new SimpleBroadcastDevice()); // Simple fake network device (simulates range and delivery latency)
+		}
 
-		PositionMonitor monitor = new PositionMonitor(rosSim.getTimer());
+		PositionMonitor monitor = new PositionMonitor(timer);
+		monitor.startStreaming("results" + File.separator + runId + ".reached");
+		startLiveStats(monitor);
+
+		// Generate garbage and divide it among robots
+		List<Position> allGarbage = new ArrayList<>();
+		for (int i = 0; i < NUM_ROBOTS * GARBAGE_PER_ROBOT; ++i) {
+			allGarbage.add(generator.getRandomPosition());
+		}
+		List<Route> routes = new ArrayList<>();
+		if (ASSIGN_GARBAGE) {
+			// Stage map is not available here unless given, plan on its approximation
+			GridPathPlanner planner = HEADLESS ? kinematicSim.getPlanner()
+					: new GridPathPlanner(map.inflate(KinematicSimulation.ROBOT_RADIUS_M));
+			routes = GarbageAssignment.assign(Arrays.copyOf(initialPositions, NUM_ROBOTS), allGarbage,
+					GarbageAssignment.pathLength(planner));
+		} else {
+			for (int i = 0; i < NUM_ROBOTS; ++i) {
+				routes.add(new Route(allGarbage.subList(i * GARBAGE_PER_ROBOT, (i + 1) * GARBAGE_PER_ROBOT)));
+			}
+		}
 
 		// Add robots
 		for (int i = 0; i < NUM_ROBOTS; ++i) {
@@ -101,32 +260,60 @@ public class GarbageCollectDemo {
 			final String name = "Collector" + i;
 
 			// Initial garbage location for robot
-			List<Position> garbage = new LinkedList<>();
-			for (int j = 0; j < GARBAGE_PER_ROBOT; ++j) {
-				Position pos = generator.getRandomPosition();
-				garbage.add(pos);
+			Route garbage = routes.get(i);
+			for (Position pos : garbage) {
 				monitor.addPosition(pos, name);
 			}
 
 			// Deploy DEECo node with robot specific plugins
-			Positioning positioning = new Positioning();
-			DEECoNode robot = realm.createNode(i, positioning, rosSim.createROSServices(colors[i]), positionPlugins[i]);
+			Positioning positioning;
+			DEECoNode robot;
+			if (HEADLESS) {
+				positioning = kinematicSim.createPositioning(initialPositions[i].x, initialPositions[i].y);
+				robot = realm.createNode(i, positioning, positionPlugins[i], new ReplicaCache(timer));
+			} else {
+				positioning = new Positioning();
+				robot = realm.createNode(i, positioning, rosSim.createROSServices(colors[i]), positionPlugins[i],
+						new ReplicaCache(timer));
+			}
 
 			// Deploy Collector robot component
-			robot.deployComponent(
-					new CleanerRobot(name, positioning, rosSim.getTimer(), garbage, monitor, generator));
+			CleanerRobot cleaner = new CleanerRobot(name, positioning, timer, garbage, monitor, generator);
+			ComponentInstance component = robot.deployComponent(cleaner);
+			if (cleaner.schedule != null) {
+				cleaner.schedule.attach(component);
+			}
 
 			// Deploy ensembles
 			robot.deployEnsemble(DestinationAdoptionEnsemble.class);
 			robot.deployEnsemble(AdoptedDestinationRemoveEnsemble.class);
+			if (WORK_STEALING) {
+				robot.deployEnsemble(WorkStealingEnsemble.class);
+			} else {
+				WorkStealingEnsemble.disable(component);
+			}
 		}
 
 		// Simulate for 10 minutes
 		realm.start(600_000);
 
 		// Print final report on reached garbage locations
+		EventLog.stop();
+		TrajectoryRecorder.stop();
+		DecisionLog.stop();
+		TaskMetrics.stop();
+		monitor.stopStreaming();
 		monitor.printStatus();
-		monitor.writeStatsToFile("results" + File.separator + String.valueOf(System.currentTimeMillis()) + ".txt");
+		System.out.print(EnsembleCounters.report());
+		System.out.print(TaskMetrics.report());
+		monitor.writeStatsToFile("results" + File.separator + runId + ".txt");
+		monitor.writeColumnarFile("results" + File.separator + runId + ResultsFile.EXTENSION,
+				String.format("seed=%d run=%s robots=%d garbagePerRobot=%d headless=%b assignment=%b workStealing=%b",
+						SEED, runId, NUM_ROBOTS, GARBAGE_PER_ROBOT, HEADLESS, ASSIGN_GARBAGE, WORK_STEALING));
+
+		if (HEADLESS) {
+			return;
+		}
 
 		/**
 		 * Kill the whole JVM as ROS might not exit nicely
@@ -139,4 +326,22 @@ public class GarbageCollectDemo {
 				"!#!@!#!@!#@!@#!@#!@#!#!@!#!@!#@!@#!@#!@#!#!@!#!@!#@!@#!@#!@#!#!@!#!@!#@!@#!@#!@#!#!@!#!@!#@!@#!@#!@#!#!@!#!@!#@!@#");
 		System.exit(0);
 	}
+
+	/**
+	 * Periodically prints live statistics of the run to the console
+	 */
+	private static void startLiveStats(PositionMonitor monitor) {
+		Thread thread = new Thread(() -> {
+			try {
+				while (true) {
+					Thread.sleep(LIVE_STATS_PERIOD_MS);
+					System.out.println(">>> " + monitor.getLiveStats());
+				}
+			} catch (InterruptedException e) {
+				// Stopped
+			}
+		}, "Live statistics");
+		thread.setDaemon(true);
+		thread.start();
+	}
 }
@@ -0,0 +1,254 @@
+package cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * A* path planner over occupancy grid
+ *
+ * Plans 8-connected paths through free cells of the grid (diagonal moves are not allowed to cut corners). The raw cell
+ * path is then shortened by dropping way-points that are in direct line of sight. The grid is expected to be already
+ * inflated by the robot radius.
+ *
+ */
+public class GridPathPlanner {
+	private static final double SQRT2 = Math.sqrt(2);
+
+	private final OccupancyGrid grid;
+
+	public GridPathPlanner(OccupancyGrid grid) {
+		this.grid = grid;
+	}
+
+	/**
+	 * Open list entry
+	 */
+	private static class Node implements Comparable<Node> {
+		final int cell;
+		final double f;
+
+		Node(int cell, double f) {
+			this.cell = cell;
+			this.f = f;
+		}
+
+		@Override
+		public int compareTo(Node o) {
+			return Double.compare(f, o.f);
+		}
+	}
+
+	/**
+	 * Plans path in between two points
+	 *
+	 * @return List of way-points as {x, y} pairs ending at the goal, or null when there is no path
+	 */
+	public List<double[]> plan(double fromX, double fromY, double toX, double toY) {
+		int start = nearestFree(grid.toCellX(fromX), grid.toCellY(fromY));
+		int goal = nearestFree(grid.toCellX(toX), grid.toCellY(toY));
+		if (start < 0 || goal < 0) {
+			return null;
+		}
+
+		int size = grid.getWidth() * grid.getHeight();
+		double[] g = new double[size];
+		int[] parent = new int[size];
+		search(start, goal, g, parent);
+
+		if (Double.isInfinite(g[goal])) {
+			return null;
+		}
+
+		// Reconstruct cell path
+		List<Integer> cells = new ArrayList<>();
+		for (int c = goal; c != -1; c = parent[c]) {
+			cells.add(c);
+		}
+		Collections.reverse(cells);
+
+		// Keep only way-points needed to stay in line of sight
+		List<double[]> path = new ArrayList<>();
+		int anchor = 0;
+		for (int i = 2; i < cells.size(); ++i) {
+			if (!lineOfSight(cells.get(anchor), cells.get(i))) {
+				anchor = i - 1;
+				path.add(center(cells.get(anchor)));
+			}
+		}
+		path.add(center(goal));
+		return path;
+	}
+
+	/**
+	 * Computes path lengths from a point to all cells of the grid
+	 *
+	 * Single search gives distances to any number of targets, use {@link #distanceAt(double[], double, double)} to read
+	 * them.
+	 *
+	 * @return Path lengths in meters indexed by cell, infinity for unreachable cells
+	 */
+	public double[] distanceField(double fromX, double fromY) {
+		int size = grid.getWidth() * grid.getHeight();
+		double[] g = new double[size];
+		int start = nearestFree(grid.toCellX(fromX), grid.toCellY(fromY));
+		if (start < 0) {
+			Arrays.fill(g, Double.POSITIVE_INFINITY);
+			return g;
+		}
+		search(start, -1, g, new int[size]);
+		for (int i = 0; i < size; ++i) {
+			g[i] *= grid.getResolution();
+		}
+		return g;
+	}
+
+	/**
+	 * Reads path length to a point from distance field
+	 *
+	 * @return Path length in meters, infinity when the point is not reachable
+	 */
+	public double distanceAt(double[] field, double x, double y) {
+		int cell = nearestFree(grid.toCellX(x), grid.toCellY(y));
+		return cell < 0 ? Double.POSITIVE_INFINITY : field[cell];
+	}
+
+	/**
+	 * Searches for shortest paths from start cell
+	 *
+	 * @param goal
+	 *            Search stops at this cell, negative to search the whole grid
+	 * @param g
+	 *            Receives path lengths in cells
+	 * @param parent
+	 *            Receives predecessors on the shortest paths
+	 */
+	private void search(int start, int goal, double[] g, int[] parent) {
+		int w = grid.getWidth();
+		Arrays.fill(g, Double.POSITIVE_INFINITY);
+		boolean[] closed = new boolean[g.length];
+
+		PriorityQueue<Node> open = new PriorityQueue<>();
+		g[start] = 0;
+		parent[start] = -1;
+		open.add(new Node(start, heuristic(start, goal)));
+
+		while (!open.isEmpty()) {
+			int cur = open.poll().cell;
+			if (closed[cur]) {
+				continue;
+			}
+			if (cur == goal) {
+				break;
+			}
+			closed[cur] = true;
+
+			int cx = cur % w, cy = cur / w;
+			for (int dy = -1; dy <= 1; ++dy) {
+				for (int dx = -1; dx <= 1; ++dx) {
+					if ((dx == 0 && dy == 0) || !grid.isFree(cx + dx, cy + dy)) {
+						continue;
+					}
+					// Do not cut corners
+					if (dx != 0 && dy != 0 && (!grid.isFree(cx + dx, cy) || !grid.isFree(cx, cy + dy))) {
+						continue;
+					}
+					int next = (cy + dy) * w + cx + dx;
+					double cost = g[cur] + ((dx != 0 && dy != 0) ? SQRT2 : 1);
+					if (cost < g[next]) {
+						g[next] = cost;
+						parent[next] = cur;
+						open.add(new Node(next, cost + heuristic(next, goal)));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Octile distance in cells, zero when there is no goal
+	 */
+	private double heuristic(int from, int to) {
+		if (to < 0) {
+			return 0;
+		}
+		int w = grid.getWidth();
+		int dx = Math.abs(from % w - to % w);
+		int dy = Math.abs(from / w - to / w);
+		return Math.max(dx, dy) + (SQRT2 - 1) * Math.min(dx, dy);
+	}
+
+	private double[] center(int cell) {
+		int w = grid.getWidth();
+		return new double[] { grid.cellCenterX(cell % w), grid.cellCenterY(cell / w) };
+	}
+
+	/**
+	 * Checks straight line in between two cells passes only free cells (supercover traversal)
+	 */
+	private boolean lineOfSight(int from, int to) {
+		int w = grid.getWidth();
+		int x0 = from % w, y0 = from / w, x1 = to % w, y1 = to / w;
+		int dx = Math.abs(x1 - x0), dy = Math.abs(y1 - y0);
+		int sx = x0 < x1 ? 1 : -1, sy = y0 < y1 ? 1 : -1;
+		int err = dx - dy;
+		int x = x0, y = y0;
+		while (true) {
+			if (!grid.isFree(x, y)) {
+				return false;
+			}
+			if (x == x1 && y == y1) {
+				return true;
+			}
+			int e2 = 2 * err;
+			if (e2 > -dy && e2 < dx) {
+				// Diagonal step, both side cells need to be free
+				if (!grid.isFree(x + sx, y) || !grid.isFree(x, y + sy)) {
+					return false;
+				}
+			}
+			if (e2 > -dy) {
+				err -= dy;
+				x += sx;
+			}
+			if (e2 < dx) {
+				err += dx;
+				y += sy;
+			}
+		}
+	}
+
+	/**
+	 * Finds free cell nearest to the given one
+	 *
+	 * @return Cell index or -1 when there is no free cell nearby
+	 */
+	int nearestFree(int cx, int cy) {
+		if (grid.isFree(cx, cy)) {
+			return cy * grid.getWidth() + cx;
+		}
+		int maxRadius = (int) Math.ceil(1.0 / grid.getResolution());
+		for (int r = 1; r <= maxRadius; ++r) {
+			int best = -1;
+			int bestDist = Integer.MAX_VALUE;
+			for (int dy = -r; dy <= r; ++dy) {
+				for (int dx = -r; dx <= r; ++dx) {
+					if (Math.max(Math.abs(dx), Math.abs(dy)) != r || !grid.isFree(cx + dx, cy + dy)) {
+						continue;
+					}
+					int dist = dx * dx + dy * dy;
+					if (dist < bestDist) {
+						bestDist = dist;
+						best = (cy + dy) * grid.getWidth() + cx + dx;
+					}
+				}
+			}
+			if (best >= 0) {
+				return best;
+			}
+		}
+		return -1;
+	}
+}
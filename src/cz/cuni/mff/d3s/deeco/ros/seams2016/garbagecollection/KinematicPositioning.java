@@ -0,0 +1,173 @@
+package cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection;
+
+import java.util.Collections;
+import java.util.List;
+
+import cz.cuni.mff.d3s.deeco.runtime.DEECoContainer;
+import cz.cuni.mff.d3s.deeco.runtime.DEECoPlugin;
+import cz.cuni.mff.d3s.jdeeco.ros.Positioning;
+import cz.cuni.mff.d3s.jdeeco.ros.datatypes.MoveBaseResult;
+import cz.cuni.mff.d3s.jdeeco.ros.datatypes.Orientation;
+import cz.cuni.mff.d3s.jdeeco.ros.datatypes.PoseWithCovariance;
+import cz.cuni.mff.d3s.jdeeco.ros.datatypes.ROSPosition;
+
+/**
+ * Positioning plugin backed by the headless kinematic simulation
+ *
+ * Provides the same interface CleanerRobot uses from ROS positioning, but the robot is simulated by
+ * {@link KinematicSimulation} as a differential drive robot. Unlike ROS positioning this plugin does not depend on
+ * RosServices.
+ *
+ */
+public class KinematicPositioning extends Positioning {
+	/**
+	 * Gain of the heading controller
+	 */
+	private static final double HEADING_GAIN = 2.0;
+
+	/**
+	 * Robot does not move forward when heading error is larger than this
+	 */
+	private static final double MAX_DRIVE_HEADING_ERROR_RAD = Math.PI / 3;
+
+	/**
+	 * Checks whenever the robot moving to the position collides with other robots
+	 */
+	interface CollisionCheck {
+		boolean collides(double x, double y);
+	}
+
+	private final KinematicSimulation simulation;
+
+	double x, y, theta;
+
+	/**
+	 * Remaining way-points of the current navigation goal, null when there is no goal
+	 */
+	private List<double[]> path;
+	private int pathIndex;
+	private MoveBaseResult result;
+
+	KinematicPositioning(KinematicSimulation simulation, double x, double y) {
+		this.simulation = simulation;
+		this.x = x;
+		this.y = y;
+		this.theta = 0;
+	}
+
+	@Override
+	public List<Class<? extends DEECoPlugin>> getDependencies() {
+		return Collections.emptyList();
+	}
+
+	@Override
+	public void init(DEECoContainer container) {
+		// Nothing to do, the robot is already part of the simulation
+	}
+
+	@Override
+	public PoseWithCovariance getPoseWithCovariance() {
+		simulation.update();
+		return new PoseWithCovariance(new ROSPosition(x, y, 0),
+				new Orientation(0, 0, Math.sin(theta / 2), Math.cos(theta / 2)), new double[36]);
+	}
+
+	@Override
+	public void setSimpleGoal(ROSPosition position, Orientation orientation) {
+		simulation.update();
+
+		// Keep following the current path when the goal has not changed
+		if (path != null) {
+			double[] goal = path.get(path.size() - 1);
+			if (Math.hypot(goal[0] - position.x, goal[1] - position.y) < simulation.getMap().getResolution()) {
+				return;
+			}
+		}
+
+		result = null;
+		path = simulation.getPlanner().plan(x, y, position.x, position.y);
+		pathIndex = 0;
+		if (path == null) {
+			result = new MoveBaseResult(MoveBaseResult.Status.Rejected, "No path to goal");
+		} else if (simulation.getInflatedMap().isFreeAt(position.x, position.y)) {
+			// End at the goal itself, not at the center of its cell
+			path.set(path.size() - 1, new double[] { position.x, position.y });
+		}
+	}
+
+	@Override
+	public MoveBaseResult getMoveBaseResult() {
+		simulation.update();
+		return result;
+	}
+
+	/**
+	 * Integrates robot motion
+	 *
+	 * @param dt
+	 *            Time step in seconds
+	 * @param check
+	 *            Collision check of the new position with other robots
+	 */
+	void step(double dt, CollisionCheck check) {
+		if (path == null) {
+			return;
+		}
+
+		// Skip reached way-points
+		double[] target = path.get(pathIndex);
+		while (Math.hypot(target[0] - x, target[1] - y) < KinematicSimulation.GOAL_TOLERANCE_M) {
+			if (++pathIndex == path.size()) {
+				path = null;
+				result = new MoveBaseResult(MoveBaseResult.Status.Succeeded, "Goal reached");
+				return;
+			}
+			target = path.get(pathIndex);
+		}
+
+		// Unicycle controller: turn towards the target, drive when heading roughly matches
+		double error = normalizeAngle(Math.atan2(target[1] - y, target[0] - x) - theta);
+		double w = clamp(HEADING_GAIN * error, KinematicSimulation.MAX_ANGULAR_SPEED_RPS);
+		double v = 0;
+		if (Math.abs(error) < MAX_DRIVE_HEADING_ERROR_RAD) {
+			double distance = Math.hypot(target[0] - x, target[1] - y);
+			v = Math.min(KinematicSimulation.MAX_LINEAR_SPEED_MPS * Math.cos(error), distance / dt);
+		}
+
+		theta = normalizeAngle(theta + w * dt);
+		double nx = x + v * Math.cos(theta) * dt;
+		double ny = y + v * Math.sin(theta) * dt;
+		if (v <= 0) {
+			return;
+		}
+
+		// Slide along the wall, the robot is never exactly on the planned line and would get stuck at corners
+		if (!simulation.isFreeMove(x, y, nx, ny)) {
+			if (simulation.isFreeMove(x, y, nx, y)) {
+				ny = y;
+			} else if (simulation.isFreeMove(x, y, x, ny)) {
+				nx = x;
+			} else {
+				return;
+			}
+		}
+		if (!check.collides(nx, ny)) {
+			x = nx;
+			y = ny;
+		}
+	}
+
+	private static double normalizeAngle(double angle) {
+		while (angle > Math.PI) {
+			angle -= 2 * Math.PI;
+		}
+		while (angle < -Math.PI) {
+			angle += 2 * Math.PI;
+		}
+		return angle;
+	}
+
+	private static double clamp(double value, double limit) {
+		return Math.max(-limit, Math.min(limit, value));
+	}
+}
@@ -0,0 +1,240 @@
+package cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import cz.cuni.mff.d3s.deeco.timer.DiscreteEventTimer;
+import cz.cuni.mff.d3s.deeco.timer.SimulationTimer;
+
+/**
+ * Headless replacement for the ROS/Stage simulation
+ *
+ * Simulates differential drive robots moving on an occupancy grid map without any external process. Robots follow
+ * paths planned by {@link GridPathPlanner} and cannot pass through each other, so deadlocks in narrow parts of the map
+ * still occur the same way as in Stage.
+ *
+ * Robots simulated elsewhere (by other shards, see {@link ShardBroadcastDevice}) can be added as obstacles, the robots
+ * of this simulation collide with them as with each other.
+ *
+ * The simulation is driven by a discrete event timer. Robot motion is integrated with fixed step lazily, whenever some
+ * robot queries its pose or sets a goal. As DEECo processes read the pose frequently the world is never far behind the
+ * simulated time. Everything runs in simulated time only, so the simulation runs as fast as the CPU allows.
+ *
+ * Usage mirrors the ROSSimulation: create the simulation, pass {@link #getTimer()} to DEECoSimulation and use
+ * {@link #createPositioning(double, double)} instead of new Positioning() for each robot.
+ *
+ */
+public class KinematicSimulation {
+	/**
+	 * Radius of the simulated robot (Turtlebot 2)
+	 */
+	static final double ROBOT_RADIUS_M = 0.18;
+
+	/**
+	 * Maximal forward speed
+	 */
+	static final double MAX_LINEAR_SPEED_MPS = 0.5;
+
+	/**
+	 * Maximal rotation speed
+	 */
+	static final double MAX_ANGULAR_SPEED_RPS = 1.5;
+
+	/**
+	 * Distance at which the navigation goal is considered reached
+	 */
+	static final double GOAL_TOLERANCE_M = 0.1;
+
+	/**
+	 * Default integration step
+	 */
+	static final long DEFAULT_STEP_MS = 100;
+
+	private final SimulationTimer timer;
+	private final OccupancyGrid map;
+	private final OccupancyGrid inflated;
+	private final GridPathPlanner planner;
+	private final long stepMs;
+	private final List<KinematicPositioning> robots = new ArrayList<>();
+
+	/**
+	 * Coordinates of robots simulated elsewhere, x and y interleaved
+	 */
+	private double[] obstacles = new double[0];
+
+	/**
+	 * Time the world state corresponds to
+	 */
+	private long worldTimeMs = 0;
+
+	/**
+	 * Constructs headless simulation
+	 *
+	 * @param map
+	 *            Map of the environment, will be inflated by robot radius for planning and collisions
+	 * @param stepMs
+	 *            Integration step in milliseconds
+	 */
+	public KinematicSimulation(OccupancyGrid map, long stepMs) {
+		this.timer = new DiscreteEventTimer();
+		this.map = map;
+		this.inflated = map.inflate(ROBOT_RADIUS_M);
+		this.planner = new GridPathPlanner(inflated);
+		this.stepMs = stepMs;
+	}
+
+	/**
+	 * Constructs headless simulation of the "corridor" map
+	 */
+	public KinematicSimulation() {
+		this(OccupancyGrid.corridor(), DEFAULT_STEP_MS);
+	}
+
+	/**
+	 * Gets simulation timer to be used by DEECo simulation
+	 */
+	public SimulationTimer getTimer() {
+		return timer;
+	}
+
+	public OccupancyGrid getMap() {
+		return map;
+	}
+
+	/**
+	 * Gets map inflated by the robot radius, cells the center of the robot can occupy
+	 */
+	public OccupancyGrid getInflatedMap() {
+		return inflated;
+	}
+
+	GridPathPlanner getPlanner() {
+		return planner;
+	}
+
+	/**
+	 * Creates simulated robot and its positioning plugin
+	 *
+	 * @param x
+	 *            Initial x coordinate
+	 * @param y
+	 *            Initial y coordinate
+	 * @return Positioning plugin to be passed to the node and the robot component
+	 */
+	public KinematicPositioning createPositioning(double x, double y) {
+		KinematicPositioning robot = new KinematicPositioning(this, x, y);
+		robots.add(robot);
+		return robot;
+	}
+
+	/**
+	 * Sets robots simulated elsewhere
+	 *
+	 * The world is advanced to the current time first, so the robots move with the previous obstacles until now.
+	 *
+	 * @param poses
+	 *            Coordinates of the robots, x and y interleaved
+	 */
+	public void setObstacles(double[] poses) {
+		update();
+		obstacles = poses;
+	}
+
+	/**
+	 * Advances world to current simulation time
+	 */
+	void update() {
+		long now = timer.getCurrentMilliseconds();
+		while (worldTimeMs + stepMs <= now) {
+			step(stepMs / 1000.0);
+			worldTimeMs += stepMs;
+		}
+	}
+
+	/**
+	 * Moves all robots by single integration step
+	 */
+	private void step(double dt) {
+		// Bucket robots by cells large enough to contain all possible colliding robots
+		double cellSize = 2 * ROBOT_RADIUS_M + MAX_LINEAR_SPEED_MPS * dt;
+		Map<Long, List<KinematicPositioning>> buckets = new HashMap<>();
+		for (KinematicPositioning robot : robots) {
+			buckets.computeIfAbsent(cellKey(robot.x, robot.y, cellSize), k -> new ArrayList<>()).add(robot);
+		}
+		Map<Long, List<double[]>> obstacleBuckets = new HashMap<>();
+		for (int i = 0; i < obstacles.length; i += 2) {
+			double[] obstacle = { obstacles[i], obstacles[i + 1] };
+			obstacleBuckets.computeIfAbsent(cellKey(obstacle[0], obstacle[1], cellSize), k -> new ArrayList<>())
+					.add(obstacle);
+		}
+
+		for (KinematicPositioning robot : robots) {
+			robot.step(dt, (nx, ny) -> collides(robot, nx, ny, buckets, obstacleBuckets, cellSize));
+		}
+	}
+
+	/**
+	 * Checks whenever the robot can move in between two positions without hitting the walls
+	 *
+	 * The walls are checked on the inflated map the planner uses, so the body of the robot stays off them. Robot that
+	 * is already within the inflated area (placed there initially) can move inside it, but not through the walls.
+	 */
+	boolean isFreeMove(double x, double y, double nx, double ny) {
+		return map.isFreeAt(nx, ny) && (inflated.isFreeAt(nx, ny) || !inflated.isFreeAt(x, y));
+	}
+
+	/**
+	 * Checks whenever robot moving to a new position collides with another robot
+	 *
+	 * Only moves that get robots closer to each other are considered collisions, so robots that got too close can
+	 * still move apart.
+	 */
+	private boolean collides(KinematicPositioning robot, double nx, double ny,
+			Map<Long, List<KinematicPositioning>> buckets, Map<Long, List<double[]>> obstacleBuckets,
+			double cellSize) {
+		long cx = (long) Math.floor(nx / cellSize);
+		long cy = (long) Math.floor(ny / cellSize);
+		double minDist = 2 * ROBOT_RADIUS_M;
+		for (long dy = -1; dy <= 1; ++dy) {
+			for (long dx = -1; dx <= 1; ++dx) {
+				List<KinematicPositioning> bucket = buckets.get(cellKey(cx + dx, cy + dy));
+				if (bucket != null) {
+					for (KinematicPositioning other : bucket) {
+						if (other != robot && approaches(robot, nx, ny, other.x, other.y, minDist)) {
+							return true;
+						}
+					}
+				}
+				List<double[]> obstacleBucket = obstacleBuckets.get(cellKey(cx + dx, cy + dy));
+				if (obstacleBucket != null) {
+					for (double[] obstacle : obstacleBucket) {
+						if (approaches(robot, nx, ny, obstacle[0], obstacle[1], minDist)) {
+							return true;
+						}
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Checks whenever the move gets the robot closer than minDist to other robot and closer than it was
+	 */
+	private static boolean approaches(KinematicPositioning robot, double nx, double ny, double ox, double oy,
+			double minDist) {
+		double newDist = Math.hypot(ox - nx, oy - ny);
+		double oldDist = Math.hypot(ox - robot.x, oy - robot.y);
+		return newDist < minDist && newDist < oldDist;
+	}
+
+	private static long cellKey(double x, double y, double cellSize) {
+		return cellKey((long) Math.floor(x / cellSize), (long) Math.floor(y / cellSize));
+	}
+
+	private static long cellKey(long cx, long cy) {
+		return (cx << 32) ^ (cy & 0xffffffffL);
+	}
+}
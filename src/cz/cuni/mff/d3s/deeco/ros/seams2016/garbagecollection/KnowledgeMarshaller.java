@@ -0,0 +1,369 @@
+package cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import cz.cuni.mff.d3s.deeco.knowledge.ValueSet;
+import cz.cuni.mff.d3s.deeco.model.runtime.RuntimeModelHelper;
+import cz.cuni.mff.d3s.deeco.model.runtime.api.KnowledgePath;
+import cz.cuni.mff.d3s.deeco.network.KnowledgeData;
+import cz.cuni.mff.d3s.deeco.network.KnowledgeMetaData;
+import cz.cuni.mff.d3s.deeco.runtime.DEECoContainer;
+import cz.cuni.mff.d3s.deeco.runtime.DEECoPlugin;
+import cz.cuni.mff.d3s.jdeeco.network.Network;
+import cz.cuni.mff.d3s.jdeeco.network.l2.L2PacketType;
+import cz.cuni.mff.d3s.jdeeco.network.marshaller.Marshaller;
+import cz.cuni.mff.d3s.jdeeco.network.marshaller.MarshallerRegistry;
+import cz.cuni.mff.d3s.jdeeco.position.Position;
+
+/**
+ * Compact wire format of the knowledge published by CleanerRobot
+ *
+ * The default marshaller of knowledge packets uses Java serialization, where class descriptors of the knowledge data,
+ * its meta data and of every value take more space than the values themselves. The knowledge of one robot then does
+ * not fit a single 127 byte frame of 802.15.4 (BeeClick) and is fragmented.
+ *
+ * This marshaller encodes knowledge of the published CleanerRobot fields by a fixed schema: the field is identified by
+ * its bit in a mask and the value is written in binary. Positions are written by {@link PositionCodec}, adopted
+ * destinations and offered goals by their own compact form, numbers as varints. Knowledge that does not match the
+ * schema (unknown field, unexpected value type, security tags, strings longer than MAX_STRING_BYTES) is written by
+ * Java serialization, so other components still work. The first byte tells which of the two formats follows.
+ *
+ * Positions created by the robots are {@link CompactPosition}s and adoption times are rounded by
+ * {@link AdoptedDestinations}, so the replica decoded from the compact format holds the same values as the original.
+ *
+ * Install as a plugin of every node, it replaces the marshaller of knowledge packets of the node's network.
+ *
+ */
+public class KnowledgeMarshaller implements Marshaller, DEECoPlugin {
+	/**
+	 * Size of single 802.15.4 frame
+	 */
+	public static final int FRAME_BYTES = 127;
+
+	/**
+	 * Longest accepted string, robot and node ids are much shorter
+	 */
+	private static final int MAX_STRING_BYTES = 255;
+
+	private static final byte FORMAT_SERIALIZED = 0;
+	private static final byte FORMAT_SCHEMA = 1;
+
+	/**
+	 * Published fields of CleanerRobot, each has its bit in the masks of the compact format
+	 */
+	private enum Field {
+		ID("id") {
+			@Override
+			boolean accepts(Object value) {
+				return value instanceof String && fitsString((String) value);
+			}
+
+			@Override
+			void write(DataOutput out, Object value, KnowledgeMetaData meta) throws IOException {
+				writeString(out, (String) value);
+			}
+
+			@Override
+			Object read(DataInput in, KnowledgeMetaData meta) throws IOException {
+				return readString(in);
+			}
+		},
+		POSITION("position") {
+			@Override
+			boolean accepts(Object value) {
+				return value instanceof Position;
+			}
+
+			@Override
+			void write(DataOutput out, Object value, KnowledgeMetaData meta) throws IOException {
+				PositionCodec.writePosition(out, ((Position) value).x, ((Position) value).y);
+			}
+
+			@Override
+			Object read(DataInput in, KnowledgeMetaData meta) throws IOException {
+				double[] position = PositionCodec.readPosition(in);
+				return new CompactPosition(position[0], position[1]);
+			}
+		},
+		DESTINATION("destination") {
+			@Override
+			boolean accepts(Object value) {
+				return POSITION.accepts(value);
+			}
+
+			@Override
+			void write(DataOutput out, Object value, KnowledgeMetaData meta) throws IOException {
+				POSITION.write(out, value, meta);
+			}
+
+			@Override
+			Object read(DataInput in, KnowledgeMetaData meta) throws IOException {
+				return POSITION.read(in, meta);
+			}
+		},
+		STATE("state") {
+			@Override
+			boolean accepts(Object value) {
+				return value instanceof CleanerRobot.State;
+			}
+
+			@Override
+			void write(DataOutput out, Object value, KnowledgeMetaData meta) throws IOException {
+				out.writeByte(((CleanerRobot.State) value).ordinal());
+			}
+
+			@Override
+			Object read(DataInput in, KnowledgeMetaData meta) throws IOException {
+				CleanerRobot.State[] states = CleanerRobot.State.values();
+				int ordinal = in.readUnsignedByte();
+				if (ordinal >= states.length) {
+					throw new IOException("Unknown state: " + ordinal);
+				}
+				return states[ordinal];
+			}
+		},
+		TIMESTAMP("timestamp") {
+			@Override
+			boolean accepts(Object value) {
+				return value instanceof Long;
+			}
+
+			/**
+			 * Timestamp is written relative to the creation time of the knowledge, which is close
+			 */
+			@Override
+			void write(DataOutput out, Object value, KnowledgeMetaData meta) throws IOException {
+				PositionCodec.writeVarLong(out, PositionCodec.zigZag(meta.createdAt - (Long) value));
+			}
+
+			@Override
+			Object read(DataInput in, KnowledgeMetaData meta) throws IOException {
+				return meta.createdAt - PositionCodec.unZigZag(PositionCodec.readVarLong(in));
+			}
+		},
+		LOAD("load") {
+			@Override
+			boolean accepts(Object value) {
+				return value instanceof Integer;
+			}
+
+			@Override
+			void write(DataOutput out, Object value, KnowledgeMetaData meta) throws IOException {
+				PositionCodec.writeVarLong(out, PositionCodec.zigZag((Integer) value));
+			}
+
+			@Override
+			Object read(DataInput in, KnowledgeMetaData meta) throws IOException {
+				return (int) PositionCodec.unZigZag(PositionCodec.readVarLong(in));
+			}
+		},
+		ADOPTED_DESTINATIONS("adoptedDestinations") {
+			@Override
+			boolean accepts(Object value) {
+				return value instanceof AdoptedDestinations;
+			}
+
+			@Override
+			void write(DataOutput out, Object value, KnowledgeMetaData meta) throws IOException {
+				((AdoptedDestinations) value).write(out);
+			}
+
+			@Override
+			Object read(DataInput in, KnowledgeMetaData meta) throws IOException {
+				AdoptedDestinations adopted = new AdoptedDestinations();
+				adopted.read(in);
+				return adopted;
+			}
+		},
+		OFFERED_GOALS("offeredGoals") {
+			@Override
+			boolean accepts(Object value) {
+				return value instanceof OfferedGoals;
+			}
+
+			@Override
+			void write(DataOutput out, Object value, KnowledgeMetaData meta) throws IOException {
+				((OfferedGoals) value).write(out);
+			}
+
+			@Override
+			Object read(DataInput in, KnowledgeMetaData meta) throws IOException {
+				OfferedGoals offered = new OfferedGoals();
+				offered.read(in);
+				return offered;
+			}
+		};
+
+		final KnowledgePath path;
+
+		Field(String name) {
+			path = RuntimeModelHelper.createKnowledgePath(name);
+		}
+
+		abstract boolean accepts(Object value);
+
+		abstract void write(DataOutput out, Object value, KnowledgeMetaData meta) throws IOException;
+
+		abstract Object read(DataInput in, KnowledgeMetaData meta) throws IOException;
+
+		static Field of(KnowledgePath path) {
+			for (Field field : values()) {
+				if (field.path.equals(path)) {
+					return field;
+				}
+			}
+			return null;
+		}
+	}
+
+	@Override
+	public List<Class<? extends DEECoPlugin>> getDependencies() {
+		return Arrays.asList(Network.class);
+	}
+
+	@Override
+	public void init(DEECoContainer container) {
+		MarshallerRegistry registry = container.getPluginInstance(Network.class).getL2().getMarshallers();
+		registry.registerMarshaller(L2PacketType.KNOWLEDGE, this);
+	}
+
+	@Override
+	public byte[] marshall(Object data) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(FRAME_BYTES);
+		if (data instanceof KnowledgeData && fitsSchema((KnowledgeData) data)) {
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeByte(FORMAT_SCHEMA);
+			writeSchema(out, (KnowledgeData) data);
+			out.flush();
+		} else {
+			bytes.write(FORMAT_SERIALIZED);
+			try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+				out.writeObject(data);
+			}
+		}
+		return bytes.toByteArray();
+	}
+
+	@Override
+	public Object unmarshall(byte[] data) throws IOException, ClassNotFoundException {
+		ByteArrayInputStream bytes = new ByteArrayInputStream(data);
+		int format = bytes.read();
+		if (format == FORMAT_SCHEMA) {
+			return readSchema(new DataInputStream(bytes));
+		}
+		if (format == FORMAT_SERIALIZED) {
+			try (ObjectInputStream in = new ObjectInputStream(bytes)) {
+				return in.readObject();
+			}
+		}
+		throw new IOException("Unknown knowledge format: " + format);
+	}
+
+	/**
+	 * Checks whenever the knowledge can be written in the compact format
+	 */
+	private static boolean fitsSchema(KnowledgeData data) {
+		KnowledgeMetaData meta = data.getMetaData();
+		if (!isEmpty(data.getSecurityTags()) || !isEmpty(data.getAuthors()) || meta.componentId == null
+				|| meta.sender == null || !fitsString(meta.componentId) || !fitsString(meta.sender)) {
+			return false;
+		}
+		ValueSet knowledge = data.getKnowledge();
+		for (KnowledgePath path : knowledge.getKnowledgePaths()) {
+			Field field = Field.of(path);
+			Object value = knowledge.getValue(path);
+			if (field == null || (value != null && !field.accepts(value))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isEmpty(ValueSet values) {
+		return values == null || values.getKnowledgePaths().isEmpty();
+	}
+
+	private static void writeSchema(DataOutput out, KnowledgeData data) throws IOException {
+		KnowledgeMetaData meta = data.getMetaData();
+		writeString(out, meta.componentId);
+		writeString(out, meta.sender);
+		PositionCodec.writeVarLong(out, meta.versionId);
+		PositionCodec.writeVarLong(out, meta.createdAt);
+		PositionCodec.writeVarLong(out, meta.hopCount);
+
+		ValueSet knowledge = data.getKnowledge();
+		int present = 0, nulls = 0;
+		for (KnowledgePath path : knowledge.getKnowledgePaths()) {
+			Field field = Field.of(path);
+			present |= 1 << field.ordinal();
+			if (knowledge.getValue(path) == null) {
+				nulls |= 1 << field.ordinal();
+			}
+		}
+		out.writeByte(present);
+		out.writeByte(nulls);
+		for (Field field : Field.values()) {
+			if ((present & ~nulls & 1 << field.ordinal()) != 0) {
+				field.write(out, knowledge.getValue(field.path), meta);
+			}
+		}
+	}
+
+	private static KnowledgeData readSchema(DataInput in) throws IOException {
+		String componentId = readString(in);
+		String sender = readString(in);
+		long versionId = PositionCodec.readVarLong(in);
+		long createdAt = PositionCodec.readVarLong(in);
+		int hopCount = (int) PositionCodec.readVarLong(in);
+		KnowledgeMetaData meta = new KnowledgeMetaData(componentId, versionId, sender, createdAt, hopCount);
+
+		int present = in.readUnsignedByte();
+		int nulls = in.readUnsignedByte();
+		ValueSet knowledge = new ValueSet();
+		for (Field field : Field.values()) {
+			int bit = 1 << field.ordinal();
+			if ((present & bit) != 0) {
+				knowledge.setValue(field.path, (nulls & bit) != 0 ? null : field.read(in, meta));
+			}
+		}
+		return new KnowledgeData(knowledge, new ValueSet(), new ValueSet(), meta);
+	}
+
+	/**
+	 * Checks whenever the string is short enough to be read back by readString
+	 */
+	private static boolean fitsString(String value) {
+		return value.length() * 3 <= MAX_STRING_BYTES
+				|| value.getBytes(StandardCharsets.UTF_8).length <= MAX_STRING_BYTES;
+	}
+
+	private static void writeString(DataOutput out, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length > MAX_STRING_BYTES) {
+			throw new IOException("String too long: " + bytes.length);
+		}
+		PositionCodec.writeVarLong(out, bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInput in) throws IOException {
+		long length = PositionCodec.readVarLong(in);
+		if (length > MAX_STRING_BYTES) {
+			throw new IOException("String too long: " + length);
+		}
+		byte[] bytes = new byte[(int) length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
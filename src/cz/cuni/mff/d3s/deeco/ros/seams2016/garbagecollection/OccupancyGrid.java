@@ -0,0 +1,285 @@
+package cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+
+import cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection.PositionGenerator.Area;
+
+/**
+ * Occupancy grid map used by the headless simulation
+ *
+ * The map is a regular grid of square cells. Each cell is either free or occupied. Cell (0, 0) has its lower left
+ * corner at the map origin, x grows with cell column and y grows with cell row, which is the same convention ROS uses
+ * for map_server maps.
+ *
+ */
+public class OccupancyGrid implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Free space of the "corridor" map approximated by rectangles
+	 *
+	 * Two offices at the bottom are connected by doors to the long corridor at the top. The rectangles enclose the
+	 * areas used by the position generator in GarbageCollectDemo with some margin so that the goals are reachable.
+	 */
+	static final Area[] CORRIDOR_FREE_SPACE = {
+			new Area(11.00, 14.00, 0.50, 7.50), // Office1
+			new Area(16.00, 18.75, 0.50, 7.50), // Office2
+			new Area(12.00, 13.00, 7.50, 10.60), // Office1 door
+			new Area(17.00, 18.00, 7.50, 10.60), // Office2 door
+			new Area(01.75, 29.25, 10.60, 14.25) // Corridor
+	};
+
+	/**
+	 * Default resolution of the grid
+	 */
+	static final double DEFAULT_RESOLUTION_M = 0.1;
+
+	/**
+	 * Cells with lower occupancy probability are free, same default as ROS map_server uses
+	 */
+	static final double FREE_THRESH = 0.196;
+
+	private final double resolution;
+	private final double originX, originY;
+	private final int width, height;
+	private final BitSet free;
+
+	/**
+	 * Constructs grid with all cells occupied
+	 *
+	 * @param resolution
+	 *            Cell edge length in meters
+	 * @param originX
+	 *            X coordinate of the lower left map corner
+	 * @param originY
+	 *            Y coordinate of the lower left map corner
+	 * @param width
+	 *            Number of cell columns
+	 * @param height
+	 *            Number of cell rows
+	 */
+	public OccupancyGrid(double resolution, double originX, double originY, int width, int height) {
+		if (resolution <= 0 || width <= 0 || height <= 0) {
+			throw new RuntimeException(String.format("Invalid grid: resolution %f, size %dx%d", resolution, width, height));
+		}
+		this.resolution = resolution;
+		this.originX = originX;
+		this.originY = originY;
+		this.width = width;
+		this.height = height;
+		this.free = new BitSet(width * height);
+	}
+
+	/**
+	 * Creates grid where the free space is union of rectangular areas
+	 *
+	 * @param resolution
+	 *            Cell edge length in meters
+	 * @param areas
+	 *            Free areas
+	 * @return Grid covering all the areas
+	 */
+	public static OccupancyGrid fromAreas(double resolution, Area... areas) {
+		double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+		for (Area a : areas) {
+			minX = Math.min(minX, a.left);
+			minY = Math.min(minY, a.top);
+			maxX = Math.max(maxX, a.right);
+			maxY = Math.max(maxY, a.bottom);
+		}
+
+		// Keep one occupied cell around the free space so the map is closed
+		double originX = minX - resolution;
+		double originY = minY - resolution;
+		int width = (int) Math.ceil((maxX - originX) / resolution) + 1;
+		int height = (int) Math.ceil((maxY - originY) / resolution) + 1;
+
+		OccupancyGrid grid = new OccupancyGrid(resolution, originX, originY, width, height);
+		for (int cy = 0; cy < height; ++cy) {
+			for (int cx = 0; cx < width; ++cx) {
+				double x = grid.cellCenterX(cx);
+				double y = grid.cellCenterY(cy);
+				for (Area a : areas) {
+					if (x >= a.left && x <= a.right && y >= a.top && y <= a.bottom) {
+						grid.setFree(cx, cy, true);
+						break;
+					}
+				}
+			}
+		}
+		return grid;
+	}
+
+	/**
+	 * Loads grid from binary PGM image as used by ROS map_server
+	 * 
+	 * The image is read through memory mapping. The first image row is the top of the map, darker pixels are occupied.
+	 * Pixels with occupancy probability (255 - value) / 255 lower than FREE_THRESH are free.
+	 *
+	 * @param file
+	 *            Image file
+	 * @param resolution
+	 *            Cell edge length in meters, "resolution" in map_server yaml file
+	 * @param originX
+	 *            X coordinate of the lower left map corner, "origin" in map_server yaml file
+	 * @param originY
+	 *            Y coordinate of the lower left map corner, "origin" in map_server yaml file
+	 * @return Loaded grid
+	 */
+	public static OccupancyGrid fromPgm(Path file, double resolution, double originX, double originY)
+			throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+			if (!"P5".equals(readPgmToken(buffer))) {
+				throw new IOException("Not a binary PGM image: " + file);
+			}
+			int width = Integer.parseInt(readPgmToken(buffer));
+			int height = Integer.parseInt(readPgmToken(buffer));
+			int maxValue = Integer.parseInt(readPgmToken(buffer));
+			// Single white-space separates header from the pixels
+			buffer.get();
+
+			int bytesPerPixel = maxValue < 256 ? 1 : 2;
+			if (buffer.remaining() < (long) width * height * bytesPerPixel) {
+				throw new IOException("Truncated PGM image: " + file);
+			}
+
+			OccupancyGrid grid = new OccupancyGrid(resolution, originX, originY, width, height);
+			int freeAbove = (int) Math.floor((1 - FREE_THRESH) * maxValue);
+			for (int row = 0; row < height; ++row) {
+				int cy = height - 1 - row;
+				for (int cx = 0; cx < width; ++cx) {
+					int value = bytesPerPixel == 1 ? buffer.get() & 0xff : buffer.getShort() & 0xffff;
+					if (value > freeAbove) {
+						grid.setFree(cx, cy, true);
+					}
+				}
+			}
+			return grid;
+		}
+	}
+
+	/**
+	 * Reads white-space separated PGM header token, skips comments
+	 */
+	private static String readPgmToken(MappedByteBuffer buffer) throws IOException {
+		StringBuilder token = new StringBuilder();
+		while (buffer.hasRemaining()) {
+			char c = (char) buffer.get(buffer.position());
+			if (c == '#' && token.length() == 0) {
+				while (buffer.hasRemaining() && buffer.get() != '\n') {
+					// Skip comment
+				}
+			} else if (Character.isWhitespace(c)) {
+				if (token.length() > 0) {
+					return token.toString();
+				}
+				buffer.get();
+			} else {
+				token.append(c);
+				buffer.get();
+			}
+		}
+		throw new IOException("Unexpected end of PGM header");
+	}
+
+	/**
+	 * Creates approximation of the "corridor" map used by the Stage simulation
+	 */
+	public static OccupancyGrid corridor() {
+		return fromAreas(DEFAULT_RESOLUTION_M, CORRIDOR_FREE_SPACE);
+	}
+
+	/**
+	 * Creates copy of the grid with free space shrunk by the given radius
+	 *
+	 * Cell in the result is free only when all cells within radius are free in this grid. This is the configuration
+	 * space of a circular robot with such radius.
+	 *
+	 * @param radius
+	 *            Inflation radius in meters
+	 * @return Inflated grid
+	 */
+	public OccupancyGrid inflate(double radius) {
+		int r = (int) Math.ceil(radius / resolution);
+		OccupancyGrid inflated = new OccupancyGrid(resolution, originX, originY, width, height);
+		for (int cy = 0; cy < height; ++cy) {
+			for (int cx = 0; cx < width; ++cx) {
+				if (!isFree(cx, cy)) {
+					continue;
+				}
+				boolean clear = true;
+				for (int dy = -r; dy <= r && clear; ++dy) {
+					for (int dx = -r; dx <= r && clear; ++dx) {
+						if (dx * dx + dy * dy <= r * r && !isFree(cx + dx, cy + dy)) {
+							clear = false;
+						}
+					}
+				}
+				inflated.setFree(cx, cy, clear);
+			}
+		}
+		return inflated;
+	}
+
+	public double getResolution() {
+		return resolution;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int toCellX(double x) {
+		return (int) Math.floor((x - originX) / resolution);
+	}
+
+	public int toCellY(double y) {
+		return (int) Math.floor((y - originY) / resolution);
+	}
+
+	public double cellCenterX(int cx) {
+		return originX + (cx + 0.5) * resolution;
+	}
+
+	public double cellCenterY(int cy) {
+		return originY + (cy + 0.5) * resolution;
+	}
+
+	public boolean contains(int cx, int cy) {
+		return cx >= 0 && cy >= 0 && cx < width && cy < height;
+	}
+
+	/**
+	 * Cells outside the map are considered occupied
+	 */
+	public boolean isFree(int cx, int cy) {
+		return contains(cx, cy) && free.get(cy * width + cx);
+	}
+
+	public boolean isFreeAt(double x, double y) {
+		return isFree(toCellX(x), toCellY(y));
+	}
+
+	public void setFree(int cx, int cy, boolean value) {
+		free.set(cy * width + cx, value);
+	}
+
+	/**
+	 * Number of free cells
+	 */
+	public int countFree() {
+		return free.cardinality();
+	}
+}
@@ -0,0 +1,175 @@
+package cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import cz.cuni.mff.d3s.jdeeco.position.Position;
+
+/**
+ * Position generator backed by occupancy grid map
+ *
+ * Positions are generated uniformly from the free cells of the map, optionally clipped to the given areas. Only cells
+ * of the largest connected free region are used, so the positions are reachable from each other. Pass map inflated by
+ * robot radius to get positions the robot can actually reach.
+ *
+ * Free cells are grouped into horizontal runs. Runs are selected by an alias table weighted by run length, so each
+ * position is generated in constant time regardless of the map size.
+ *
+ */
+public class OccupancyPositionGenerator extends PositionSource {
+	private static final long serialVersionUID = 1L;
+
+	private final OccupancyGrid grid;
+
+	/**
+	 * Runs of free cells, row, first column and length of each run
+	 */
+	private final int[] runRow, runStart, runLength;
+	private final AliasTable runTable;
+
+	/**
+	 * Constructs position generator
+	 * 
+	 * @param random
+	 *            Random data source
+	 * @param grid
+	 *            Map of the environment
+	 * @param clip
+	 *            Areas to generate positions in, whole map is used when none is given
+	 */
+	public OccupancyPositionGenerator(Random random, OccupancyGrid grid, PositionGenerator.Area... clip) {
+		super(random);
+		this.grid = grid;
+
+		BitSet reachable = largestRegion(grid);
+		List<int[]> runs = new ArrayList<>();
+		for (int cy = 0; cy < grid.getHeight(); ++cy) {
+			int start = -1;
+			for (int cx = 0; cx <= grid.getWidth(); ++cx) {
+				boolean usable = cx < grid.getWidth() && reachable.get(cy * grid.getWidth() + cx)
+						&& inClip(grid.cellCenterX(cx), grid.cellCenterY(cy), clip);
+				if (usable && start < 0) {
+					start = cx;
+				} else if (!usable && start >= 0) {
+					runs.add(new int[] { cy, start, cx - start });
+					start = -1;
+				}
+			}
+		}
+		if (runs.isEmpty()) {
+			throw new RuntimeException("No free cells to generate positions in");
+		}
+
+		runRow = new int[runs.size()];
+		runStart = new int[runs.size()];
+		runLength = new int[runs.size()];
+		double[] weights = new double[runs.size()];
+		for (int i = 0; i < runs.size(); ++i) {
+			runRow[i] = runs.get(i)[0];
+			runStart[i] = runs.get(i)[1];
+			runLength[i] = runs.get(i)[2];
+			weights[i] = runLength[i];
+		}
+		runTable = new AliasTable(weights);
+	}
+
+	@Override
+	public Position getRandomPosition() {
+		int run = runTable.sample(getRandom());
+		return new CompactPosition(randomX(run), randomY(run));
+	}
+
+	/**
+	 * Generates many random positions at once
+	 * 
+	 * @param xs
+	 *            Receives x coordinates
+	 * @param ys
+	 *            Receives y coordinates, needs to have the same length as xs
+	 */
+	public void fill(double[] xs, double[] ys) {
+		if (xs.length != ys.length) {
+			throw new RuntimeException(String.format("Coordinate arrays differ in length: %d, %d", xs.length, ys.length));
+		}
+		for (int i = 0; i < xs.length; ++i) {
+			int run = runTable.sample(getRandom());
+			xs[i] = randomX(run);
+			ys[i] = randomY(run);
+		}
+	}
+
+	private double randomX(int run) {
+		double left = grid.cellCenterX(runStart[run]) - grid.getResolution() / 2;
+		return left + runLength[run] * grid.getResolution() * getRandom().nextDouble();
+	}
+
+	private double randomY(int run) {
+		double bottom = grid.cellCenterY(runRow[run]) - grid.getResolution() / 2;
+		return bottom + grid.getResolution() * getRandom().nextDouble();
+	}
+
+	private static boolean inClip(double x, double y, PositionGenerator.Area[] clip) {
+		if (clip.length == 0) {
+			return true;
+		}
+		for (PositionGenerator.Area a : clip) {
+			if (x >= a.left && x <= a.right && y >= a.top && y <= a.bottom) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Finds largest 4-connected region of free cells
+	 * 
+	 * @return Cells of the region indexed by cy * width + cx
+	 */
+	static BitSet largestRegion(OccupancyGrid grid) {
+		int width = grid.getWidth();
+		int height = grid.getHeight();
+		BitSet visited = new BitSet(width * height);
+		BitSet largest = new BitSet();
+		int largestSize = 0;
+		int[] queue = new int[width * height];
+
+		for (int seed = 0; seed < width * height; ++seed) {
+			if (visited.get(seed) || !grid.isFree(seed % width, seed / width)) {
+				continue;
+			}
+
+			// Breadth first search from the seed, queue holds the region once finished
+			int head = 0, tail = 0;
+			queue[tail++] = seed;
+			visited.set(seed);
+			while (head < tail) {
+				int cell = queue[head++];
+				int cx = cell % width, cy = cell / width;
+				tail = visit(grid, visited, queue, tail, cx + 1, cy);
+				tail = visit(grid, visited, queue, tail, cx - 1, cy);
+				tail = visit(grid, visited, queue, tail, cx, cy + 1);
+				tail = visit(grid, visited, queue, tail, cx, cy - 1);
+			}
+
+			if (tail > largestSize) {
+				largestSize = tail;
+				largest = new BitSet(width * height);
+				for (int i = 0; i < tail; ++i) {
+					largest.set(queue[i]);
+				}
+			}
+		}
+		return largest;
+	}
+
+	private static int visit(OccupancyGrid grid, BitSet visited, int[] queue, int tail, int cx, int cy) {
+		int cell = cy * grid.getWidth() + cx;
+		if (grid.isFree(cx, cy) && !visited.get(cell)) {
+			visited.set(cell);
+			queue[tail++] = cell;
+		}
+		return tail;
+	}
+}
@@ -0,0 +1,104 @@
+package cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.AbstractList;
+import java.util.List;
+
+import cz.cuni.mff.d3s.jdeeco.position.Position;
+
+/**
+ * Small immutable list of goals offered to idle robots
+ *
+ * Loaded robot publishes its offer with every knowledge broadcast, so the offer holds at most
+ * WorkStealingEnsemble.OFFER_SIZE goals as fixed-point coordinates of {@link PositionCodec}. Offered goals are
+ * therefore rounded to centimeters, which keeps them the same positions as the goals in the route of the robot.
+ *
+ * Serialized form is delta encoded by {@link PositionCodec}, empty offer takes a single byte of data.
+ *
+ */
+public class OfferedGoals extends AbstractList<Position> implements Externalizable {
+	private static final long serialVersionUID = 1L;
+
+	private int[] xs;
+	private int[] ys;
+
+	/**
+	 * Creates empty offer, also used by deserialization
+	 */
+	public OfferedGoals() {
+		xs = new int[0];
+		ys = new int[0];
+	}
+
+	/**
+	 * Creates offer of goals
+	 *
+	 * @param goals
+	 *            Offered goals, at most WorkStealingEnsemble.OFFER_SIZE
+	 */
+	public OfferedGoals(List<Position> goals) {
+		if (goals.size() > WorkStealingEnsemble.OFFER_SIZE) {
+			throw new IllegalArgumentException("Too many offered goals: " + goals.size());
+		}
+		xs = new int[goals.size()];
+		ys = new int[goals.size()];
+		for (int i = 0; i < goals.size(); ++i) {
+			xs[i] = PositionCodec.toFixed(goals.get(i).x);
+			ys[i] = PositionCodec.toFixed(goals.get(i).y);
+		}
+	}
+
+	@Override
+	public Position get(int index) {
+		return new CompactPosition(PositionCodec.fromFixed(xs[index]), PositionCodec.fromFixed(ys[index]));
+	}
+
+	@Override
+	public int size() {
+		return xs.length;
+	}
+
+	@Override
+	public void writeExternal(ObjectOutput out) throws IOException {
+		write(out);
+	}
+
+	@Override
+	public void readExternal(ObjectInput in) throws IOException {
+		read(in);
+	}
+
+	/**
+	 * Writes compact form of the offer
+	 */
+	void write(DataOutput out) throws IOException {
+		double[] x = new double[xs.length];
+		double[] y = new double[ys.length];
+		for (int i = 0; i < xs.length; ++i) {
+			x[i] = PositionCodec.fromFixed(xs[i]);
+			y[i] = PositionCodec.fromFixed(ys[i]);
+		}
+		PositionCodec.writeDeltas(out, x, y, xs.length);
+	}
+
+	/**
+	 * Reads compact form written by write, replaces the current content
+	 */
+	void read(DataInput in) throws IOException {
+		double[][] positions = PositionCodec.readDeltas(in);
+		if (positions[0].length > WorkStealingEnsemble.OFFER_SIZE) {
+			throw new IOException("Too many offered goals: " + positions[0].length);
+		}
+		xs = new int[positions[0].length];
+		ys = new int[positions[1].length];
+		for (int i = 0; i < xs.length; ++i) {
+			xs[i] = PositionCodec.toFixed(positions[0][i]);
+			ys[i] = PositionCodec.toFixed(positions[1][i]);
+		}
+	}
+}
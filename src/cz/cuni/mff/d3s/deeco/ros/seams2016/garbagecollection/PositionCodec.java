@@ -0,0 +1,154 @@
+package cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Compact binary encoding of positions
+ *
+ * Coordinates are encoded as unsigned 16-bit fixed-point numbers with centimeter resolution relative to MAP_ORIGIN_M,
+ * which covers the maps used in the experiments with plenty of margin. Coordinates outside the range are clamped. The z
+ * coordinate is dropped as the robots move in plane.
+ *
+ * Rounding error is at most half a centimeter per axis, so encoded position is always closer than
+ * CleanerRobot.SAME_POS_THRESH_M to the original and both are still considered the same position. Encoding is
+ * idempotent, encoding decoded position gives the same bytes.
+ *
+ * Collections of positions are delta encoded, each position is stored as zig-zag varint difference to the previous
+ * one. Garbage locations and adopted destinations tend to be close to each other, so most deltas take two bytes.
+ *
+ */
+public class PositionCodec {
+	/**
+	 * Coordinate represented by fixed-point zero
+	 */
+	static final double MAP_ORIGIN_M = -10.0;
+
+	/**
+	 * Fixed-point units per meter, one unit is one centimeter
+	 */
+	static final double UNITS_PER_M = 100;
+
+	private static final int MAX_FIXED = 0xffff;
+
+	/**
+	 * Converts coordinate to fixed-point representation
+	 */
+	public static int toFixed(double coordinate) {
+		long fixed = Math.round((coordinate - MAP_ORIGIN_M) * UNITS_PER_M);
+		return (int) Math.max(0, Math.min(MAX_FIXED, fixed));
+	}
+
+	/**
+	 * Converts fixed-point representation back to coordinate
+	 */
+	public static double fromFixed(int fixed) {
+		return MAP_ORIGIN_M + fixed / UNITS_PER_M;
+	}
+
+	/**
+	 * Rounds coordinate to the precision of the encoding
+	 */
+	public static double quantize(double coordinate) {
+		return fromFixed(toFixed(coordinate));
+	}
+
+	/**
+	 * Writes single position as two 16-bit values
+	 */
+	public static void writePosition(DataOutput out, double x, double y) throws IOException {
+		out.writeShort(toFixed(x));
+		out.writeShort(toFixed(y));
+	}
+
+	/**
+	 * Reads single position written by writePosition
+	 *
+	 * @return Array {x, y}
+	 */
+	public static double[] readPosition(DataInput in) throws IOException {
+		return new double[] { fromFixed(in.readUnsignedShort()), fromFixed(in.readUnsignedShort()) };
+	}
+
+	/**
+	 * Writes sequence of positions using delta encoding
+	 *
+	 * @param out
+	 *            Output
+	 * @param xs
+	 *            X coordinates
+	 * @param ys
+	 *            Y coordinates
+	 * @param count
+	 *            Number of positions to write
+	 */
+	public static void writeDeltas(DataOutput out, double[] xs, double[] ys, int count) throws IOException {
+		writeVarLong(out, count);
+		int lastX = 0, lastY = 0;
+		for (int i = 0; i < count; ++i) {
+			int x = toFixed(xs[i]);
+			int y = toFixed(ys[i]);
+			writeVarLong(out, zigZag(x - lastX));
+			writeVarLong(out, zigZag(y - lastY));
+			lastX = x;
+			lastY = y;
+		}
+	}
+
+	/**
+	 * Reads sequence of positions written by writeDeltas
+	 *
+	 * @return Array {xs, ys}
+	 */
+	public static double[][] readDeltas(DataInput in) throws IOException {
+		int count = (int) readVarLong(in);
+		double[] xs = new double[count];
+		double[] ys = new double[count];
+		int x = 0, y = 0;
+		for (int i = 0; i < count; ++i) {
+			x += unZigZag(readVarLong(in));
+			y += unZigZag(readVarLong(in));
+			xs[i] = fromFixed(x);
+			ys[i] = fromFixed(y);
+		}
+		return new double[][] { xs, ys };
+	}
+
+	/**
+	 * Writes non-negative number using 7 bits per byte
+	 */
+	public static void writeVarLong(DataOutput out, long value) throws IOException {
+		while ((value & ~0x7fL) != 0) {
+			out.writeByte((int) ((value & 0x7f) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	/**
+	 * Reads number written by writeVarLong
+	 */
+	public static long readVarLong(DataInput in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (long) (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint");
+	}
+
+	/**
+	 * Maps signed number to non-negative one so that small magnitudes stay small
+	 */
+	public static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	public static long unZigZag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+}
@@ -1,7 +1,8 @@
 package cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection;
 
+import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
 
@@ -16,14 +17,18 @@ import cz.cuni.mff.d3s.jdeeco.position.Position;
  * @author Vladimir Matena <matena@d3s.mff.cuni.cz>
  *
  */
-public class PositionGenerator {
+public class PositionGenerator extends PositionSource {
+	private static final long serialVersionUID = 1L;
+
 	/**
 	 * Holds information about rectangular area
 	 * 
 	 * @author Vladimir Matena <matena@d3s.mff.cuni.cz>
 	 *
 	 */
-	static class Area {
+	static class Area implements Serializable {
+		private static final long serialVersionUID = 1L;
+
 		protected double left, right, top, bottom;
 
 		Area(double left, double right, double top, double bottom) {
@@ -47,8 +52,7 @@ public class PositionGenerator {
 		}
 	}
 
-	private List<Area> areas = new LinkedList<>();
-	private Random random;
+	private List<Area> areas = new ArrayList<>();
 
 	/**
 	 * Constructs position generator
@@ -59,7 +63,7 @@ public class PositionGenerator {
 	 *            Initial areas used to generate locations from
 	 */
 	public PositionGenerator(Random random, Area... areas) {
-		this.random = random;
+		super(random);
 		this.areas.addAll(Arrays.asList(areas));
 	}
 
@@ -80,11 +84,12 @@ public class PositionGenerator {
 	 * 
 	 * @return Random location
 	 */
+	@Override
 	public Position getRandomPosition() {
 		Area area = getRandomArea();
 		double x = boundedRandom(area.left, area.right);
 		double y = boundedRandom(area.top, area.bottom);
-		return new Position(x, y);
+		return new CompactPosition(x, y);
 	}
 
 	/**
@@ -97,7 +102,7 @@ public class PositionGenerator {
 	 * @return Random number as double
 	 */
 	private double boundedRandom(double from, double to) {
-		return from + (to - from) * random.nextDouble();
+		return from + (to - from) * getRandom().nextDouble();
 	}
 
 	/**
@@ -115,7 +120,7 @@ public class PositionGenerator {
 		}
 
 		// Get random part of the surface
-		double randomSurface = random.nextDouble() * totalSurfeace;
+		double randomSurface = getRandom().nextDouble() * totalSurfeace;
 
 		// Get area for random surface
 		for (Area a : areas) {
@@ -124,7 +129,7 @@ public class PositionGenerator {
 			}
 			randomSurface -= a.getSurfeceArea();
 		}
-		return areas.listIterator().next();
+		return areas.get(0);
 	}
 
 }
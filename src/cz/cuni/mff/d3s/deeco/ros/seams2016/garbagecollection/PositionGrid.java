@@ -0,0 +1,107 @@
+package cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import cz.cuni.mff.d3s.jdeeco.position.Position;
+
+/**
+ * Uniform grid spatial index of positions
+ *
+ * Values are stored in square cells keyed by quantized x and y coordinates. Lookup of values near a position visits only
+ * the cells overlapping the search radius, which makes it O(1) expected when the cell size is close to the radius.
+ *
+ * The grid returns candidates only, callers are expected to check the exact distance themselves. Every value within the
+ * radius (in x-y plane) is guaranteed to be among the candidates, so such check gives the same answer as a full scan.
+ *
+ * The grid is safe for concurrent use. It is optimized for frequent lookups and rare modifications.
+ *
+ * @param <T>
+ *            Type of the indexed values
+ */
+public class PositionGrid<T> {
+	private final double cellSize;
+	private final Map<Long, List<T>> cells = new ConcurrentHashMap<>();
+
+	/**
+	 * Constructs empty grid
+	 *
+	 * @param cellSize
+	 *            Cell edge length in meters
+	 */
+	public PositionGrid(double cellSize) {
+		if (cellSize <= 0) {
+			throw new RuntimeException("Invalid grid cell size: " + cellSize);
+		}
+		this.cellSize = cellSize;
+	}
+
+	public double getCellSize() {
+		return cellSize;
+	}
+
+	/**
+	 * Adds value at position
+	 */
+	public void add(Position position, T value) {
+		cells.computeIfAbsent(key(cell(position.x), cell(position.y)), k -> new CopyOnWriteArrayList<>()).add(value);
+	}
+
+	/**
+	 * Removes value previously added at position
+	 *
+	 * @return Whenever the value was present
+	 */
+	public boolean remove(Position position, T value) {
+		List<T> cell = cells.get(key(cell(position.x), cell(position.y)));
+		return cell != null && cell.remove(value);
+	}
+
+	/**
+	 * Removes all values
+	 */
+	public void clear() {
+		cells.clear();
+	}
+
+	/**
+	 * Passes all values that can be within radius from the position to the consumer
+	 *
+	 * @param position
+	 *            Center of the search
+	 * @param radius
+	 *            Search radius in meters
+	 * @param consumer
+	 *            Receives candidate values
+	 */
+	public void forEachCandidate(Position position, double radius, Consumer<T> consumer) {
+		forEachCandidate(position.x, position.y, radius, consumer);
+	}
+
+	/**
+	 * Passes all values that can be within radius from the point to the consumer
+	 */
+	public void forEachCandidate(double x, double y, double radius, Consumer<T> consumer) {
+		long minX = cell(x - radius), maxX = cell(x + radius);
+		long minY = cell(y - radius), maxY = cell(y + radius);
+		for (long cy = minY; cy <= maxY; ++cy) {
+			for (long cx = minX; cx <= maxX; ++cx) {
+				List<T> cell = cells.get(key(cx, cy));
+				if (cell != null) {
+					cell.forEach(consumer);
+				}
+			}
+		}
+	}
+
+	private long cell(double coordinate) {
+		return (long) Math.floor(coordinate / cellSize);
+	}
+
+	private static long key(long cx, long cy) {
+		return (cx << 32) ^ (cy & 0xffffffffL);
+	}
+}
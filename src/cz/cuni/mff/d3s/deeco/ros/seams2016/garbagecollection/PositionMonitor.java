@@ -3,8 +3,12 @@ package cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection;
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
 
 import cz.cuni.mff.d3s.deeco.timer.CurrentTimeProvider;
 import cz.cuni.mff.d3s.jdeeco.position.Position;
@@ -25,6 +29,11 @@ import cz.cuni.mff.d3s.jdeeco.position.Position;
  * [[8.5m, 12.0m, 0.0m], initialOwner: Collector0, reachedBy: Collector2, time: 164000 ms]
  * [[20.8m, 11.7m, 0.0m], initialOwner: Collector1, reachedBy: Collector1, time: 51500 ms]
  * 
+ * Final statistics are written at the end of the run. In addition, reach and reassignment events can be streamed to a
+ * file as they happen (see {@link #startStreaming(String)}), so that a crashed run still leaves its results. Live
+ * aggregates (goals per minute, latency from assignment to reach, reassignment count) can be queried at any time using
+ * {@link #getLiveStats()}.
+ * 
  * @author Vladimir Matena <matena@d3s.mff.cuni.cz>
  *
  */
@@ -41,6 +50,12 @@ public class PositionMonitor {
 		public String reachedBy;
 		public long reachedAtMs;
 
+		/**
+		 * Robot currently responsible for the position and since when
+		 */
+		public String assignedTo;
+		public long assignedAtMs;
+
 		public PositionInfo(Position position, String initalOwner) {
 			this.position = position;
 			this.initialOwner = initalOwner;
@@ -57,14 +72,26 @@ public class PositionMonitor {
 		 *            Who reached the position
 		 * @param reachedAtMs
 		 *            When the position was reached
+		 * @return Whenever the position was reached for the first time
 		 */
-		public void reached(String reachedBy, long reachedAtMs) {
+		public synchronized boolean reached(String reachedBy, long reachedAtMs) {
 			if (isReached()) {
-				System.out.println("Position reached again!!!");
-				return;
+				if (EventLog.isEnabled(EventLog.Kind.GoalReachedAgain)) {
+					EventLog.log(EventLog.Kind.GoalReachedAgain, reachedAtMs, reachedBy, position, null, this.reachedBy);
+				}
+				return false;
 			}
 			this.reachedBy = reachedBy;
 			this.reachedAtMs = reachedAtMs;
+			return true;
+		}
+
+		/**
+		 * Reports position as assigned to another robot
+		 */
+		public synchronized void reassigned(String assignedTo, long assignedAtMs) {
+			this.assignedTo = assignedTo;
+			this.assignedAtMs = assignedAtMs;
 		}
 
 		@Override
@@ -74,13 +101,80 @@ public class PositionMonitor {
 		}
 	}
 
-	private Collection<PositionInfo> positions = new HashSet<>();
+	private Collection<PositionInfo> positions = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Spatial index of positions used to find reached positions
+	 * 
+	 * Cells are as large as the distance at which positions are considered equal, so only neighboring cells need to be
+	 * checked.
+	 */
+	private final PositionGrid<PositionInfo> index = new PositionGrid<>(CleanerRobot.SAME_POS_THRESH_M);
 
 	/**
 	 * Time provider used for time-stamps
 	 */
 	private final CurrentTimeProvider clock;
 
+	/**
+	 * Live statistics snapshot
+	 */
+	public static class LiveStats {
+		public final long timeMs;
+		public final int total;
+		public final int reached;
+		public final int goalsLastMinute;
+		public final long reassignments;
+		/**
+		 * Assignment-to-reach latency percentiles within 12.5 %, -1 when no goal was reached yet
+		 */
+		public final long latencyP50Ms, latencyP90Ms, latencyP99Ms;
+
+		LiveStats(long timeMs, int total, int reached, int goalsLastMinute, long reassignments, long latencyP50Ms,
+				long latencyP90Ms, long latencyP99Ms) {
+			this.timeMs = timeMs;
+			this.total = total;
+			this.reached = reached;
+			this.goalsLastMinute = goalsLastMinute;
+			this.reassignments = reassignments;
+			this.latencyP50Ms = latencyP50Ms;
+			this.latencyP90Ms = latencyP90Ms;
+			this.latencyP99Ms = latencyP99Ms;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(
+					"time: %d ms, reached: %d/%d, goals/minute: %d, reassignments: %d, latency p50/p90/p99: %d/%d/%d ms",
+					timeMs, reached, total, goalsLastMinute, reassignments, latencyP50Ms, latencyP90Ms, latencyP99Ms);
+		}
+	}
+
+	/**
+	 * Length of the window used to compute goals per minute
+	 */
+	static final long THROUGHPUT_WINDOW_MS = 60000;
+
+	/**
+	 * How often the streamed events are flushed to the file
+	 */
+	static final long FLUSH_PERIOD_MS = 1000;
+
+	/**
+	 * Reach times within the throughput window and histogram of assignment-to-reach latencies, guarded by statsLock
+	 */
+	private final Object statsLock = new Object();
+	private final ArrayDeque<Long> recentReaches = new ArrayDeque<>();
+	private final TaskMetrics.Histogram latencies = new TaskMetrics.Histogram();
+	private long latencyCount = 0;
+	private final LongAdder reassignments = new LongAdder();
+
+	/**
+	 * Stream of events, writes are guarded by the writer itself
+	 */
+	private volatile Writer stream;
+	private Thread flusher;
+
 	public PositionMonitor(CurrentTimeProvider clock) {
 		this.clock = clock;
 	}
@@ -103,17 +197,161 @@ public class PositionMonitor {
 	/**
 	 * Reports goal reached by robot
 	 * 
+	 * Safe to be called concurrently by multiple robots.
+	 * 
 	 * @param position
 	 *            Reached position
 	 * @param reachedBy
 	 *            Robot identification
 	 */
 	public void reportReached(Position position, String reachedBy) {
-		for (PositionInfo posInfo : positions) {
-			if (posInfo.position.euclidDistanceTo(position) < CleanerRobot.SAME_POS_THRESH_M) {
-				posInfo.reached(reachedBy, clock.getCurrentMilliseconds());
+		index.forEachCandidate(position, CleanerRobot.SAME_POS_THRESH_M, posInfo -> {
+			long now = clock.getCurrentMilliseconds();
+			if (posInfo.position.euclidDistanceTo(position) < CleanerRobot.SAME_POS_THRESH_M
+					&& posInfo.reached(reachedBy, now)) {
+				long latency;
+				synchronized (posInfo) {
+					latency = now - posInfo.assignedAtMs;
+				}
+				synchronized (statsLock) {
+					recentReaches.addLast(now);
+					trimRecent(now);
+					latencies.record(latency);
+					latencyCount++;
+				}
+				if (stream != null) {
+					stream(String.format("%d reached %s %s %.2f %.2f %d", now, reachedBy, posInfo.initialOwner,
+							posInfo.position.x, posInfo.position.y, latency));
+				}
+			}
+		});
+	}
+
+	/**
+	 * Reports goal assigned to another robot
+	 * 
+	 * Latency of the goal is then measured from this time. Safe to be called concurrently by multiple robots.
+	 * 
+	 * @param position
+	 *            Reassigned position
+	 * @param assignedTo
+	 *            Robot now responsible for the position
+	 */
+	public void reportReassigned(Position position, String assignedTo) {
+		index.forEachCandidate(position, CleanerRobot.SAME_POS_THRESH_M, posInfo -> {
+			if (posInfo.position.euclidDistanceTo(position) < CleanerRobot.SAME_POS_THRESH_M && !posInfo.isReached()) {
+				long now = clock.getCurrentMilliseconds();
+				posInfo.reassigned(assignedTo, now);
+				reassignments.increment();
+				if (stream != null) {
+					stream(String.format("%d reassigned %s %s %.2f %.2f", now, assignedTo, posInfo.initialOwner,
+							posInfo.position.x, posInfo.position.y));
+				}
+			}
+		});
+	}
+
+	/**
+	 * Gets live statistics
+	 * 
+	 * Safe to be called while the simulation runs.
+	 */
+	public LiveStats getLiveStats() {
+		long now = clock.getCurrentMilliseconds();
+		int total = 0, reached = 0;
+		for (PositionInfo info : positions) {
+			total++;
+			if (info.isReached()) {
+				reached++;
 			}
 		}
+
+		int lastMinute;
+		long p50 = -1, p90 = -1, p99 = -1;
+		synchronized (statsLock) {
+			trimRecent(now);
+			lastMinute = recentReaches.size();
+			if (latencyCount > 0) {
+				p50 = latencies.percentile(50);
+				p90 = latencies.percentile(90);
+				p99 = latencies.percentile(99);
+			}
+		}
+
+		return new LiveStats(now, total, reached, lastMinute, reassignments.sum(), p50, p90, p99);
+	}
+
+	private void trimRecent(long now) {
+		while (!recentReaches.isEmpty() && now - recentReaches.peekFirst() >= THROUGHPUT_WINDOW_MS) {
+			recentReaches.removeFirst();
+		}
+	}
+
+	/**
+	 * Starts appending reach and reassignment events to file
+	 * 
+	 * Each event is written as line "time reached robot initialOwner x y latency" or
+	 * "time reassigned robot initialOwner x y". The file is flushed every FLUSH_PERIOD_MS by a background thread.
+	 */
+	public synchronized void startStreaming(String filename) throws IOException {
+		if (stream != null) {
+			throw new IllegalStateException("Streaming already started");
+		}
+		Writer writer = new BufferedWriter(new FileWriter(filename, true));
+		stream = writer;
+		flusher = new Thread(() -> {
+			try {
+				while (!Thread.currentThread().isInterrupted()) {
+					Thread.sleep(FLUSH_PERIOD_MS);
+					synchronized (writer) {
+						if (stream != writer) {
+							break;
+						}
+						writer.flush();
+					}
+				}
+			} catch (InterruptedException e) {
+				// Stopped
+			} catch (IOException e) {
+				System.err.println("Position monitor flush failed: " + e);
+			}
+		}, "PositionMonitor flusher");
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+	/**
+	 * Stops streaming and closes the file
+	 */
+	public synchronized void stopStreaming() throws IOException {
+		Writer writer = stream;
+		stream = null;
+		if (writer == null) {
+			return;
+		}
+		flusher.interrupt();
+		synchronized (writer) {
+			writer.close();
+		}
+	}
+
+	private void stream(String line) {
+		Writer writer = stream;
+		if (writer == null) {
+			return;
+		}
+		try {
+			synchronized (writer) {
+				// Streaming might have been stopped meanwhile
+				if (stream != writer) {
+					return;
+				}
+				writer.write(line);
+				writer.write(System.lineSeparator());
+			}
+		} catch (IOException e) {
+			System.err.println("Position monitor stream failed: " + e);
+		}
 	}
 
 	/**
@@ -144,6 +382,20 @@ public class PositionMonitor {
 		out.close();
 	}
 
+	/**
+	 * Writes final statistics to binary columnar file
+	 * 
+	 * See {@link ResultsFile} for the format.
+	 * 
+	 * @param filename
+	 *            Output file
+	 * @param config
+	 *            Description of the run configuration stored in the file header
+	 */
+	public void writeColumnarFile(String filename, String config) throws IOException {
+		ResultsFile.write(Paths.get(filename), config, positions);
+	}
+
 	/**
 	 * Add garbage location to monitored locations
 	 * 
@@ -153,6 +405,10 @@ public class PositionMonitor {
 	 *            Initially assigned robot
 	 */
 	public void addPosition(Position position, String owner) {
-		positions.add(new PositionInfo(position, owner));
+		PositionInfo info = new PositionInfo(position, owner);
+		info.assignedTo = owner;
+		info.assignedAtMs = clock.getCurrentMilliseconds();
+		positions.add(info);
+		index.add(position, info);
 	}
 }
@@ -0,0 +1,50 @@
+package cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection;
+
+import java.io.Serializable;
+import java.util.Random;
+
+import cz.cuni.mff.d3s.jdeeco.position.Position;
+
+/**
+ * Source of random reachable positions
+ *
+ * Robots take their random destinations from a position source. {@link PositionGenerator} picks positions in
+ * rectangular areas, {@link OccupancyPositionGenerator} in the free cells of a map.
+ *
+ * All randomness comes from the random data source of the position source, so {@link DecisionLog} can capture and
+ * restore it.
+ *
+ */
+public abstract class PositionSource implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private Random random;
+
+	/**
+	 * @param random
+	 *            Random data source
+	 */
+	protected PositionSource(Random random) {
+		this.random = random;
+	}
+
+	/**
+	 * Generates random position
+	 *
+	 * @return Random location
+	 */
+	public abstract Position getRandomPosition();
+
+	/**
+	 * Gets random data source
+	 * 
+	 * Used by {@link DecisionLog} to capture and restore the state of the source.
+	 */
+	Random getRandom() {
+		return random;
+	}
+
+	void setRandom(Random random) {
+		this.random = random;
+	}
+}
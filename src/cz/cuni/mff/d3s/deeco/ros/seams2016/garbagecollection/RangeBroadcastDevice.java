@@ -0,0 +1,290 @@
+package cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import cz.cuni.mff.d3s.deeco.runtime.DEECoContainer;
+import cz.cuni.mff.d3s.deeco.runtime.DEECoPlugin;
+import cz.cuni.mff.d3s.deeco.timer.Timer;
+import cz.cuni.mff.d3s.jdeeco.network.Network;
+import cz.cuni.mff.d3s.jdeeco.network.address.Address;
+import cz.cuni.mff.d3s.jdeeco.network.address.MANETBroadcastAddress;
+import cz.cuni.mff.d3s.jdeeco.network.device.Device;
+import cz.cuni.mff.d3s.jdeeco.network.l1.Layer1;
+import cz.cuni.mff.d3s.jdeeco.network.l1.ReceivedInfo;
+import cz.cuni.mff.d3s.jdeeco.position.Position;
+import cz.cuni.mff.d3s.jdeeco.position.PositionPlugin;
+import cz.cuni.mff.d3s.jdeeco.position.PositionProvider;
+
+/**
+ * Fast broadcast device for simulation with limited range, latency and loss
+ *
+ * SimpleBroadcastDevice checks every other node for every broadcast and schedules every delivery as a separate timer
+ * event. This device keeps the nodes in a grid of range sized cells, so a broadcast checks only the nodes in the
+ * neighboring cells. Time is divided into ticks: broadcasts sent during a tick are processed together at its end and
+ * deliveries are grouped by the tick they are due in, so there is at most one timer event per tick.
+ *
+ * Node positions are read from their PositionPlugin and the grid is rebuilt at most every POSITION_REFRESH_MS, nodes
+ * moving in between are placed by their last known position.
+ *
+ * Delivery takes the delay plus uniformly distributed jitter, rounded up to whole ticks. Each delivery is lost with the
+ * given probability. Losses and jitter are drawn from a seeded source, so the simulation stays deterministic.
+ *
+ * Single instance is shared by all nodes, pass the same instance to DEECoSimulation.addPlugin.
+ *
+ */
+public class RangeBroadcastDevice implements DEECoPlugin {
+	/**
+	 * Default range, covers the work stealing range
+	 */
+	public static final double DEFAULT_RANGE_M = 20;
+
+	public static final long DEFAULT_DELAY_MS = 20;
+	public static final long DEFAULT_JITTER_MS = 10;
+	public static final double DEFAULT_LOSS = 0.0;
+	public static final long DEFAULT_TICK_MS = 10;
+
+	/**
+	 * Maximal age of node positions in the grid
+	 */
+	public static long POSITION_REFRESH_MS = 1000;
+
+	/**
+	 * Maximal size of single packet
+	 */
+	public static int PACKET_SIZE = 128;
+
+	/**
+	 * Device of single node
+	 */
+	private class RangeDevice extends Device {
+		final String id;
+		final Layer1 layer1;
+		final PositionProvider position;
+		final DEECoContainer container;
+		double x, y;
+
+		RangeDevice(DEECoContainer container, Layer1 layer1, PositionProvider position) {
+			this.id = String.valueOf(container.getId());
+			this.container = container;
+			this.layer1 = layer1;
+			this.position = position;
+		}
+
+		@Override
+		public String getId() {
+			return id;
+		}
+
+		@Override
+		public int getMTU() {
+			return PACKET_SIZE;
+		}
+
+		@Override
+		public boolean canSend(Address address) {
+			return address instanceof MANETBroadcastAddress;
+		}
+
+		@Override
+		public void send(byte[] data, Address address) {
+			broadcast(this, data);
+		}
+	}
+
+	/**
+	 * Packet waiting for its tick, source is the sender when broadcast and the receiver when delivered
+	 */
+	private static class Packet {
+		final RangeDevice device;
+		final byte[] data;
+
+		Packet(RangeDevice device, byte[] data) {
+			this.device = device;
+			this.data = data;
+		}
+	}
+
+	private final Timer timer;
+	private final double rangeM;
+	private final long delayMs, jitterMs;
+	private final double loss;
+	private final long tickMs;
+	private final Random random;
+
+	private final List<RangeDevice> devices = new ArrayList<>();
+	private final Map<Long, List<RangeDevice>> grid = new HashMap<>();
+	private long gridTime = Long.MIN_VALUE;
+	private boolean gridValid;
+
+	private List<Packet> broadcasts = new ArrayList<>();
+	private final TreeMap<Long, List<Packet>> deliveries = new TreeMap<>();
+	private long nextTick = -1;
+
+	private long sent, delivered, lost;
+
+	/**
+	 * @param timer
+	 *            Simulation timer
+	 * @param rangeM
+	 *            Maximal distance between sender and receiver
+	 * @param delayMs
+	 *            Minimal delivery delay
+	 * @param jitterMs
+	 *            Maximal additional random delay
+	 * @param loss
+	 *            Probability that single delivery is lost
+	 * @param tickMs
+	 *            Length of the tick, deliveries are aligned to ticks
+	 * @param seed
+	 *            Seed of jitter and losses
+	 */
+	public RangeBroadcastDevice(Timer timer, double rangeM, long delayMs, long jitterMs, double loss, long tickMs,
+			long seed) {
+		this.timer = timer;
+		this.rangeM = rangeM;
+		this.delayMs = delayMs;
+		this.jitterMs = jitterMs;
+		this.loss = loss;
+		this.tickMs = tickMs;
+		this.random = new Random(seed);
+	}
+
+	/**
+	 * Creates device with the default range, delay, jitter and no loss
+	 */
+	public RangeBroadcastDevice(Timer timer) {
+		this(timer, DEFAULT_RANGE_M, DEFAULT_DELAY_MS, DEFAULT_JITTER_MS, DEFAULT_LOSS, DEFAULT_TICK_MS, 42);
+	}
+
+	@Override
+	public List<Class<? extends DEECoPlugin>> getDependencies() {
+		return Arrays.asList(Network.class, PositionPlugin.class);
+	}
+
+	@Override
+	public void init(DEECoContainer container) {
+		Layer1 layer1 = container.getPluginInstance(Network.class).getL1();
+		RangeDevice device = new RangeDevice(container, layer1, container.getPluginInstance(PositionPlugin.class));
+		layer1.registerDevice(device);
+		devices.add(device);
+		gridValid = false;
+	}
+
+	/**
+	 * Gets number of broadcasts, deliveries and lost deliveries so far
+	 */
+	public long[] getCounts() {
+		return new long[] { sent, delivered, lost };
+	}
+
+	private void broadcast(RangeDevice source, byte[] data) {
+		sent++;
+		broadcasts.add(new Packet(source, data));
+		long now = timer.getCurrentMilliseconds();
+		schedule((now + tickMs - 1) / tickMs * tickMs, source.container);
+	}
+
+	/**
+	 * Makes sure there is a tick at given time or earlier
+	 */
+	private void schedule(long timeMs, DEECoContainer container) {
+		if (nextTick < 0 || timeMs < nextTick) {
+			nextTick = timeMs;
+			timer.notifyAt(timeMs, this::tick, "RangeBroadcast", container);
+		}
+	}
+
+	/**
+	 * Processes broadcasts of the tick and delivers packets due
+	 */
+	private void tick(long time) {
+		if (time >= nextTick) {
+			nextTick = -1;
+		}
+
+		if (!broadcasts.isEmpty()) {
+			refreshGrid(time);
+			List<Packet> pending = broadcasts;
+			broadcasts = new ArrayList<>();
+			for (Packet packet : pending) {
+				route(packet, time);
+			}
+		}
+
+		// Deliveries may produce new broadcasts, those go to the next tick
+		while (!deliveries.isEmpty() && deliveries.firstKey() <= time) {
+			for (Packet packet : deliveries.pollFirstEntry().getValue()) {
+				delivered++;
+				packet.device.layer1.processL0Packet(packet.data, packet.device,
+						new ReceivedInfo(MANETBroadcastAddress.BROADCAST));
+			}
+		}
+
+		if (!deliveries.isEmpty()) {
+			schedule(deliveries.firstKey(), devices.get(0).container);
+		}
+		if (!broadcasts.isEmpty()) {
+			schedule(time + tickMs, devices.get(0).container);
+		}
+	}
+
+	/**
+	 * Finds receivers of the broadcast in the neighboring cells
+	 */
+	private void route(Packet packet, long time) {
+		RangeDevice source = packet.device;
+		long cellX = cell(source.x), cellY = cell(source.y);
+		for (long cx = cellX - 1; cx <= cellX + 1; ++cx) {
+			for (long cy = cellY - 1; cy <= cellY + 1; ++cy) {
+				List<RangeDevice> candidates = grid.get(key(cx, cy));
+				if (candidates == null) {
+					continue;
+				}
+				for (RangeDevice target : candidates) {
+					if (target == source || Math.hypot(target.x - source.x, target.y - source.y) > rangeM) {
+						continue;
+					}
+					if (loss > 0 && random.nextDouble() < loss) {
+						lost++;
+						continue;
+					}
+					long delay = delayMs + (jitterMs > 0 ? (long) (random.nextDouble() * (jitterMs + 1)) : 0);
+					long due = (time + delay + tickMs - 1) / tickMs * tickMs;
+					deliveries.computeIfAbsent(due, k -> new ArrayList<>()).add(new Packet(target, packet.data));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Rebuilds the grid from current node positions when it is too old
+	 */
+	private void refreshGrid(long time) {
+		if (gridValid && time - gridTime < POSITION_REFRESH_MS) {
+			return;
+		}
+		grid.clear();
+		for (RangeDevice device : devices) {
+			Position position = device.position.getPosition();
+			device.x = position.x;
+			device.y = position.y;
+			grid.computeIfAbsent(key(cell(device.x), cell(device.y)), k -> new ArrayList<>()).add(device);
+		}
+		gridTime = time;
+		gridValid = true;
+	}
+
+	private long cell(double coordinate) {
+		return (long) Math.floor(coordinate / rangeM);
+	}
+
+	private static long key(long x, long y) {
+		return (x << 32) ^ (y & 0xffffffffl);
+	}
+}
@@ -0,0 +1,191 @@
+package cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import cz.cuni.mff.d3s.deeco.knowledge.KnowledgeManager;
+import cz.cuni.mff.d3s.deeco.knowledge.KnowledgeManagerContainer;
+import cz.cuni.mff.d3s.deeco.knowledge.KnowledgeNotFoundException;
+import cz.cuni.mff.d3s.deeco.model.runtime.RuntimeModelHelper;
+import cz.cuni.mff.d3s.deeco.model.runtime.api.KnowledgePath;
+import cz.cuni.mff.d3s.deeco.network.KnowledgeData;
+import cz.cuni.mff.d3s.deeco.runtime.DEECoContainer;
+import cz.cuni.mff.d3s.deeco.runtime.PluginInitFailedException;
+import cz.cuni.mff.d3s.deeco.timer.CurrentTimeProvider;
+import cz.cuni.mff.d3s.deeco.timer.Timer;
+import cz.cuni.mff.d3s.jdeeco.network.l2.L2Packet;
+import cz.cuni.mff.d3s.jdeeco.network.l2.strategy.KnowledgeInsertingStrategy;
+import cz.cuni.mff.d3s.jdeeco.position.Position;
+
+/**
+ * Bounded store of knowledge replicas of other robots
+ *
+ * KnowledgeInsertingStrategy keeps a replica of every robot the node ever heard of, so memory of the fleet grows with
+ * the square of its size. The ensembles only need robots close to the local robot, or robots that recently adopted
+ * destinations. This strategy inserts only such knowledge:
+ * <ul>
+ * <li>Knowledge of robots farther than RANGE_M from the local robot's position is dropped, unless the robot adopted a
+ * destination within ADOPTION_RETENTION_MS. The local robot needs to see such adoption in order to remove the
+ * destination from its route, even when the adopting robot moved away since.</li>
+ * <li>Replicas not refreshed for TTL_MS are removed every EVICTION_PERIOD_MS, this removes robots that left the range.
+ * Eviction is driven by the timer of the node, so it runs also when no knowledge is received.</li>
+ * </ul>
+ * Every node then holds replicas of its neighbors only.
+ *
+ * Replica that is still stored may be old when its robot stopped communicating. Ensembles check the timestamp the robot
+ * published with its knowledge using {@link #isFresh(Long, CurrentTimeProvider)} and ignore replicas older than
+ * MAX_AGE_MS.
+ *
+ * Use one instance per node instead of KnowledgeInsertingStrategy. Dropped knowledge and evicted replicas are counted
+ * in {@link EnsembleCounters}, as the ensembles do not evaluate pairs with these robots.
+ *
+ */
+public class ReplicaCache extends KnowledgeInsertingStrategy {
+	/**
+	 * Knowledge of robots farther than this is not inserted, covers the work stealing range
+	 */
+	public static double RANGE_M = 20;
+
+	/**
+	 * Replicas not refreshed for this time are removed
+	 */
+	public static long TTL_MS = 30000;
+
+	/**
+	 * Ensembles do not act on replicas older than this
+	 */
+	public static long MAX_AGE_MS = 10000;
+
+	/**
+	 * Period of removing expired replicas
+	 */
+	public static long EVICTION_PERIOD_MS = 5000;
+
+	/**
+	 * Knowledge of distant robots is inserted for this time after their last adoption
+	 */
+	public static long ADOPTION_RETENTION_MS = 10000;
+
+	private static final KnowledgePath POSITION = RuntimeModelHelper.createKnowledgePath("position");
+	private static final KnowledgePath ADOPTED = RuntimeModelHelper.createKnowledgePath("adoptedDestinations");
+
+	private final Timer timer;
+	private DEECoContainer container;
+	private KnowledgeManagerContainer knowledge;
+
+	/**
+	 * Time of the last inserted knowledge by component id
+	 */
+	private final Map<String, Long> refreshed = new HashMap<>();
+	private long dropped, evicted;
+
+	/**
+	 * @param timer
+	 *            Timer of the node, used as time source and to schedule eviction
+	 */
+	public ReplicaCache(Timer timer) {
+		this.timer = timer;
+	}
+
+	@Override
+	public void init(DEECoContainer container) throws PluginInitFailedException {
+		super.init(container);
+		this.container = container;
+		knowledge = container.getRuntimeFrameworkKnowledgeManagerContainer();
+		timer.notifyAt(timer.getCurrentMilliseconds() + EVICTION_PERIOD_MS, this::evict, "ReplicaEviction", container);
+	}
+
+	/**
+	 * Checks whenever published timestamp of replica is recent enough to act on it
+	 *
+	 * @param timestamp
+	 *            Time when the robot published the knowledge, null for robots that do not publish it
+	 * @param clock
+	 *            Local time source
+	 */
+	public static boolean isFresh(Long timestamp, CurrentTimeProvider clock) {
+		return timestamp != null && clock.getCurrentMilliseconds() - timestamp <= MAX_AGE_MS;
+	}
+
+	@Override
+	public synchronized void processL2Packet(L2Packet packet) {
+		long now = timer.getCurrentMilliseconds();
+		Object object = packet.getObject();
+		if (object instanceof KnowledgeData) {
+			KnowledgeData data = (KnowledgeData) object;
+			if (!isRelevant(data, now)) {
+				dropped++;
+				EnsembleCounters.increment(ReplicaCache.class, "dropped");
+				return;
+			}
+			refreshed.put(data.getMetaData().componentId, now);
+		}
+		super.processL2Packet(packet);
+	}
+
+	/**
+	 * Checks whenever the knowledge is needed by the ensembles of the local robot
+	 */
+	private boolean isRelevant(KnowledgeData data, long now) {
+		Object adopted = data.getKnowledge().getValue(ADOPTED);
+		if (adopted instanceof AdoptedDestinations) {
+			long adoptedAt = ((AdoptedDestinations) adopted).getLastAdoptionTime();
+			if (adoptedAt >= 0 && now - adoptedAt <= ADOPTION_RETENTION_MS) {
+				return true;
+			}
+		}
+
+		Object position = data.getKnowledge().getValue(POSITION);
+		Position local = getLocalPosition();
+		if (!(position instanceof Position) || local == null) {
+			return true;
+		}
+		return local.euclidDistanceTo((Position) position) <= RANGE_M;
+	}
+
+	private Position getLocalPosition() {
+		for (KnowledgeManager local : knowledge.getLocals()) {
+			try {
+				Object value = local.get(Collections.singletonList(POSITION)).getValue(POSITION);
+				if (value instanceof Position) {
+					return (Position) value;
+				}
+			} catch (KnowledgeNotFoundException e) {
+				// Component without position
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Removes replicas not refreshed for TTL_MS and plans the next eviction
+	 */
+	private synchronized void evict(long now) {
+		List<KnowledgeManager> expired = new ArrayList<>();
+		Collection<KnowledgeManager> replicas = knowledge.getReplicas();
+		for (KnowledgeManager replica : replicas) {
+			Long time = refreshed.get(replica.getId());
+			if (time == null || now - time > TTL_MS) {
+				expired.add(replica);
+			}
+		}
+		for (KnowledgeManager replica : expired) {
+			knowledge.removeReplica(replica);
+			refreshed.remove(replica.getId());
+			evicted++;
+			EnsembleCounters.increment(ReplicaCache.class, "evicted");
+		}
+		timer.notifyAt(now + EVICTION_PERIOD_MS, this::evict, "ReplicaEviction", container);
+	}
+
+	/**
+	 * Gets number of dropped knowledge packets and evicted replicas
+	 */
+	public synchronized long[] getCounts() {
+		return new long[] { dropped, evicted };
+	}
+}
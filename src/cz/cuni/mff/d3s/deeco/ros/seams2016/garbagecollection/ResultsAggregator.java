@@ -0,0 +1,138 @@
+package cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * Aggregates columnar results of many runs into CSV files
+ *
+ * All {@link ResultsFile} files in the directory are memory mapped and processed in parallel. Two files are written:
+ *
+ * runs.csv holds one line per run: file, configuration, number of goals, number of reached goals, time of the last
+ * reached goal and percentiles of reach times.
+ *
+ * summary.csv holds one line per configuration without the seed. For the last reach time and the reached count it
+ * gives boxplot statistics over the runs: minimum, first quartile, median, third quartile and maximum. These are the
+ * same values results/process.py plots.
+ *
+ * Usage: ResultsAggregator [directory]
+ *
+ */
+public class ResultsAggregator {
+	/**
+	 * Statistics of single run
+	 */
+	static class RunStats {
+		final String file;
+		final String config;
+		final int goals;
+		final int reached;
+		final long maxTimeMs;
+		final long p50Ms, p90Ms, p99Ms;
+
+		RunStats(String file, ResultsFile.Run run) {
+			this.file = file;
+			this.config = run.config;
+			this.goals = run.size();
+
+			long[] times = Arrays.stream(run.reachTimesMs).filter(t -> t > 0).sorted().toArray();
+			this.reached = times.length;
+			this.maxTimeMs = times.length > 0 ? times[times.length - 1] : 0;
+			this.p50Ms = percentile(times, 0.50);
+			this.p90Ms = percentile(times, 0.90);
+			this.p99Ms = percentile(times, 0.99);
+		}
+
+		/**
+		 * Configuration without seed and run id, runs with the same group differ only by them
+		 */
+		String getGroup() {
+			return config.replaceAll("\\b(seed|run)=\\S+\\s*", "").trim();
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		Path directory = Paths.get(args.length > 0 ? args[0] : "results");
+
+		List<Path> files = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + ResultsFile.EXTENSION)) {
+			stream.forEach(files::add);
+		}
+		System.out.println("Aggregating " + files.size() + " runs from " + directory);
+
+		List<RunStats> runs = files.parallelStream().map(file -> {
+			try {
+				return new RunStats(file.getFileName().toString(), ResultsFile.read(file));
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}).sorted((a, b) -> a.file.compareTo(b.file)).collect(Collectors.toList());
+
+		writeRuns(directory.resolve("runs.csv"), runs);
+		writeSummary(directory.resolve("summary.csv"), runs);
+		System.out.println("Written runs.csv and summary.csv");
+	}
+
+	private static void writeRuns(Path file, List<RunStats> runs) throws IOException {
+		try (BufferedWriter out = new BufferedWriter(new FileWriter(file.toFile()))) {
+			out.write("file,config,goals,reached,maxTimeMs,p50Ms,p90Ms,p99Ms");
+			out.newLine();
+			for (RunStats run : runs) {
+				out.write(String.format("%s,\"%s\",%d,%d,%d,%d,%d,%d", run.file, run.config, run.goals, run.reached,
+						run.maxTimeMs, run.p50Ms, run.p90Ms, run.p99Ms));
+				out.newLine();
+			}
+		}
+	}
+
+	private static void writeSummary(Path file, List<RunStats> runs) throws IOException {
+		Map<String, List<RunStats>> groups = new TreeMap<>(
+				runs.stream().collect(Collectors.groupingBy(RunStats::getGroup)));
+
+		try (BufferedWriter out = new BufferedWriter(new FileWriter(file.toFile()))) {
+			out.write("config,runs,maxTimeMin,maxTimeQ1,maxTimeMedian,maxTimeQ3,maxTimeMax,"
+					+ "reachedMin,reachedQ1,reachedMedian,reachedQ3,reachedMax");
+			out.newLine();
+			for (Map.Entry<String, List<RunStats>> group : groups.entrySet()) {
+				long[] maxTimes = group.getValue().stream().mapToLong(r -> r.maxTimeMs).sorted().toArray();
+				long[] reached = group.getValue().stream().mapToLong(r -> r.reached).sorted().toArray();
+				out.write(String.format("\"%s\",%d,%s,%s", group.getKey(), maxTimes.length, boxplot(maxTimes),
+						boxplot(reached)));
+				out.newLine();
+			}
+		}
+	}
+
+	/**
+	 * Formats minimum, quartiles and maximum of sorted values
+	 */
+	private static String boxplot(long[] sorted) {
+		return String.format("%d,%d,%d,%d,%d", sorted[0], percentile(sorted, 0.25), percentile(sorted, 0.5),
+				percentile(sorted, 0.75), sorted[sorted.length - 1]);
+	}
+
+	/**
+	 * Linearly interpolated percentile of sorted values, 0 when there are no values
+	 */
+	static long percentile(long[] sorted, double fraction) {
+		if (sorted.length == 0) {
+			return 0;
+		}
+		double rank = fraction * (sorted.length - 1);
+		int low = (int) Math.floor(rank);
+		int high = Math.min(low + 1, sorted.length - 1);
+		return Math.round(sorted[low] + (sorted[high] - sorted[low]) * (rank - low));
+	}
+}
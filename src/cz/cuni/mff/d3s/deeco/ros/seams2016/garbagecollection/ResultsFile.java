@@ -0,0 +1,177 @@
+package cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary columnar file with results of single run
+ *
+ * The file holds the same information as the text results (initial owner, reaching robot and reach time of each goal)
+ * plus goal coordinates and the run configuration. Values are stored by columns of primitive values, so the file can
+ * be memory mapped and each column read without parsing. All numbers are big-endian.
+ *
+ * Layout:
+ *
+ * <pre>
+ * int      magic "GCR1"
+ * short    config length, bytes  config (UTF-8)
+ * short    robot count, for each robot: short name length, bytes name (UTF-8)
+ * int      goal count n
+ * short[n] initial owner, index to robot names
+ * short[n] reaching robot, index to robot names, -1 when not reached
+ * long[n]  reach time in milliseconds, 0 when not reached
+ * short[n] x coordinate, short[n] y coordinate, fixed-point as encoded by PositionCodec
+ * </pre>
+ *
+ */
+public class ResultsFile {
+	/**
+	 * Magic number identifying the format, "GCR1"
+	 */
+	static final int MAGIC = 0x47435231;
+
+	/**
+	 * Extension of the columnar results files
+	 */
+	public static final String EXTENSION = ".gcr";
+
+	/**
+	 * Results of single run
+	 */
+	public static class Run {
+		public final String config;
+		public final String[] robots;
+		public final short[] owners;
+		public final short[] reachers;
+		public final long[] reachTimesMs;
+		public final double[] xs, ys;
+
+		Run(String config, String[] robots, short[] owners, short[] reachers, long[] reachTimesMs, double[] xs,
+				double[] ys) {
+			this.config = config;
+			this.robots = robots;
+			this.owners = owners;
+			this.reachers = reachers;
+			this.reachTimesMs = reachTimesMs;
+			this.xs = xs;
+			this.ys = ys;
+		}
+
+		public int size() {
+			return owners.length;
+		}
+	}
+
+	/**
+	 * Writes results to file
+	 *
+	 * @param file
+	 *            Output file
+	 * @param config
+	 *            Description of the run configuration
+	 * @param infos
+	 *            Goals of the run
+	 */
+	static void write(Path file, String config, Iterable<PositionMonitor.PositionInfo> infos) throws IOException {
+		List<PositionMonitor.PositionInfo> goals = new ArrayList<>();
+		Map<String, Short> robotIndex = new HashMap<>();
+		List<String> robots = new ArrayList<>();
+		for (PositionMonitor.PositionInfo info : infos) {
+			goals.add(info);
+			for (String robot : new String[] { info.initialOwner, info.reachedBy }) {
+				if (robot != null && !robotIndex.containsKey(robot)) {
+					robotIndex.put(robot, (short) robots.size());
+					robots.add(robot);
+				}
+			}
+		}
+
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file.toFile())))) {
+			out.writeInt(MAGIC);
+			writeString(out, config);
+			out.writeShort(robots.size());
+			for (String robot : robots) {
+				writeString(out, robot);
+			}
+
+			out.writeInt(goals.size());
+			for (PositionMonitor.PositionInfo info : goals) {
+				out.writeShort(robotIndex.get(info.initialOwner));
+			}
+			for (PositionMonitor.PositionInfo info : goals) {
+				out.writeShort(info.reachedBy != null ? robotIndex.get(info.reachedBy) : -1);
+			}
+			for (PositionMonitor.PositionInfo info : goals) {
+				out.writeLong(info.reachedAtMs);
+			}
+			for (PositionMonitor.PositionInfo info : goals) {
+				out.writeShort(PositionCodec.toFixed(info.position.x));
+			}
+			for (PositionMonitor.PositionInfo info : goals) {
+				out.writeShort(PositionCodec.toFixed(info.position.y));
+			}
+		}
+	}
+
+	/**
+	 * Reads results from memory mapped file
+	 */
+	public static Run read(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.getInt() != MAGIC) {
+				throw new IOException("Not a columnar results file: " + file);
+			}
+			String config = readString(buffer);
+			String[] robots = new String[buffer.getShort()];
+			for (int i = 0; i < robots.length; ++i) {
+				robots[i] = readString(buffer);
+			}
+
+			int n = buffer.getInt();
+			short[] owners = new short[n];
+			short[] reachers = new short[n];
+			long[] times = new long[n];
+			double[] xs = new double[n];
+			double[] ys = new double[n];
+			buffer.asShortBuffer().get(owners);
+			buffer.position(buffer.position() + 2 * n);
+			buffer.asShortBuffer().get(reachers);
+			buffer.position(buffer.position() + 2 * n);
+			buffer.asLongBuffer().get(times);
+			buffer.position(buffer.position() + 8 * n);
+			for (int i = 0; i < n; ++i) {
+				xs[i] = PositionCodec.fromFixed(buffer.getShort() & 0xffff);
+			}
+			for (int i = 0; i < n; ++i) {
+				ys[i] = PositionCodec.fromFixed(buffer.getShort() & 0xffff);
+			}
+			return new Run(config, robots, owners, reachers, times, xs, ys);
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeShort(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getShort() & 0xffff];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
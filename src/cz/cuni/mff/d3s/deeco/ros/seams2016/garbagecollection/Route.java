@@ -0,0 +1,266 @@
+package cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import cz.cuni.mff.d3s.jdeeco.position.Position;
+
+/**
+ * Compact list of way-points
+ *
+ * Way-points are stored as parallel arrays of x and y coordinates, so the route takes two doubles per way-point and
+ * provides O(1) random access. The z coordinate is not stored, the robots move in plane.
+ *
+ * The route implements List of positions so it can be used as a knowledge value by the code that expects list. Position
+ * objects are created lazily when accessed and cached, so repeated access returns the same object.
+ *
+ */
+public class Route extends AbstractList<Position> implements RandomAccess, Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private static final int INITIAL_CAPACITY = 8;
+
+	private double[] xs;
+	private double[] ys;
+	private transient Position[] views;
+	private int size;
+
+	/**
+	 * Constructs empty route
+	 */
+	public Route() {
+		xs = new double[INITIAL_CAPACITY];
+		ys = new double[INITIAL_CAPACITY];
+		views = new Position[INITIAL_CAPACITY];
+	}
+
+	/**
+	 * Constructs route holding given positions
+	 */
+	public Route(Collection<Position> positions) {
+		this();
+		addAll(positions);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	public double getX(int index) {
+		checkIndex(index);
+		return xs[index];
+	}
+
+	public double getY(int index) {
+		checkIndex(index);
+		return ys[index];
+	}
+
+	@Override
+	public Position get(int index) {
+		checkIndex(index);
+		Position view = views[index];
+		if (view == null) {
+			view = new CompactPosition(xs[index], ys[index]);
+			views[index] = view;
+		}
+		return view;
+	}
+
+	@Override
+	public Position set(int index, Position position) {
+		Position old = get(index);
+		store(index, position);
+		return old;
+	}
+
+	@Override
+	public void add(int index, Position position) {
+		if (index < 0 || index > size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+		ensureCapacity(size + 1);
+		System.arraycopy(xs, index, xs, index + 1, size - index);
+		System.arraycopy(ys, index, ys, index + 1, size - index);
+		System.arraycopy(views, index, views, index + 1, size - index);
+		size++;
+		store(index, position);
+		modCount++;
+	}
+
+	@Override
+	public Position remove(int index) {
+		Position old = get(index);
+		int tail = size - index - 1;
+		System.arraycopy(xs, index + 1, xs, index, tail);
+		System.arraycopy(ys, index + 1, ys, index, tail);
+		System.arraycopy(views, index + 1, views, index, tail);
+		views[--size] = null;
+		modCount++;
+		return old;
+	}
+
+	/**
+	 * Removes way-point by moving the last way-point to its place
+	 *
+	 * This is O(1), but it does not preserve the order of way-points.
+	 *
+	 * @return Removed position
+	 */
+	public Position swapRemove(int index) {
+		Position old = get(index);
+		int last = --size;
+		xs[index] = xs[last];
+		ys[index] = ys[last];
+		views[index] = views[last];
+		views[last] = null;
+		modCount++;
+		return old;
+	}
+
+	/**
+	 * Removes all way-points closer than threshold to a point
+	 *
+	 * Order of the remaining way-points is preserved.
+	 *
+	 * @param x
+	 *            X coordinate of the point
+	 * @param y
+	 *            Y coordinate of the point
+	 * @param threshold
+	 *            Way-points closer than this are removed
+	 * @param removed
+	 *            Receives removed positions, may be null
+	 * @return Number of removed way-points
+	 */
+	public int removeWithin(double x, double y, double threshold, Consumer<Position> removed) {
+		double threshold2 = threshold * threshold;
+		int kept = 0;
+		for (int i = 0; i < size; ++i) {
+			double dx = xs[i] - x, dy = ys[i] - y;
+			if (dx * dx + dy * dy < threshold2) {
+				if (removed != null) {
+					removed.accept(get(i));
+				}
+			} else {
+				move(i, kept++);
+			}
+		}
+		return truncate(kept);
+	}
+
+	@Override
+	public boolean removeAll(Collection<?> c) {
+		Set<?> toRemove = c instanceof Set ? (Set<?>) c : new HashSet<>(c);
+		int kept = 0;
+		for (int i = 0; i < size; ++i) {
+			if (!toRemove.contains(get(i))) {
+				move(i, kept++);
+			}
+		}
+		return truncate(kept) > 0;
+	}
+
+	@Override
+	public void clear() {
+		Arrays.fill(views, 0, size, null);
+		size = 0;
+		modCount++;
+	}
+
+	/**
+	 * Reorders way-points
+	 * 
+	 * This is not a structural modification, the way-points stay the same.
+	 * 
+	 * @param order
+	 *            Permutation of indices, way-point order[i] is moved to index i
+	 */
+	public void permute(int[] order) {
+		if (order.length != size) {
+			throw new IllegalArgumentException("Permutation size " + order.length + " differs from route size " + size);
+		}
+		double[] newXs = new double[xs.length];
+		double[] newYs = new double[ys.length];
+		Position[] newViews = new Position[views.length];
+		for (int i = 0; i < size; ++i) {
+			newXs[i] = xs[order[i]];
+			newYs[i] = ys[order[i]];
+			newViews[i] = views[order[i]];
+		}
+		xs = newXs;
+		ys = newYs;
+		views = newViews;
+	}
+
+	/**
+	 * Gets number of structural modifications
+	 *
+	 * Changes whenever way-points are added or removed, so it can be used to detect route changes.
+	 */
+	public int getModificationCount() {
+		return modCount;
+	}
+
+	private void store(int index, Position position) {
+		xs[index] = position.x;
+		ys[index] = position.y;
+		// Keep the original object when it is plain 2D position, so it is returned back by get
+		views[index] = position.z == 0 ? position : null;
+	}
+
+	private void move(int from, int to) {
+		if (from != to) {
+			xs[to] = xs[from];
+			ys[to] = ys[from];
+			views[to] = views[from];
+		}
+	}
+
+	private int truncate(int newSize) {
+		int removed = size - newSize;
+		if (removed > 0) {
+			Arrays.fill(views, newSize, size, null);
+			size = newSize;
+			modCount++;
+		}
+		return removed;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > xs.length) {
+			int newCapacity = Math.max(capacity, xs.length * 2);
+			xs = Arrays.copyOf(xs, newCapacity);
+			ys = Arrays.copyOf(ys, newCapacity);
+			views = Arrays.copyOf(views, newCapacity);
+		}
+	}
+
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		// Modification count is transient in AbstractList, keep it so the route version survives serialization
+		out.writeInt(modCount);
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		modCount = in.readInt();
+		views = new Position[xs.length];
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+	}
+}
@@ -0,0 +1,158 @@
+package cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection;
+
+/**
+ * Orders route way-points into a short tour
+ *
+ * The tour starts at the robot position and visits all way-points, it does not return back. Initial order is built by
+ * nearest neighbor heuristic and then improved by 2-opt passes (reversing parts of the tour while it gets shorter). The
+ * 2-opt stops at local optimum or after MAX_MOVES evaluated moves, so the optimization has bounded cost even for
+ * long routes. The bound counts work instead of measuring time, so the same route is always ordered the same way
+ * regardless of the load of the host, which keeps seeded runs and replays reproducible.
+ *
+ * Distances are straight line distances. The order does not change the set of way-points, only their order.
+ *
+ */
+public class RouteOptimizer {
+	/**
+	 * Maximal number of evaluated 2-opt moves, about a millisecond of work
+	 */
+	static final long MAX_MOVES = 200_000;
+
+	/**
+	 * Maximal number of 2-opt passes
+	 */
+	static final int MAX_PASSES = 16;
+
+	/**
+	 * Reorders route into a short tour from a start point
+	 *
+	 * @param route
+	 *            Route to reorder
+	 * @param startX
+	 *            X coordinate of the tour start
+	 * @param startY
+	 *            Y coordinate of the tour start
+	 * @return Length of the resulting tour
+	 */
+	public static double optimize(Route route, double startX, double startY) {
+		return optimize(route, startX, startY, MAX_MOVES, MAX_PASSES);
+	}
+
+	/**
+	 * Reorders route into a short tour from a start point
+	 *
+	 * @param route
+	 *            Route to reorder
+	 * @param startX
+	 *            X coordinate of the tour start
+	 * @param startY
+	 *            Y coordinate of the tour start
+	 * @param maxMoves
+	 *            Maximal number of evaluated 2-opt moves
+	 * @param maxPasses
+	 *            Maximal number of 2-opt passes
+	 * @return Length of the resulting tour
+	 */
+	public static double optimize(Route route, double startX, double startY, long maxMoves, int maxPasses) {
+		int n = route.size();
+		if (n < 2) {
+			return n == 0 ? 0 : Math.hypot(route.getX(0) - startX, route.getY(0) - startY);
+		}
+		long moves = 0;
+
+		// Tour position 0 is the start, route way-points follow
+		int[] order = nearestNeighbor(route, startX, startY);
+		double[] xs = new double[n + 1];
+		double[] ys = new double[n + 1];
+		xs[0] = startX;
+		ys[0] = startY;
+		for (int i = 0; i < n; ++i) {
+			xs[i + 1] = route.getX(order[i]);
+			ys[i + 1] = route.getY(order[i]);
+		}
+
+		// Reverse tour[i..j] while it shortens the tour, the start stays in place
+		for (int pass = 0; pass < maxPasses && moves < maxMoves; ++pass) {
+			boolean improved = false;
+			for (int i = 1; i < n && moves < maxMoves; ++i) {
+				moves += n - i;
+				for (int j = i + 1; j <= n; ++j) {
+					double before = dist(xs, ys, i - 1, i);
+					double after = dist(xs, ys, i - 1, j);
+					if (j < n) {
+						before += dist(xs, ys, j, j + 1);
+						after += dist(xs, ys, i, j + 1);
+					}
+					if (after < before - 1e-9) {
+						reverse(xs, ys, order, i, j);
+						improved = true;
+					}
+				}
+			}
+			if (!improved) {
+				break;
+			}
+		}
+
+		route.permute(order);
+
+		double length = 0;
+		for (int i = 0; i < n; ++i) {
+			length += dist(xs, ys, i, i + 1);
+		}
+		return length;
+	}
+
+	/**
+	 * Builds tour by repeatedly visiting the nearest unvisited way-point
+	 *
+	 * @return Route indices in the tour order
+	 */
+	private static int[] nearestNeighbor(Route route, double startX, double startY) {
+		int n = route.size();
+		int[] order = new int[n];
+		for (int i = 0; i < n; ++i) {
+			order[i] = i;
+		}
+		double x = startX, y = startY;
+		for (int i = 0; i < n; ++i) {
+			int nearest = i;
+			double nearestDist = Double.MAX_VALUE;
+			for (int j = i; j < n; ++j) {
+				double dx = route.getX(order[j]) - x, dy = route.getY(order[j]) - y;
+				double d = dx * dx + dy * dy;
+				if (d < nearestDist) {
+					nearestDist = d;
+					nearest = j;
+				}
+			}
+			int tmp = order[i];
+			order[i] = order[nearest];
+			order[nearest] = tmp;
+			x = route.getX(order[i]);
+			y = route.getY(order[i]);
+		}
+		return order;
+	}
+
+	private static double dist(double[] xs, double[] ys, int a, int b) {
+		return Math.hypot(xs[a] - xs[b], ys[a] - ys[b]);
+	}
+
+	/**
+	 * Reverses tour positions i..j, order is shifted by one as it does not hold the start
+	 */
+	private static void reverse(double[] xs, double[] ys, int[] order, int i, int j) {
+		for (; i < j; ++i, --j) {
+			double tx = xs[i];
+			xs[i] = xs[j];
+			xs[j] = tx;
+			double ty = ys[i];
+			ys[i] = ys[j];
+			ys[j] = ty;
+			int to = order[i - 1];
+			order[i - 1] = order[j - 1];
+			order[j - 1] = to;
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Logs and statistics of single run
+ *
+ * Experiments running in parallel in one JVM each have their own event log, ensemble counters and task metrics. The
+ * simulation runs all nodes on the thread that started it, so the context is bound to that thread for the duration of
+ * the run and the static methods of {@link EventLog}, {@link EnsembleCounters} and {@link TaskMetrics} use the context
+ * of the calling thread. Code running outside of any run (demo, real robot, benchmarks) uses the default context of
+ * the JVM.
+ *
+ */
+public class RunContext {
+	private static final RunContext DEFAULT = new RunContext();
+	private static final ThreadLocal<RunContext> CURRENT = new ThreadLocal<>();
+
+	private final EventLog eventLog = new EventLog();
+	private final EnsembleCounters counters = new EnsembleCounters();
+	private final TaskMetrics taskMetrics = new TaskMetrics();
+
+	/**
+	 * Gets context of the run on the calling thread
+	 *
+	 * @return Bound context, or the default context when no run is bound
+	 */
+	public static RunContext current() {
+		RunContext context = CURRENT.get();
+		return context != null ? context : DEFAULT;
+	}
+
+	/**
+	 * Runs the body with this context bound to the calling thread
+	 *
+	 * @return Result of the body
+	 */
+	public <T> T call(Callable<T> body) throws Exception {
+		RunContext previous = CURRENT.get();
+		CURRENT.set(this);
+		try {
+			return body.call();
+		} finally {
+			if (previous != null) {
+				CURRENT.set(previous);
+			} else {
+				CURRENT.remove();
+			}
+		}
+	}
+
+	public EventLog getEventLog() {
+		return eventLog;
+	}
+
+	public EnsembleCounters getCounters() {
+		return counters;
+	}
+
+	public TaskMetrics getTaskMetrics() {
+		return taskMetrics;
+	}
+}
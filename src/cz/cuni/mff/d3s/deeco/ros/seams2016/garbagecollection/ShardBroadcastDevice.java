@@ -0,0 +1,187 @@
+package cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import cz.cuni.mff.d3s.deeco.runtime.DEECoContainer;
+import cz.cuni.mff.d3s.deeco.runtime.DEECoPlugin;
+import cz.cuni.mff.d3s.deeco.timer.Timer;
+import cz.cuni.mff.d3s.jdeeco.network.Network;
+import cz.cuni.mff.d3s.jdeeco.network.address.Address;
+import cz.cuni.mff.d3s.jdeeco.network.address.MANETBroadcastAddress;
+import cz.cuni.mff.d3s.jdeeco.network.device.Device;
+import cz.cuni.mff.d3s.jdeeco.network.l1.Layer1;
+import cz.cuni.mff.d3s.jdeeco.network.l1.ReceivedInfo;
+import cz.cuni.mff.d3s.jdeeco.position.Position;
+import cz.cuni.mff.d3s.jdeeco.position.PositionPlugin;
+import cz.cuni.mff.d3s.jdeeco.position.PositionProvider;
+
+/**
+ * Broadcast device of a simulation shard
+ *
+ * Works like SimpleBroadcastDevice for the nodes of this shard, broadcast is delivered to all nodes in range after
+ * DELAY_MS. In addition all broadcasts are forwarded through {@link ShardHub} to the other shards, which deliver them to
+ * their nodes in range. The range is the radio range of RangeBroadcastDevice, so broadcasts reach only the shards with
+ * some robot nearby.
+ *
+ * Poses of the robots are exchanged at every synchronization too. Robots of the other shards are obstacles in the
+ * kinematic simulation of this shard, placed at their poses of the last synchronization, so robots of different shards
+ * block each other as in the unsharded simulation.
+ *
+ * Shards synchronize every sync period. The delay needs to be at least the sync period, then every broadcast from
+ * other shard arrives before its delivery time and the shards can run independently between synchronizations.
+ *
+ * Single instance is shared by all nodes of the shard, pass the same instance to DEECoSimulation.addPlugin.
+ *
+ */
+public class ShardBroadcastDevice implements DEECoPlugin {
+	/**
+	 * Maximal distance between sender and receiver
+	 */
+	public static double RANGE_M = RangeBroadcastDevice.DEFAULT_RANGE_M;
+
+	/**
+	 * Delivery delay, needs to be at least the sync period
+	 */
+	public static long DELAY_MS = 100;
+
+	/**
+	 * Maximal size of single packet
+	 */
+	public static int PACKET_SIZE = 128;
+
+	/**
+	 * Device of single node
+	 */
+	private class ShardDevice extends Device {
+		final String id;
+		final Layer1 layer1;
+		final PositionProvider position;
+		final DEECoContainer container;
+
+		ShardDevice(DEECoContainer container, Layer1 layer1, PositionProvider position) {
+			this.id = String.valueOf(container.getId());
+			this.container = container;
+			this.layer1 = layer1;
+			this.position = position;
+		}
+
+		@Override
+		public String getId() {
+			return id;
+		}
+
+		@Override
+		public int getMTU() {
+			return PACKET_SIZE;
+		}
+
+		@Override
+		public boolean canSend(Address address) {
+			return address instanceof MANETBroadcastAddress;
+		}
+
+		@Override
+		public void send(byte[] data, Address address) {
+			broadcast(this, data);
+		}
+	}
+
+	private final Timer timer;
+	private final KinematicSimulation world;
+	private final ShardHub.Link link;
+	private final long syncPeriodMs;
+	private final List<ShardDevice> devices = new ArrayList<>();
+	private final List<ShardHub.Packet> outgoing = new ArrayList<>();
+
+	/**
+	 * @param world
+	 *            Kinematic simulation of this shard, its timer drives the device
+	 * @param link
+	 *            Connection to the hub
+	 * @param syncPeriodMs
+	 *            Period of synchronization with the other shards
+	 */
+	public ShardBroadcastDevice(KinematicSimulation world, ShardHub.Link link, long syncPeriodMs) {
+		if (DELAY_MS < syncPeriodMs) {
+			throw new IllegalStateException("Delivery delay " + DELAY_MS + " ms is shorter than sync period "
+					+ syncPeriodMs + " ms");
+		}
+		this.timer = world.getTimer();
+		this.world = world;
+		this.link = link;
+		this.syncPeriodMs = syncPeriodMs;
+	}
+
+	@Override
+	public List<Class<? extends DEECoPlugin>> getDependencies() {
+		return Arrays.asList(Network.class, PositionPlugin.class);
+	}
+
+	@Override
+	public void init(DEECoContainer container) {
+		Layer1 layer1 = container.getPluginInstance(Network.class).getL1();
+		ShardDevice device = new ShardDevice(container, layer1, container.getPluginInstance(PositionPlugin.class));
+		layer1.registerDevice(device);
+		devices.add(device);
+
+		// Synchronization runs on behalf of the first node
+		if (devices.size() == 1) {
+			timer.notifyAt(syncPeriodMs, this::synchronize, "ShardSync", container);
+		}
+	}
+
+	private void broadcast(ShardDevice source, byte[] data) {
+		long now = timer.getCurrentMilliseconds();
+		Position position = source.position.getPosition();
+		for (ShardDevice device : devices) {
+			if (device != source && inRange(device, position.x, position.y)) {
+				deliver(device, data, now + DELAY_MS);
+			}
+		}
+		outgoing.add(new ShardHub.Packet(now, position.x, position.y, data));
+	}
+
+	private boolean inRange(ShardDevice device, double x, double y) {
+		Position position = device.position.getPosition();
+		return Math.hypot(position.x - x, position.y - y) <= RANGE_M;
+	}
+
+	private void deliver(ShardDevice device, byte[] data, long timeMs) {
+		timer.notifyAt(timeMs, time -> device.layer1.processL0Packet(data, device,
+				new ReceivedInfo(MANETBroadcastAddress.BROADCAST)), "ShardDelivery", device.container);
+	}
+
+	/**
+	 * Exchanges broadcasts and robot poses with the other shards and schedules delivery of the broadcasts
+	 */
+	private void synchronize(long time) {
+		double[] poses = new double[2 * devices.size()];
+		for (int i = 0; i < devices.size(); ++i) {
+			Position position = devices.get(i).position.getPosition();
+			poses[2 * i] = position.x;
+			poses[2 * i + 1] = position.y;
+		}
+
+		ShardHub.Epoch incoming;
+		try {
+			incoming = link.exchange(time, new ShardHub.Epoch(outgoing, poses));
+		} catch (IOException e) {
+			throw new RuntimeException("Shard synchronization failed", e);
+		}
+		outgoing.clear();
+		world.setObstacles(incoming.poses);
+
+		for (ShardHub.Packet packet : incoming.packets) {
+			for (ShardDevice device : devices) {
+				if (inRange(device, packet.x, packet.y)) {
+					deliver(device, packet.data, Math.max(time, packet.timeMs + DELAY_MS));
+				}
+			}
+		}
+
+		timer.notifyAt(time + syncPeriodMs, this::synchronize, "ShardSync", devices.get(0).container);
+	}
+}
@@ -0,0 +1,384 @@
+package cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Loopback hub connecting shards of a simulation running in separate processes
+ *
+ * Each shard simulates part of the fleet on its own simulation timer. Shards synchronize conservatively: every sync
+ * period each shard sends broadcasts of its nodes since the last synchronization together with the current poses of
+ * its robots and blocks until all shards did the same. The hub then sends each shard the broadcasts of the other shards
+ * sent within the radio range of some robot of the shard, and the poses of the robots of all the other shards, which
+ * the shard uses as obstacles. Broadcasts are delivered with delay of at least one sync period, see
+ * {@link ShardBroadcastDevice}, so no shard receives a packet from its past and all shards advance in lock-step.
+ *
+ * Protocol over TCP, all values big-endian:
+ * <ul>
+ * <li>Shard connects and sends its index (int).</li>
+ * <li>Shard sends epoch frame: time (long), number of packets (int) and the packets, number of robots (int) and their
+ * coordinates (double, double), or time -1 when it finished.</li>
+ * <li>Hub replies with the packets and robots of the other shards for the same epoch in the same format, without the
+ * time.</li>
+ * </ul>
+ * Packet is written as send time (long), sender coordinates (double, double), length (int) and the data.
+ *
+ */
+public class ShardHub implements Closeable {
+	/**
+	 * Broadcast exchanged between shards
+	 */
+	public static class Packet {
+		public final long timeMs;
+
+		/**
+		 * Position of the sender at the send time
+		 */
+		public final double x, y;
+		public final byte[] data;
+
+		public Packet(long timeMs, double x, double y, byte[] data) {
+			this.timeMs = timeMs;
+			this.x = x;
+			this.y = y;
+			this.data = data;
+		}
+
+		void write(DataOutputStream out) throws IOException {
+			out.writeLong(timeMs);
+			out.writeDouble(x);
+			out.writeDouble(y);
+			out.writeInt(data.length);
+			out.write(data);
+		}
+
+		static Packet read(DataInputStream in) throws IOException {
+			long timeMs = in.readLong();
+			double x = in.readDouble();
+			double y = in.readDouble();
+			byte[] data = new byte[in.readInt()];
+			in.readFully(data);
+			return new Packet(timeMs, x, y, data);
+		}
+	}
+
+	/**
+	 * Broadcasts and robot poses of single synchronization epoch
+	 */
+	public static class Epoch {
+		public final List<Packet> packets;
+
+		/**
+		 * Coordinates of robots, x and y interleaved
+		 */
+		public final double[] poses;
+
+		public Epoch(List<Packet> packets, double[] poses) {
+			this.packets = packets;
+			this.poses = poses;
+		}
+
+		void write(DataOutputStream out) throws IOException {
+			out.writeInt(packets.size());
+			for (Packet packet : packets) {
+				packet.write(out);
+			}
+			writePoses(out, poses);
+		}
+
+		static Epoch read(DataInputStream in) throws IOException {
+			int count = in.readInt();
+			List<Packet> packets = new ArrayList<>(count);
+			for (int i = 0; i < count; ++i) {
+				packets.add(Packet.read(in));
+			}
+			return new Epoch(packets, readPoses(in));
+		}
+	}
+
+	/**
+	 * Connection of single shard to the hub
+	 */
+	public static class Link implements Closeable {
+		private final Socket socket;
+		private final DataInputStream in;
+		private final DataOutputStream out;
+		private final int shard;
+
+		/**
+		 * Connects shard to the hub running on this machine
+		 *
+		 * @param port
+		 *            Port of the hub
+		 * @param shard
+		 *            Index of the shard
+		 */
+		public Link(int port, int shard) throws IOException {
+			this.shard = shard;
+			socket = new Socket(InetAddress.getLoopbackAddress(), port);
+			socket.setTcpNoDelay(true);
+			in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE));
+			out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE));
+			out.writeInt(shard);
+			out.flush();
+		}
+
+		public int getShard() {
+			return shard;
+		}
+
+		/**
+		 * Exchanges broadcasts and robot poses with the other shards
+		 *
+		 * Blocks until all shards reached the same time.
+		 *
+		 * @param timeMs
+		 *            Current simulation time
+		 * @param outgoing
+		 *            Broadcasts of this shard since the last exchange and current poses of its robots
+		 * @return Broadcasts of the other shards since the last exchange that may reach robots of this shard, and
+		 *         current poses of the robots of the other shards
+		 */
+		public Epoch exchange(long timeMs, Epoch outgoing) throws IOException {
+			out.writeLong(timeMs);
+			outgoing.write(out);
+			out.flush();
+			return Epoch.read(in);
+		}
+
+		/**
+		 * Tells the hub the shard finished and disconnects
+		 */
+		@Override
+		public void close() throws IOException {
+			try {
+				out.writeLong(-1);
+				out.flush();
+			} finally {
+				socket.close();
+			}
+		}
+	}
+
+	/**
+	 * Connected shard as seen by the hub
+	 */
+	private static class Shard {
+		final Socket socket;
+		final DataInputStream in;
+		final DataOutputStream out;
+		final int index;
+		boolean finished;
+		Epoch epoch;
+
+		Shard(Socket socket) throws IOException {
+			this.socket = socket;
+			socket.setTcpNoDelay(true);
+			in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE));
+			out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE));
+			index = in.readInt();
+		}
+	}
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final ServerSocket server;
+	private final int shardCount;
+	private final double rangeM;
+	private Thread thread;
+	private volatile IOException failure;
+	private long epochs;
+
+	/**
+	 * Opens the hub on a free loopback port
+	 *
+	 * @param shardCount
+	 *            Number of shards that will connect
+	 * @param rangeM
+	 *            Radio range, broadcasts are forwarded only to shards with some robot in range of the sender
+	 */
+	public ShardHub(int shardCount, double rangeM) throws IOException {
+		this.shardCount = shardCount;
+		this.rangeM = rangeM;
+		server = new ServerSocket(0, shardCount, InetAddress.getLoopbackAddress());
+	}
+
+	public int getPort() {
+		return server.getLocalPort();
+	}
+
+	/**
+	 * Starts serving the shards in background
+	 */
+	public void start() {
+		thread = new Thread(() -> {
+			try {
+				serve();
+			} catch (IOException e) {
+				failure = e;
+			}
+		}, "ShardHub");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Waits until all shards finished
+	 *
+	 * @return Number of synchronized epochs
+	 */
+	public long join() throws IOException, InterruptedException {
+		thread.join();
+		if (failure != null) {
+			throw failure;
+		}
+		return epochs;
+	}
+
+	private void serve() throws IOException {
+		List<Shard> shards = new ArrayList<>();
+		try {
+			while (shards.size() < shardCount) {
+				shards.add(new Shard(server.accept()));
+			}
+
+			int active = shardCount;
+			while (active > 0) {
+				// Barrier, wait for frames of all running shards
+				long time = -1;
+				for (Shard shard : shards) {
+					if (shard.finished) {
+						continue;
+					}
+					long shardTime = shard.in.readLong();
+					if (shardTime < 0) {
+						shard.finished = true;
+						shard.epoch = null;
+						active--;
+						continue;
+					}
+					if (time >= 0 && shardTime != time) {
+						throw new IOException(String.format("Shard %d at %d ms, expected %d ms", shard.index,
+								shardTime, time));
+					}
+					time = shardTime;
+					shard.epoch = Epoch.read(shard.in);
+				}
+				if (time < 0) {
+					continue;
+				}
+
+				// Release the shards with the packets and robots of the others
+				for (Shard target : shards) {
+					if (target.finished) {
+						continue;
+					}
+					Receivers receivers = new Receivers(target.epoch.poses, rangeM);
+					List<Packet> packets = new ArrayList<>();
+					int poseCount = 0;
+					for (Shard source : shards) {
+						if (source != target && source.epoch != null) {
+							for (Packet packet : source.epoch.packets) {
+								if (receivers.reaches(packet.x, packet.y)) {
+									packets.add(packet);
+								}
+							}
+							poseCount += source.epoch.poses.length;
+						}
+					}
+					double[] poses = new double[poseCount];
+					poseCount = 0;
+					for (Shard source : shards) {
+						if (source != target && source.epoch != null) {
+							System.arraycopy(source.epoch.poses, 0, poses, poseCount, source.epoch.poses.length);
+							poseCount += source.epoch.poses.length;
+						}
+					}
+					new Epoch(packets, poses).write(target.out);
+					target.out.flush();
+				}
+				epochs++;
+			}
+		} finally {
+			for (Shard shard : shards) {
+				shard.socket.close();
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		server.close();
+	}
+
+	private static void writePoses(DataOutputStream out, double[] poses) throws IOException {
+		out.writeInt(poses.length / 2);
+		for (double coordinate : poses) {
+			out.writeDouble(coordinate);
+		}
+	}
+
+	private static double[] readPoses(DataInputStream in) throws IOException {
+		double[] poses = new double[2 * in.readInt()];
+		for (int i = 0; i < poses.length; ++i) {
+			poses[i] = in.readDouble();
+		}
+		return poses;
+	}
+
+	/**
+	 * Robots of single shard in a grid of range sized cells
+	 */
+	private static class Receivers {
+		final double rangeM;
+		final Map<Long, List<double[]>> grid = new HashMap<>();
+
+		Receivers(double[] poses, double rangeM) {
+			this.rangeM = rangeM;
+			for (int i = 0; i < poses.length; i += 2) {
+				double[] pose = { poses[i], poses[i + 1] };
+				grid.computeIfAbsent(key(cell(pose[0]), cell(pose[1])), k -> new ArrayList<>()).add(pose);
+			}
+		}
+
+		/**
+		 * Checks whenever broadcast sent from given coordinates reaches some of the robots
+		 */
+		boolean reaches(double x, double y) {
+			long cellX = cell(x), cellY = cell(y);
+			for (long cx = cellX - 1; cx <= cellX + 1; ++cx) {
+				for (long cy = cellY - 1; cy <= cellY + 1; ++cy) {
+					List<double[]> poses = grid.get(key(cx, cy));
+					if (poses == null) {
+						continue;
+					}
+					for (double[] pose : poses) {
+						if (Math.hypot(pose[0] - x, pose[1] - y) <= rangeM) {
+							return true;
+						}
+					}
+				}
+			}
+			return false;
+		}
+
+		private long cell(double coordinate) {
+			return (long) Math.floor(coordinate / rangeM);
+		}
+
+		private static long key(long x, long y) {
+			return (x << 32) ^ (y & 0xffffffffl);
+		}
+	}
+}
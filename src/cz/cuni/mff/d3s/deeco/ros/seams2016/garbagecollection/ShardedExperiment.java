@@ -0,0 +1,179 @@
+package cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs single experiment split among several local processes
+ *
+ * The coordinator process starts {@link ShardHub} and one JVM per shard. Each shard runs {@link Experiment} with its
+ * part of the robots on its own simulation timer, knowledge is broadcast between the shards by
+ * {@link ShardBroadcastDevice}. Shards advance in lock-step, synchronizing every SYNC_PERIOD_MS of simulated time, and
+ * robots of the other shards are obstacles in the kinematic simulation of each shard.
+ *
+ * Every shard writes reached goals of its robots, the coordinator merges them into the result file of the experiment in
+ * the same format as ExperimentRunner writes. Goal reached in more shards counts as reached at the earliest time.
+ *
+ * Arguments are optional key=value pairs:
+ *
+ * seed=0 robots=64 garbage=10 ensembles=true assignment=false duration=600000 shards=4
+ *
+ */
+public class ShardedExperiment {
+	/**
+	 * Period of synchronization of the shards in simulated time
+	 *
+	 * This is the lookahead of the conservative synchronization, broadcasts between shards are delayed by at least
+	 * this time.
+	 */
+	public static long SYNC_PERIOD_MS = 100;
+
+	/**
+	 * Directory where results are stored
+	 */
+	private static final String RESULTS_DIR = "results";
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = new HashMap<>();
+		options.put("seed", "0");
+		options.put("robots", "64");
+		options.put("garbage", "10");
+		options.put("ensembles", "true");
+		options.put("assignment", "false");
+		options.put("duration", "600000");
+		options.put("shards", String.valueOf(Runtime.getRuntime().availableProcessors()));
+		options.put("shard", "");
+		options.put("port", "");
+		for (String arg : args) {
+			String[] parts = arg.split("=", 2);
+			if (parts.length != 2 || !options.containsKey(parts[0])) {
+				throw new IllegalArgumentException("Invalid argument: " + arg);
+			}
+			options.put(parts[0], parts[1]);
+		}
+
+		Experiment.Config config = new Experiment.Config(Long.parseLong(options.get("seed")),
+				Integer.parseInt(options.get("robots")), Integer.parseInt(options.get("garbage")),
+				Boolean.parseBoolean(options.get("ensembles")), Boolean.parseBoolean(options.get("assignment")),
+				Long.parseLong(options.get("duration")));
+		int shards = Integer.parseInt(options.get("shards"));
+
+		if (options.get("shard").isEmpty()) {
+			coordinate(config, shards, args);
+		} else {
+			runShard(config, shards, Integer.parseInt(options.get("shard")), Integer.parseInt(options.get("port")));
+		}
+	}
+
+	/**
+	 * Starts the hub and the shard processes, then merges their results
+	 */
+	private static void coordinate(Experiment.Config config, int shards, String[] args) throws Exception {
+		if (shards < 1 || shards > config.numRobots) {
+			throw new IllegalArgumentException("Number of shards needs to be between 1 and number of robots");
+		}
+		new File(RESULTS_DIR).mkdirs();
+
+		long started = System.currentTimeMillis();
+		List<Process> processes = new ArrayList<>();
+		try (ShardHub hub = new ShardHub(shards, ShardBroadcastDevice.RANGE_M)) {
+			hub.start();
+
+			String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+			for (int i = 0; i < shards; ++i) {
+				List<String> command = new ArrayList<>();
+				command.add(java);
+				command.add("-cp");
+				command.add(System.getProperty("java.class.path"));
+				command.add(ShardedExperiment.class.getName());
+				for (String arg : args) {
+					command.add(arg);
+				}
+				command.add("shards=" + shards);
+				command.add("shard=" + i);
+				command.add("port=" + hub.getPort());
+				processes.add(new ProcessBuilder(command).inheritIO().start());
+			}
+
+			for (int i = 0; i < shards; ++i) {
+				if (processes.get(i).waitFor() != 0) {
+					throw new IllegalStateException("Shard " + i + " failed");
+				}
+			}
+			long epochs = hub.join();
+			System.out.println(String.format("%d shards finished %d epochs in %d ms", shards, epochs,
+					System.currentTimeMillis() - started));
+		} finally {
+			for (Process process : processes) {
+				process.destroy();
+			}
+		}
+
+		List<File> shardFiles = new ArrayList<>();
+		for (int i = 0; i < shards; ++i) {
+			shardFiles.add(getShardFile(config, i));
+		}
+		mergeStats(shardFiles, new File(RESULTS_DIR, config.getKey() + ".txt"));
+		for (File file : shardFiles) {
+			Files.delete(file.toPath());
+		}
+		System.out.println("Finished experiment " + config.getKey() + ": " + config);
+	}
+
+	private static void runShard(Experiment.Config config, int shards, int shard, int port) throws Exception {
+		PositionMonitor monitor;
+		try (ShardHub.Link link = new ShardHub.Link(port, shard)) {
+			monitor = new Experiment(config).run(null, link, shards);
+		}
+		monitor.writeStatsToFile(getShardFile(config, shard).getPath());
+	}
+
+	private static File getShardFile(Experiment.Config config, int shard) {
+		return new File(RESULTS_DIR, config.getKey() + ".shard" + shard + ".txt");
+	}
+
+	/**
+	 * Merges statistics written by the shards
+	 *
+	 * All shards write all the goals in the same order, each line holds the initial owner, the robot that reached the
+	 * goal (or none) and the time.
+	 */
+	static void mergeStats(List<File> shardFiles, File result) throws IOException {
+		List<String[]> merged = null;
+		for (File file : shardFiles) {
+			List<String> lines = Files.readAllLines(file.toPath());
+			if (merged == null) {
+				merged = new ArrayList<>();
+				for (String line : lines) {
+					merged.add(line.split(" "));
+				}
+				continue;
+			}
+			if (lines.size() != merged.size()) {
+				throw new IOException("Shard results differ in number of goals: " + file);
+			}
+			for (int i = 0; i < lines.size(); ++i) {
+				String[] goal = lines.get(i).split(" ");
+				String[] best = merged.get(i);
+				if (!goal[1].equals("none")
+						&& (best[1].equals("none") || Long.parseLong(goal[2]) < Long.parseLong(best[2]))) {
+					merged.set(i, goal);
+				}
+			}
+		}
+
+		try (BufferedWriter out = new BufferedWriter(new FileWriter(result))) {
+			for (String[] goal : merged) {
+				out.write(String.join(" ", goal));
+				out.newLine();
+			}
+		}
+	}
+}
@@ -0,0 +1,625 @@
+package cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import cz.cuni.mff.d3s.deeco.annotations.Membership;
+import cz.cuni.mff.d3s.deeco.annotations.PeriodicScheduling;
+import cz.cuni.mff.d3s.deeco.timer.CurrentTimeProvider;
+
+/**
+ * Execution time and scheduling lag of processes and ensembles
+ *
+ * Instrumented processes and knowledge exchanges call {@link #begin()} on entry and
+ * {@link #end(Class, String, String, CurrentTimeProvider, long)} when they finish. Statistics are kept per task and
+ * robot, ensembles are accounted to the member whose knowledge is exchanged.
+ *
+ * <ul>
+ * <li>Execution time is wall clock time of the invocation in microseconds.</li>
+ * <li>Lag is by how much simulation (or robot) time the invocation started later than one period after the previous
+ * one. Invocations starting earlier were triggered by knowledge change and are only counted.</li>
+ * <li>Overrun is an invocation that took longer than the period of the task.</li>
+ * <li>Missed is an invocation that started at least one whole period late.</li>
+ * </ul>
+ *
+ * Periods are taken from {@link PeriodicScheduling} annotations of the methods or the ensemble classes. Processes whose
+ * trigger period changes at runtime ({@link AdaptiveSchedule}) report the new period by
+ * {@link #setPeriod(Class, String, String, long)}. The scheduler plans each invocation by the period in force when the
+ * previous one ran, so the lag of an invocation is measured against that period.
+ *
+ * Membership conditions are evaluated for every coordinator and member pair in each period of the ensemble, so they are
+ * recorded without period, only their invocations and execution times.
+ *
+ * Values are recorded into log-linear histograms with 8 buckets per power of two, so the reported percentiles are
+ * within 12.5 % of the exact values. Histograms are updated under their own lock, which is not contended as each
+ * histogram belongs to single task of single robot. Counters are LongAdders, so readers can run in parallel with the
+ * simulation.
+ *
+ * Each run has its own metrics, the static methods work with the metrics of the run on the calling thread, see
+ * {@link RunContext}. Statistics are exposed as MXBean {@value #OBJECT_NAME} (with run number for other than the first
+ * started metrics) and optionally dumped to CSV file every DUMP_PERIOD_MS. Metrics are disabled until
+ * {@link #start(String)} is called, disabled metrics cost a single volatile read per invocation while no metrics are
+ * started in the JVM.
+ *
+ */
+public class TaskMetrics {
+	/**
+	 * Name of the registered MXBean
+	 */
+	public static final String OBJECT_NAME = "cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection:type=TaskMetrics";
+
+	/**
+	 * How often statistics are appended to the CSV file (wall clock)
+	 */
+	static final long DUMP_PERIOD_MS = 10000;
+
+	static final String CSV_HEADER = "time_ms,task,robot,period_ms,invocations,triggered,exec_p50_us,exec_p90_us,"
+			+ "exec_p99_us,exec_max_us,lag_p50_ms,lag_p99_ms,lag_max_ms,overruns,missed";
+
+	/**
+	 * Robot name used for statistics aggregated over all robots
+	 */
+	static final String ALL_ROBOTS = "*";
+
+	/**
+	 * Log-linear histogram of non-negative values
+	 */
+	static class Histogram {
+		private static final int SUB_BUCKET_BITS = 3;
+		private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+		private long[] counts = new long[SUB_BUCKETS];
+		private long max;
+
+		synchronized void record(long value) {
+			value = Math.max(0, value);
+			int index = index(value);
+			if (index >= counts.length) {
+				counts = Arrays.copyOf(counts, index + 1);
+			}
+			counts[index]++;
+			max = Math.max(max, value);
+		}
+
+		void add(Histogram other) {
+			long[] theirs;
+			long theirMax;
+			synchronized (other) {
+				theirs = other.counts.clone();
+				theirMax = other.max;
+			}
+			synchronized (this) {
+				if (theirs.length > counts.length) {
+					counts = Arrays.copyOf(counts, theirs.length);
+				}
+				for (int i = 0; i < theirs.length; ++i) {
+					counts[i] += theirs[i];
+				}
+				max = Math.max(max, theirMax);
+			}
+		}
+
+		synchronized long getMax() {
+			return max;
+		}
+
+		/**
+		 * Gets upper bound of the bucket holding the percentile
+		 *
+		 * @param percentile
+		 *            Percentile in range 0 - 100
+		 * @return Value, 0 for empty histogram
+		 */
+		synchronized long percentile(double percentile) {
+			long[] current = counts;
+			long count = 0;
+			for (long c : current) {
+				count += c;
+			}
+			long rank = (long) Math.ceil(count * percentile / 100.0);
+			long seen = 0;
+			for (int i = 0; i < current.length; ++i) {
+				seen += current[i];
+				if (seen >= rank && current[i] > 0) {
+					return Math.min(lowerBound(i + 1) - 1, max);
+				}
+			}
+			return 0;
+		}
+
+		static int index(long value) {
+			if (value < SUB_BUCKETS) {
+				return (int) value;
+			}
+			int exponent = 63 - Long.numberOfLeadingZeros(value);
+			int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+			return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + sub;
+		}
+
+		static long lowerBound(int index) {
+			if (index < SUB_BUCKETS) {
+				return index;
+			}
+			int exponent = (index - SUB_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS;
+			int sub = (index - SUB_BUCKETS) % SUB_BUCKETS;
+			return (long) (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS);
+		}
+	}
+
+	/**
+	 * Statistics of single task of single robot
+	 */
+	private static class Stats {
+		final Histogram execution = new Histogram();
+		final Histogram lag = new Histogram();
+		final LongAdder invocations = new LongAdder();
+		final LongAdder triggered = new LongAdder();
+		final LongAdder overruns = new LongAdder();
+		final LongAdder missed = new LongAdder();
+		final AtomicLong lastStartMs = new AtomicLong(-1);
+
+		/**
+		 * Current period set at runtime and the period the next invocation is planned by, -1 for the task period
+		 */
+		volatile long periodMs = -1;
+		volatile long plannedPeriodMs = -1;
+	}
+
+	/**
+	 * Single process or ensemble
+	 */
+	private static class Task {
+		final String name;
+		final long periodMs;
+		final Map<String, Stats> robots = new ConcurrentHashMap<>();
+
+		Task(Class<?> owner, String method) {
+			name = owner.getSimpleName() + "." + method;
+			periodMs = periodOf(owner, method);
+		}
+	}
+
+	/**
+	 * Summary of task statistics as exposed through JMX
+	 */
+	public static class TaskSummary {
+		private final String task, robot;
+		private final long periodMs, invocations, triggered, overruns, missed;
+		private final long execP50Us, execP90Us, execP99Us, execMaxUs;
+		private final long lagP50Ms, lagP99Ms, lagMaxMs;
+
+		TaskSummary(String task, String robot, long periodMs, Stats stats) {
+			this.task = task;
+			this.robot = robot;
+			this.periodMs = periodMs;
+			invocations = stats.invocations.sum();
+			triggered = stats.triggered.sum();
+			overruns = stats.overruns.sum();
+			missed = stats.missed.sum();
+			execP50Us = stats.execution.percentile(50);
+			execP90Us = stats.execution.percentile(90);
+			execP99Us = stats.execution.percentile(99);
+			execMaxUs = stats.execution.getMax();
+			lagP50Ms = stats.lag.percentile(50);
+			lagP99Ms = stats.lag.percentile(99);
+			lagMaxMs = stats.lag.getMax();
+		}
+
+		public String getTask() {
+			return task;
+		}
+
+		public String getRobot() {
+			return robot;
+		}
+
+		public long getPeriodMs() {
+			return periodMs;
+		}
+
+		public long getInvocations() {
+			return invocations;
+		}
+
+		public long getTriggered() {
+			return triggered;
+		}
+
+		public long getOverruns() {
+			return overruns;
+		}
+
+		public long getMissed() {
+			return missed;
+		}
+
+		public long getExecP50Us() {
+			return execP50Us;
+		}
+
+		public long getExecP90Us() {
+			return execP90Us;
+		}
+
+		public long getExecP99Us() {
+			return execP99Us;
+		}
+
+		public long getExecMaxUs() {
+			return execMaxUs;
+		}
+
+		public long getLagP50Ms() {
+			return lagP50Ms;
+		}
+
+		public long getLagP99Ms() {
+			return lagP99Ms;
+		}
+
+		public long getLagMaxMs() {
+			return lagMaxMs;
+		}
+
+		String toCsv(long timeMs) {
+			return String.format("%d,%s,%s,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d", timeMs, task, robot, periodMs,
+					invocations, triggered, execP50Us, execP90Us, execP99Us, execMaxUs, lagP50Ms, lagP99Ms, lagMaxMs,
+					overruns, missed);
+		}
+	}
+
+	/**
+	 * Management interface
+	 */
+	public interface TaskMetricsMXBean {
+		/**
+		 * Gets statistics of each task aggregated over all robots
+		 */
+		List<TaskSummary> getTasks();
+
+		/**
+		 * Gets statistics of each task of each robot
+		 */
+		List<TaskSummary> getRobotTasks();
+
+		/**
+		 * Clears all statistics
+		 */
+		void reset();
+	}
+
+	private class Bean implements TaskMetricsMXBean {
+		@Override
+		public List<TaskSummary> getTasks() {
+			return summarizeTasks();
+		}
+
+		@Override
+		public List<TaskSummary> getRobotTasks() {
+			return summarizeRobotTasks();
+		}
+
+		@Override
+		public void reset() {
+			tasks.clear();
+		}
+	}
+
+	/**
+	 * Number of started metrics in the JVM
+	 */
+	private static volatile int started = 0;
+
+	/**
+	 * Number of metrics ever started, used to name their MXBeans
+	 */
+	private static final AtomicInteger runs = new AtomicInteger();
+
+	private volatile boolean enabled = false;
+
+	private final Map<Class<?>, Map<String, Task>> tasks = new ConcurrentHashMap<>();
+
+	private Writer dump;
+	private Thread dumpThread;
+	private long startedAtMs;
+	private ObjectName objectName;
+
+	/**
+	 * Use the static methods, metrics of the run are created by its {@link RunContext}
+	 */
+	TaskMetrics() {
+	}
+
+	/**
+	 * Enables metrics and registers the MXBean
+	 *
+	 * @param csvFile
+	 *            File to append statistics to every DUMP_PERIOD_MS, null for no dump
+	 */
+	public static void start(String csvFile) throws IOException {
+		RunContext.current().getTaskMetrics().open(csvFile);
+	}
+
+	private synchronized void open(String csvFile) throws IOException {
+		if (enabled) {
+			throw new IllegalStateException("Task metrics already started");
+		}
+		try {
+			int run = runs.getAndIncrement();
+			objectName = new ObjectName(run == 0 ? OBJECT_NAME : OBJECT_NAME + ",run=" + run);
+			ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(), objectName);
+		} catch (JMException e) {
+			throw new RuntimeException("Failed to register task metrics MXBean", e);
+		}
+		startedAtMs = System.currentTimeMillis();
+
+		if (csvFile != null) {
+			dump = new BufferedWriter(new FileWriter(csvFile));
+			dump.write(CSV_HEADER + "\n");
+			dumpThread = new Thread(() -> {
+				try {
+					while (!Thread.currentThread().isInterrupted()) {
+						Thread.sleep(DUMP_PERIOD_MS);
+						writeDump();
+					}
+				} catch (InterruptedException e) {
+					// Stopped
+				} catch (IOException e) {
+					System.err.println("Task metrics dump failed: " + e);
+				}
+			}, "TaskMetrics dump");
+			dumpThread.setDaemon(true);
+			dumpThread.start();
+		}
+		enabled = true;
+		synchronized (TaskMetrics.class) {
+			started++;
+		}
+	}
+
+	/**
+	 * Disables metrics, writes final statistics and unregisters the MXBean
+	 */
+	public static void stop() throws IOException {
+		RunContext.current().getTaskMetrics().close();
+	}
+
+	private void close() throws IOException {
+		synchronized (this) {
+			if (!enabled) {
+				return;
+			}
+			enabled = false;
+		}
+		synchronized (TaskMetrics.class) {
+			started--;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+		} catch (JMException e) {
+			throw new RuntimeException("Failed to unregister task metrics MXBean", e);
+		}
+
+		if (dumpThread != null) {
+			dumpThread.interrupt();
+			try {
+				dumpThread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			dumpThread = null;
+			writeDump();
+			dump.close();
+			dump = null;
+		}
+	}
+
+	private void writeDump() throws IOException {
+		long time = System.currentTimeMillis() - startedAtMs;
+		synchronized (this) {
+			if (dump == null) {
+				return;
+			}
+			for (TaskSummary summary : summarizeTasks()) {
+				dump.write(summary.toCsv(time) + "\n");
+			}
+			for (TaskSummary summary : summarizeRobotTasks()) {
+				dump.write(summary.toCsv(time) + "\n");
+			}
+			dump.flush();
+		}
+	}
+
+	/**
+	 * Marks start of task invocation
+	 *
+	 * @return Start time to be passed to end, 0 when metrics are disabled
+	 */
+	public static long begin() {
+		return started > 0 && RunContext.current().getTaskMetrics().enabled ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Records finished task invocation
+	 *
+	 * @param owner
+	 *            Component or ensemble class
+	 * @param method
+	 *            Name of the process or exchange method
+	 * @param robot
+	 *            Robot identification
+	 * @param clock
+	 *            Time source of the robot
+	 * @param started
+	 *            Value returned by begin
+	 */
+	public static void end(Class<?> owner, String method, String robot, CurrentTimeProvider clock, long started) {
+		if (started == 0) {
+			return;
+		}
+		long executionUs = (System.nanoTime() - started) / 1000;
+		RunContext.current().getTaskMetrics().record(owner, method, robot, clock.getCurrentMilliseconds(),
+				executionUs);
+	}
+
+	/**
+	 * Reports period of periodic task changed at runtime
+	 *
+	 * @param owner
+	 *            Component or ensemble class
+	 * @param method
+	 *            Name of the process
+	 * @param robot
+	 *            Robot identification
+	 * @param periodMs
+	 *            New period of the trigger of the task
+	 */
+	public static void setPeriod(Class<?> owner, String method, String robot, long periodMs) {
+		if (started > 0) {
+			TaskMetrics metrics = RunContext.current().getTaskMetrics();
+			if (metrics.enabled) {
+				metrics.task(owner, method).robots.computeIfAbsent(robot, k -> new Stats()).periodMs = periodMs;
+			}
+		}
+	}
+
+	private Task task(Class<?> owner, String method) {
+		return tasks.computeIfAbsent(owner, k -> new ConcurrentHashMap<>()).computeIfAbsent(method,
+				k -> new Task(owner, method));
+	}
+
+	private void record(Class<?> owner, String method, String robot, long now, long executionUs) {
+		Task task = task(owner, method);
+		Stats stats = task.robots.computeIfAbsent(robot, k -> new Stats());
+
+		stats.invocations.increment();
+		stats.execution.record(executionUs);
+		long lastStartMs = stats.lastStartMs.getAndSet(now);
+		long periodMs = stats.plannedPeriodMs >= 0 ? stats.plannedPeriodMs : task.periodMs;
+		stats.plannedPeriodMs = stats.periodMs;
+		if (periodMs > 0) {
+			if (lastStartMs >= 0) {
+				long lag = now - lastStartMs - periodMs;
+				if (lag < 0) {
+					stats.triggered.increment();
+				} else {
+					stats.lag.record(lag);
+					if (lag >= periodMs) {
+						stats.missed.increment();
+					}
+				}
+			}
+			if (executionUs > periodMs * 1000) {
+				stats.overruns.increment();
+			}
+		}
+	}
+
+	/**
+	 * Gets period of the task from its PeriodicScheduling annotation
+	 *
+	 * @return Period, 0 when the task is not periodic or is a membership condition
+	 */
+	static long periodOf(Class<?> owner, String method) {
+		for (Method candidate : owner.getDeclaredMethods()) {
+			if (candidate.getName().equals(method) && candidate.isAnnotationPresent(Membership.class)) {
+				return 0;
+			}
+			PeriodicScheduling scheduling = candidate.getAnnotation(PeriodicScheduling.class);
+			if (candidate.getName().equals(method) && scheduling != null) {
+				return scheduling.period();
+			}
+		}
+		PeriodicScheduling scheduling = owner.getAnnotation(PeriodicScheduling.class);
+		return scheduling != null ? scheduling.period() : 0;
+	}
+
+	/**
+	 * Gets statistics of each task aggregated over all robots
+	 */
+	public static List<TaskSummary> getTasks() {
+		return RunContext.current().getTaskMetrics().summarizeTasks();
+	}
+
+	private List<TaskSummary> summarizeTasks() {
+		List<TaskSummary> result = new ArrayList<>();
+		for (Task task : sortedTasks()) {
+			Stats total = new Stats();
+			for (Stats stats : task.robots.values()) {
+				total.execution.add(stats.execution);
+				total.lag.add(stats.lag);
+				total.invocations.add(stats.invocations.sum());
+				total.triggered.add(stats.triggered.sum());
+				total.overruns.add(stats.overruns.sum());
+				total.missed.add(stats.missed.sum());
+			}
+			result.add(new TaskSummary(task.name, ALL_ROBOTS, task.periodMs, total));
+		}
+		return result;
+	}
+
+	/**
+	 * Gets statistics of each task of each robot
+	 */
+	public static List<TaskSummary> getRobotTasks() {
+		return RunContext.current().getTaskMetrics().summarizeRobotTasks();
+	}
+
+	private List<TaskSummary> summarizeRobotTasks() {
+		List<TaskSummary> result = new ArrayList<>();
+		for (Task task : sortedTasks()) {
+			for (Map.Entry<String, Stats> entry : new TreeMap<>(task.robots).entrySet()) {
+				long periodMs = entry.getValue().periodMs >= 0 ? entry.getValue().periodMs : task.periodMs;
+				result.add(new TaskSummary(task.name, entry.getKey(), periodMs, entry.getValue()));
+			}
+		}
+		return result;
+	}
+
+	private List<Task> sortedTasks() {
+		Map<String, Task> sorted = new TreeMap<>();
+		for (Map<String, Task> methods : tasks.values()) {
+			for (Task task : methods.values()) {
+				sorted.put(task.name, task);
+			}
+		}
+		return new ArrayList<>(sorted.values());
+	}
+
+	/**
+	 * Clears all statistics
+	 */
+	public static void reset() {
+		RunContext.current().getTaskMetrics().tasks.clear();
+	}
+
+	/**
+	 * Formats statistics aggregated over all robots, one task per line
+	 */
+	public static String report() {
+		StringBuilder builder = new StringBuilder();
+		for (TaskSummary summary : getTasks()) {
+			builder.append(String.format(
+					"%s: %d invocations, exec p50/p99/max %d/%d/%d us, lag p99 %d ms, %d overruns, %d missed%n",
+					summary.getTask(), summary.getInvocations(), summary.getExecP50Us(), summary.getExecP99Us(),
+					summary.getExecMaxUs(), summary.getLagP99Ms(), summary.getOverruns(), summary.getMissed()));
+		}
+		return builder.toString();
+	}
+}
@@ -0,0 +1,406 @@
+package cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection.CleanerRobot.State;
+
+/**
+ * Reader of trajectories written by {@link TrajectoryRecorder}
+ *
+ * Blocks are memory-mapped one at a time when needed, so files larger than the address space limit of single mapping
+ * can be read. Seeking finds the block by binary search over the block index and decodes only that block, the cost
+ * does not depend on the length of the recording.
+ *
+ * Unfinished recordings without index are supported, the index is rebuilt by skipping over block headers.
+ *
+ */
+public class TrajectoryReader implements Closeable {
+	/**
+	 * State of single robot at some time
+	 */
+	public static class Sample {
+		public final String robot;
+		public final long timeMs;
+		public final double x, y;
+		public final State state;
+
+		/**
+		 * Destination coordinates, NaN when the robot has no destination
+		 */
+		public final double destX, destY;
+
+		Sample(String robot, long timeMs, double x, double y, State state, double destX, double destY) {
+			this.robot = robot;
+			this.timeMs = timeMs;
+			this.x = x;
+			this.y = y;
+			this.state = state;
+			this.destX = destX;
+			this.destY = destY;
+		}
+
+		public boolean hasDestination() {
+			return !Double.isNaN(destX);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d %s [%.2f, %.2f] %s -> [%.2f, %.2f]", timeMs, robot, x, y, state, destX, destY);
+		}
+	}
+
+	/**
+	 * Robot state while decoding a block
+	 */
+	private static class Track {
+		String robot;
+		long timeMs;
+		int x, y;
+		int state;
+		boolean hasDestination;
+		int destX, destY;
+
+		Sample toSample() {
+			return new Sample(robot, timeMs, PositionCodec.fromFixed(x), PositionCodec.fromFixed(y),
+					State.values()[state], hasDestination ? PositionCodec.fromFixed(destX) : Double.NaN,
+					hasDestination ? PositionCodec.fromFixed(destY) : Double.NaN);
+		}
+	}
+
+	/**
+	 * Input reading mapped block
+	 */
+	private static class BufferInput extends InputStream {
+		private final ByteBuffer buffer;
+
+		BufferInput(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) {
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			length = Math.min(length, buffer.remaining());
+			buffer.get(bytes, offset, length);
+			return length;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+
+	/**
+	 * Decoder of single block
+	 */
+	private static class BlockCursor {
+		private final DataInputStream in;
+		private final List<Track> tracks = new ArrayList<>();
+		private long lastTime;
+
+		/**
+		 * Decodes keyframe of the block
+		 */
+		BlockCursor(ByteBuffer payload, long startTime) throws IOException {
+			in = new DataInputStream(new BufferInput(payload));
+			lastTime = startTime;
+
+			int count = (int) PositionCodec.readVarLong(in);
+			for (int i = 0; i < count; ++i) {
+				Track track = track((int) PositionCodec.readVarLong(in));
+				track.robot = in.readUTF();
+				track.timeMs = startTime;
+				track.x = (int) PositionCodec.readVarLong(in);
+				track.y = (int) PositionCodec.readVarLong(in);
+				track.state = (int) PositionCodec.readVarLong(in);
+				track.hasDestination = in.readByte() != 0;
+				if (track.hasDestination) {
+					track.destX = (int) PositionCodec.readVarLong(in);
+					track.destY = (int) PositionCodec.readVarLong(in);
+				}
+			}
+		}
+
+		private Track track(int index) {
+			while (tracks.size() <= index) {
+				tracks.add(new Track());
+			}
+			return tracks.get(index);
+		}
+
+		/**
+		 * Applies the next record
+		 *
+		 * @param untilMs
+		 *            Records after this time are not applied
+		 * @param changed
+		 *            Receives updated robot state, may be null
+		 * @return False when the block ended or the next record is after untilMs
+		 */
+		boolean next(long untilMs, Consumer<Track> changed) throws IOException {
+			if (in.available() == 0) {
+				return false;
+			}
+			int tag = in.readUnsignedByte();
+			if (tag == TrajectoryRecorder.TAG_DEFINE) {
+				track((int) PositionCodec.readVarLong(in)).robot = in.readUTF();
+				return true;
+			}
+			if (tag != TrajectoryRecorder.TAG_UPDATE) {
+				throw new IOException("Malformed trajectory record: " + tag);
+			}
+
+			int index = (int) PositionCodec.readVarLong(in);
+			long time = lastTime + PositionCodec.unZigZag(PositionCodec.readVarLong(in));
+			if (time > untilMs) {
+				return false;
+			}
+			lastTime = time;
+
+			Track track = track(index);
+			int flags = in.readUnsignedByte();
+			track.timeMs = time;
+			if ((flags & TrajectoryRecorder.FLAG_POSITION) != 0) {
+				track.x += PositionCodec.unZigZag(PositionCodec.readVarLong(in));
+				track.y += PositionCodec.unZigZag(PositionCodec.readVarLong(in));
+			}
+			if ((flags & TrajectoryRecorder.FLAG_STATE) != 0) {
+				track.state = (int) PositionCodec.readVarLong(in);
+			}
+			if ((flags & TrajectoryRecorder.FLAG_DESTINATION) != 0) {
+				track.hasDestination = in.readByte() != 0;
+				if (track.hasDestination) {
+					track.destX = (int) PositionCodec.readVarLong(in);
+					track.destY = (int) PositionCodec.readVarLong(in);
+				}
+			}
+			if (changed != null) {
+				changed.accept(track);
+			}
+			return true;
+		}
+
+		/**
+		 * Gets current state of all robots defined so far
+		 */
+		void collect(Map<String, Sample> result) {
+			for (Track track : tracks) {
+				if (track.robot != null) {
+					result.put(track.robot, track.toSample());
+				}
+			}
+		}
+	}
+
+	private static final int BLOCK_HEADER_SIZE = 12;
+	private static final int FOOTER_SIZE = 16;
+
+	private final FileChannel channel;
+	private long[] blockTimes;
+	private long[] blockOffsets;
+
+	public TrajectoryReader(Path file) throws IOException {
+		channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			if (channel.size() < 4 || map(0, 4).getInt() != TrajectoryRecorder.MAGIC) {
+				throw new IOException("Not a trajectory file: " + file);
+			}
+			if (!readIndex()) {
+				scanIndex();
+			}
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads index written at the end of finished recording
+	 *
+	 * @return Whenever the index was found
+	 */
+	private boolean readIndex() throws IOException {
+		long size = channel.size();
+		if (size < 4 + FOOTER_SIZE) {
+			return false;
+		}
+		ByteBuffer footer = map(size - FOOTER_SIZE, FOOTER_SIZE);
+		int count = footer.getInt();
+		long indexOffset = footer.getLong();
+		if (footer.getInt() != TrajectoryRecorder.MAGIC || indexOffset + 16l * count != size - FOOTER_SIZE) {
+			return false;
+		}
+
+		blockTimes = new long[count];
+		blockOffsets = new long[count];
+		ByteBuffer index = map(indexOffset, 16l * count);
+		for (int i = 0; i < count; ++i) {
+			blockTimes[i] = index.getLong();
+			blockOffsets[i] = index.getLong();
+		}
+		return true;
+	}
+
+	/**
+	 * Rebuilds the index by skipping over blocks
+	 *
+	 * Incomplete block at the end of the file is ignored.
+	 */
+	private void scanIndex() throws IOException {
+		long size = channel.size();
+		List<long[]> entries = new ArrayList<>();
+		long offset = 4;
+		while (offset + BLOCK_HEADER_SIZE <= size) {
+			ByteBuffer header = map(offset, BLOCK_HEADER_SIZE);
+			int length = header.getInt();
+			if (length < 0 || offset + BLOCK_HEADER_SIZE + length > size) {
+				break;
+			}
+			entries.add(new long[] { header.getLong(), offset });
+			offset += BLOCK_HEADER_SIZE + length;
+		}
+
+		blockTimes = new long[entries.size()];
+		blockOffsets = new long[entries.size()];
+		for (int i = 0; i < entries.size(); ++i) {
+			blockTimes[i] = entries.get(i)[0];
+			blockOffsets[i] = entries.get(i)[1];
+		}
+	}
+
+	private MappedByteBuffer map(long offset, long length) throws IOException {
+		return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+	}
+
+	/**
+	 * Gets number of keyframe blocks
+	 */
+	public int getBlockCount() {
+		return blockTimes.length;
+	}
+
+	/**
+	 * Gets time of the first record, or -1 for empty recording
+	 */
+	public long getStartTime() {
+		return blockTimes.length > 0 ? blockTimes[0] : -1;
+	}
+
+	/**
+	 * Gets state of all robots at given time
+	 *
+	 * Robots that were not recorded until the time are not included.
+	 *
+	 * @param timeMs
+	 *            Simulation time
+	 * @return Last known state of each robot, by robot identification
+	 */
+	public Map<String, Sample> seek(long timeMs) throws IOException {
+		Map<String, Sample> result = new LinkedHashMap<>();
+		int block = findBlock(timeMs);
+		if (block >= 0) {
+			BlockCursor cursor = openBlock(block);
+			while (cursor.next(timeMs, null)) {
+			}
+			cursor.collect(result);
+		}
+		return result;
+	}
+
+	/**
+	 * Replays recorded changes in time interval
+	 *
+	 * State of all robots at fromMs is reported first, then each change up to toMs in the order it was recorded.
+	 *
+	 * @param fromMs
+	 *            Start of the interval
+	 * @param toMs
+	 *            End of the interval, inclusive
+	 * @param consumer
+	 *            Receives the samples
+	 */
+	public void replay(long fromMs, long toMs, Consumer<Sample> consumer) throws IOException {
+		seek(fromMs).values().forEach(consumer);
+
+		Consumer<Track> changed = track -> {
+			if (track.timeMs > fromMs) {
+				consumer.accept(track.toSample());
+			}
+		};
+		for (int block = Math.max(findBlock(fromMs), 0); block < blockTimes.length && blockTimes[block] <= toMs; ++block) {
+			BlockCursor cursor = openBlock(block);
+			while (cursor.next(toMs, changed)) {
+			}
+		}
+	}
+
+	/**
+	 * Finds the last block starting at or before given time
+	 *
+	 * @return Block index, or -1 when the time precedes the recording
+	 */
+	private int findBlock(long timeMs) {
+		int low = 0, high = blockTimes.length - 1, found = -1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (blockTimes[mid] <= timeMs) {
+				found = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return found;
+	}
+
+	private BlockCursor openBlock(int block) throws IOException {
+		long offset = blockOffsets[block];
+		int length = map(offset, 4).getInt();
+		return new BlockCursor(map(offset + BLOCK_HEADER_SIZE, length), blockTimes[block]);
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Prints state of all robots at given simulation time
+	 *
+	 * @param args
+	 *            Trajectory file and time in milliseconds
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.err.println("Usage: TrajectoryReader <file.gct> <timeMs>");
+			System.exit(1);
+		}
+		try (TrajectoryReader reader = new TrajectoryReader(Paths.get(args[0]))) {
+			for (Sample sample : reader.seek(Long.parseLong(args[1])).values()) {
+				System.out.println(sample);
+			}
+		}
+	}
+}
@@ -0,0 +1,290 @@
+package cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection.CleanerRobot.State;
+import cz.cuni.mff.d3s.jdeeco.position.Position;
+
+/**
+ * Append-only recording of robot trajectories
+ *
+ * The sense process reports position, state and destination of the robot every tick. Only changes are stored: robot
+ * that stands still with the same state and destination costs nothing but a map lookup. Positions are quantized to
+ * centimeters by {@link PositionCodec}, changes are stored as varint deltas, so a typical update of moving robot takes
+ * about six bytes.
+ *
+ * The file is split into blocks. Each block starts with a keyframe holding the full state of all robots, so reading
+ * can start at any block. New block starts every KEYFRAME_INTERVAL_MS of simulation time. Blocks are written whole, a
+ * crash loses at most the last block. Index of blocks is written at the end, {@link TrajectoryReader} uses it to seek
+ * in O(log n) and rebuilds it by skipping over blocks when the recording was not finished.
+ *
+ * Layout, numbers are big-endian, varints as written by PositionCodec:
+ *
+ * <pre>
+ * int magic "GCT1"
+ * blocks: int payload length, long start time, payload
+ *   keyframe: varint robot count, for each: varint index, UTF name, robot state
+ *   records:  byte tag (DEFINE or UPDATE)
+ *     DEFINE: varint index, UTF name
+ *     UPDATE: varint index, zig-zag time delta, byte flags, [zig-zag dx, dy] [varint state] [varint dest x, y]
+ * int -1 (end of blocks)
+ * index: for each block: long start time, long offset
+ * footer: int block count, long index offset, int magic
+ * </pre>
+ *
+ * Robot state in keyframe is: varint x, y, varint state ordinal, byte has destination, [varint dest x, y].
+ *
+ * Recording is global and disabled until {@link #start(String)} is called. Disabled recording costs a single volatile
+ * read per tick.
+ *
+ */
+public class TrajectoryRecorder {
+	static final int MAGIC = 0x47435431;
+
+	/**
+	 * Simulation time in between keyframes
+	 */
+	static final long KEYFRAME_INTERVAL_MS = 10000;
+
+	static final int TAG_DEFINE = 0;
+	static final int TAG_UPDATE = 1;
+
+	static final int FLAG_POSITION = 1;
+	static final int FLAG_STATE = 2;
+	static final int FLAG_DESTINATION = 4;
+
+	/**
+	 * Last recorded state of single robot
+	 */
+	private static class Track {
+		final int index;
+		final String robot;
+		int x, y;
+		int state;
+		boolean hasDestination;
+		int destX, destY;
+
+		Track(int index, String robot) {
+			this.index = index;
+			this.robot = robot;
+		}
+	}
+
+	private static volatile boolean enabled = false;
+
+	private static FileOutputStream file;
+	private static long fileOffset;
+	private static final List<long[]> index = new ArrayList<>();
+
+	private static ByteArrayOutputStream block;
+	private static DataOutputStream blockOut;
+	private static long blockStart;
+	private static long lastTime;
+
+	private static final Map<String, Track> tracks = new HashMap<>();
+	private static final List<Track> trackList = new ArrayList<>();
+
+	/**
+	 * Checks whenever recording is running
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Starts recording to file
+	 */
+	public static synchronized void start(String filename) throws IOException {
+		if (enabled) {
+			throw new IllegalStateException("Trajectory recording already started");
+		}
+		file = new FileOutputStream(filename);
+		DataOutputStream header = new DataOutputStream(file);
+		header.writeInt(MAGIC);
+		fileOffset = 4;
+		index.clear();
+		tracks.clear();
+		trackList.clear();
+		block = null;
+		enabled = true;
+	}
+
+	/**
+	 * Records robot state
+	 *
+	 * @param robot
+	 *            Robot identification
+	 * @param timeMs
+	 *            Simulation time
+	 * @param x
+	 *            X coordinate of the robot
+	 * @param y
+	 *            Y coordinate of the robot
+	 * @param state
+	 *            Robot state
+	 * @param destination
+	 *            Current destination or null
+	 */
+	public static void record(String robot, long timeMs, double x, double y, State state, Position destination) {
+		if (!enabled) {
+			return;
+		}
+		synchronized (TrajectoryRecorder.class) {
+			if (!enabled) {
+				return;
+			}
+			try {
+				write(robot, timeMs, x, y, state, destination);
+			} catch (IOException e) {
+				System.err.println("Trajectory recording failed: " + e);
+				enabled = false;
+			}
+		}
+	}
+
+	private static void write(String robot, long timeMs, double x, double y, State state, Position destination)
+			throws IOException {
+		if (block == null || timeMs - blockStart >= KEYFRAME_INTERVAL_MS) {
+			if (block != null) {
+				writeBlock();
+			}
+			startBlock(timeMs);
+		}
+
+		int fx = PositionCodec.toFixed(x);
+		int fy = PositionCodec.toFixed(y);
+		int st = state != null ? state.ordinal() : 0;
+		boolean hasDest = destination != null;
+		int dx = hasDest ? PositionCodec.toFixed(destination.x) : 0;
+		int dy = hasDest ? PositionCodec.toFixed(destination.y) : 0;
+
+		Track track = tracks.get(robot);
+		int flags;
+		if (track == null) {
+			track = new Track(trackList.size(), robot);
+			tracks.put(robot, track);
+			trackList.add(track);
+			blockOut.writeByte(TAG_DEFINE);
+			PositionCodec.writeVarLong(blockOut, track.index);
+			blockOut.writeUTF(robot);
+			flags = FLAG_POSITION | FLAG_STATE | FLAG_DESTINATION;
+		} else {
+			flags = 0;
+			if (fx != track.x || fy != track.y) {
+				flags |= FLAG_POSITION;
+			}
+			if (st != track.state) {
+				flags |= FLAG_STATE;
+			}
+			if (hasDest != track.hasDestination || dx != track.destX || dy != track.destY) {
+				flags |= FLAG_DESTINATION;
+			}
+			if (flags == 0) {
+				return;
+			}
+		}
+
+		blockOut.writeByte(TAG_UPDATE);
+		PositionCodec.writeVarLong(blockOut, track.index);
+		PositionCodec.writeVarLong(blockOut, PositionCodec.zigZag(timeMs - lastTime));
+		blockOut.writeByte(flags);
+		if ((flags & FLAG_POSITION) != 0) {
+			PositionCodec.writeVarLong(blockOut, PositionCodec.zigZag(fx - track.x));
+			PositionCodec.writeVarLong(blockOut, PositionCodec.zigZag(fy - track.y));
+		}
+		if ((flags & FLAG_STATE) != 0) {
+			PositionCodec.writeVarLong(blockOut, st);
+		}
+		if ((flags & FLAG_DESTINATION) != 0) {
+			blockOut.writeByte(hasDest ? 1 : 0);
+			if (hasDest) {
+				PositionCodec.writeVarLong(blockOut, dx);
+				PositionCodec.writeVarLong(blockOut, dy);
+			}
+		}
+
+		track.x = fx;
+		track.y = fy;
+		track.state = st;
+		track.hasDestination = hasDest;
+		track.destX = dx;
+		track.destY = dy;
+		lastTime = timeMs;
+	}
+
+	/**
+	 * Starts new block by keyframe holding state of all known robots
+	 */
+	private static void startBlock(long timeMs) throws IOException {
+		block = new ByteArrayOutputStream();
+		blockOut = new DataOutputStream(block);
+		blockStart = timeMs;
+		lastTime = timeMs;
+
+		PositionCodec.writeVarLong(blockOut, trackList.size());
+		for (Track track : trackList) {
+			PositionCodec.writeVarLong(blockOut, track.index);
+			blockOut.writeUTF(track.robot);
+			PositionCodec.writeVarLong(blockOut, track.x);
+			PositionCodec.writeVarLong(blockOut, track.y);
+			PositionCodec.writeVarLong(blockOut, track.state);
+			blockOut.writeByte(track.hasDestination ? 1 : 0);
+			if (track.hasDestination) {
+				PositionCodec.writeVarLong(blockOut, track.destX);
+				PositionCodec.writeVarLong(blockOut, track.destY);
+			}
+		}
+	}
+
+	/**
+	 * Writes current block to the file
+	 */
+	private static void writeBlock() throws IOException {
+		blockOut.flush();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(block.size() + 12);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(block.size());
+		out.writeLong(blockStart);
+		block.writeTo(out);
+		out.flush();
+
+		index.add(new long[] { blockStart, fileOffset });
+		bytes.writeTo(file);
+		file.flush();
+		fileOffset += bytes.size();
+	}
+
+	/**
+	 * Writes the last block and the index and closes the file
+	 */
+	public static synchronized void stop() throws IOException {
+		if (!enabled) {
+			return;
+		}
+		enabled = false;
+		if (block != null) {
+			writeBlock();
+		}
+
+		DataOutputStream out = new DataOutputStream(file);
+		out.writeInt(-1);
+		long indexOffset = fileOffset + 4;
+		for (long[] entry : index) {
+			out.writeLong(entry[0]);
+			out.writeLong(entry[1]);
+		}
+		out.writeInt(index.size());
+		out.writeLong(indexOffset);
+		out.writeInt(MAGIC);
+		out.close();
+		file = null;
+		block = null;
+	}
+}
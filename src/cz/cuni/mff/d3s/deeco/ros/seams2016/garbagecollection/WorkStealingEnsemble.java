@@ -0,0 +1,223 @@
+package cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import cz.cuni.mff.d3s.deeco.annotations.Ensemble;
+import cz.cuni.mff.d3s.deeco.annotations.In;
+import cz.cuni.mff.d3s.deeco.annotations.InOut;
+import cz.cuni.mff.d3s.deeco.annotations.KnowledgeExchange;
+import cz.cuni.mff.d3s.deeco.annotations.Membership;
+import cz.cuni.mff.d3s.deeco.annotations.PeriodicScheduling;
+import cz.cuni.mff.d3s.deeco.model.runtime.api.ComponentInstance;
+import cz.cuni.mff.d3s.deeco.model.runtime.api.ComponentProcess;
+import cz.cuni.mff.d3s.deeco.task.ParamHolder;
+import cz.cuni.mff.d3s.deeco.timer.CurrentTimeProvider;
+import cz.cuni.mff.d3s.jdeeco.position.Position;
+
+/**
+ * This ensemble moves garbage from loaded robots to idle ones
+ * 
+ * Each robot publishes its load (route length) and offers the goals it would visit last. Idle robot (member) collects
+ * offers of loaded robots (coordinators) in range and keeps the offer of the most loaded one. The idle robot then steals
+ * the offered goals nearest to it in CleanerRobot.stealGoals process.
+ * 
+ * Stealing uses the same handshake as goal adoption. The thief adds the goals to its route and to its adopted
+ * destinations. AdoptedDestinationRemoveEnsemble then removes them from the route of the victim.
+ * 
+ * No goal is lost: a goal is removed from a route only when some other robot published it as adopted, which happens
+ * only after the goal was added to that robot's route. When more robots adopted the same goal (two thieves stole the
+ * same goal, or stolen goal is stolen again) the most recent adoption wins, ties are broken by lower robot id. The
+ * robot holding the winning adoption never removes the goal, so there is always a robot keeping the goal until it is
+ * reached.
+ * 
+ * No goal is duplicated for long: all other robots holding the goal remove it once they see the winning adoption. This
+ * needs them to be in communication range before the adoption expires. If they are not, the goal is visited twice,
+ * which costs time but is still correct.
+ * 
+ * Stealing is rate limited. Only robots with empty route steal, at most half of the victim's load and at most
+ * MAX_STEAL_COUNT goals at once, and not more often than once per STEAL_BACKOFF_MS. Victim's current destination is never
+ * offered.
+ * 
+ * Offer is published with every knowledge broadcast of the robot, so it is a small fixed-size list, see
+ * {@link OfferedGoals}. Work stealing is optional, without this ensemble deployed the robots do not offer goals.
+ *
+ */
+@Ensemble
+@PeriodicScheduling(period = 3000)
+public class WorkStealingEnsemble {
+	/**
+	 * Maximum distance in between thief and victim
+	 */
+	static final double STEAL_RANGE_M = 15.0;
+
+	/**
+	 * Robots with shorter routes do not offer goals
+	 */
+	static final int MIN_LOAD_TO_OFFER = 3;
+
+	/**
+	 * Maximal number of offered goals, thief takes at most MAX_STEAL_COUNT of them
+	 */
+	static final int OFFER_SIZE = 4;
+
+	/**
+	 * Offers older than this are not used
+	 */
+	static final long OFFER_TTL_MS = 6000;
+
+	/**
+	 * Maximal number of goals stolen at once
+	 */
+	static final int MAX_STEAL_COUNT = 4;
+
+	/**
+	 * Minimum delay in between steals of single robot
+	 */
+	static final long STEAL_BACKOFF_MS = 10000;
+
+	/**
+	 * Goals offered by loaded robot as received by the idle one
+	 */
+	public static class Offer implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		public final String robot;
+		public final int load;
+		public final List<Position> goals;
+		public final long receivedAtMs;
+
+		public Offer(String robot, int load, List<Position> goals, long receivedAtMs) {
+			this.robot = robot;
+			this.load = load;
+			this.goals = goals;
+			this.receivedAtMs = receivedAtMs;
+		}
+	}
+
+	/**
+	 * Ensemble membership
+	 * 
+	 * Returns true when the member is idle and the coordinator in range offers goals. Replicas of coordinators that did
+	 * not publish recently are ignored, see {@link ReplicaCache}.
+	 */
+	@Membership
+	public static boolean membership(@In("coord.id") String coordId, @In("coord.position") Position coordPosition,
+			@In("coord.load") Integer coordLoad, @In("coord.offeredGoals") OfferedGoals coordOffered,
+			@In("member.id") String memberId, @In("member.position") Position memberPosition,
+			@In("member.route") List<Position> memberRoute, @In("coord.timestamp") Long coordTimestamp,
+			@In("member.clock") CurrentTimeProvider clock) {
+		long started = TaskMetrics.begin();
+		try {
+			EnsembleCounters.increment(WorkStealingEnsemble.class, "evaluated");
+
+			if (coordId.equals(memberId) || !memberRoute.isEmpty() || coordLoad < MIN_LOAD_TO_OFFER
+					|| coordOffered.isEmpty() || !ReplicaCache.isFresh(coordTimestamp, clock)) {
+				return false;
+			}
+
+			return coordPosition.euclidDistanceTo(memberPosition) < STEAL_RANGE_M;
+		} finally {
+			TaskMetrics.end(WorkStealingEnsemble.class, "membership", memberId, clock, started);
+		}
+	}
+
+	/**
+	 * Knowledge exchange
+	 * 
+	 * Keeps the offer of the most loaded coordinator. Expired offer or newer offer of the same coordinator is always
+	 * replaced.
+	 */
+	@KnowledgeExchange
+	public static void exchange(@In("member.clock") CurrentTimeProvider clock, @In("coord.id") String coordId,
+			@In("coord.load") Integer coordLoad, @In("coord.offeredGoals") OfferedGoals coordOffered,
+			@In("member.id") String memberId, @InOut("member.stealOffer") ParamHolder<Offer> stealOffer) {
+		if (DecisionLog.isEnabled()) {
+			DecisionLog.record(WorkStealingEnsemble.class, "exchange", clock, coordId, coordLoad, coordOffered,
+					memberId, stealOffer);
+		}
+
+		long started = TaskMetrics.begin();
+		try {
+			long now = clock.getCurrentMilliseconds();
+			Offer current = stealOffer.value;
+			if (current == null || now - current.receivedAtMs > OFFER_TTL_MS || coordLoad > current.load
+					|| coordId.equals(current.robot)) {
+				if (EventLog.isEnabled(EventLog.Kind.StealOffer)) {
+					EventLog.log(EventLog.Kind.StealOffer, now, memberId, null, null,
+							String.format("%s load %d", coordId, coordLoad));
+				}
+				stealOffer.value = new Offer(coordId, coordLoad, coordOffered, now);
+			}
+		} finally {
+			TaskMetrics.end(WorkStealingEnsemble.class, "exchange", memberId, clock, started);
+		}
+	}
+
+	/**
+	 * Deactivates the processes of the robot that offer and steal goals
+	 * 
+	 * Used when this ensemble is not deployed, so that the robot does not compute offers nobody uses.
+	 * 
+	 * @param component
+	 *            Deployed CleanerRobot component
+	 */
+	public static void disable(ComponentInstance component) {
+		for (ComponentProcess process : component.getComponentProcesses()) {
+			if (process.getName().equals("offerGoals") || process.getName().equals("stealGoals")) {
+				process.setActive(false);
+			}
+		}
+	}
+
+	/**
+	 * Selects goals to offer to idle robots
+	 * 
+	 * The route is ordered as a tour, so the goals at its end are the ones the robot would reach last. The first
+	 * way-point and the current destination are never offered.
+	 * 
+	 * @return Offered goals, empty when the robot is not loaded enough
+	 */
+	static OfferedGoals selectOffered(Route route, Position destination) {
+		List<Position> offered = new ArrayList<>(OFFER_SIZE);
+		if (route.size() < MIN_LOAD_TO_OFFER) {
+			return new OfferedGoals();
+		}
+		for (int i = route.size() - 1; i > 0 && offered.size() < OFFER_SIZE; --i) {
+			Position pos = route.get(i);
+			if (destination == null || pos.euclidDistanceTo(destination) >= CleanerRobot.SAME_POS_THRESH_M) {
+				offered.add(pos);
+			}
+		}
+		return new OfferedGoals(offered);
+	}
+
+	/**
+	 * Selects goals to steal from offer
+	 * 
+	 * @param offer
+	 *            Offer of the victim
+	 * @param position
+	 *            Position of the thief
+	 * @param adopted
+	 *            Destinations already adopted by the thief, these are not stolen again
+	 * @return Goals nearest to the thief, at most half of victim's load and at most MAX_STEAL_COUNT
+	 */
+	static Route selectStolen(Offer offer, Position position, AdoptedDestinations adopted) {
+		Route candidates = new Route();
+		for (Position pos : offer.goals) {
+			if (adopted.getAdoptionTime(pos) < 0) {
+				candidates.add(pos);
+			}
+		}
+		candidates.sort((a, b) -> Double.compare(a.euclidDistanceTo(position), b.euclidDistanceTo(position)));
+
+		int count = Math.min(MAX_STEAL_COUNT, Math.min(offer.load / 2, candidates.size()));
+		Route stolen = new Route();
+		for (int i = 0; i < count; ++i) {
+			stolen.add(candidates.get(i));
+		}
+		return stolen;
+	}
+}
@@ -0,0 +1,101 @@
+package cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import cz.cuni.mff.d3s.deeco.task.ParamHolder;
+import cz.cuni.mff.d3s.deeco.timer.CurrentTimeProvider;
+import cz.cuni.mff.d3s.jdeeco.position.Position;
+
+/**
+ * Membership and exchange find the same way-points as the original scan of route times adopted destinations
+ */
+public class AdoptedDestinationRemoveEnsembleTest {
+	private static final long NOW_MS = 1000000;
+
+	private final CurrentTimeProvider clock = () -> NOW_MS;
+
+	@Test
+	public void removalsMatchLinearScan() {
+		for (int seed = 0; seed < 200; ++seed) {
+			Random random = new Random(seed);
+			List<Position> positions = PositionGridTest.randomPositions(random, CleanerRobot.SAME_POS_THRESH_M, 40);
+			Map<Position, Long> coordTimes = new HashMap<>();
+			Map<Position, Long> memberTimes = new HashMap<>();
+			AdoptedDestinations coordAdopted = randomAdoptions(random, positions, coordTimes);
+			AdoptedDestinations memberAdopted = randomAdoptions(random, positions, memberTimes);
+			List<Position> route = new ArrayList<>();
+			int length = random.nextInt(30);
+			for (int i = 0; i < length; ++i) {
+				route.add(PositionGridTest.near(random, positions, CleanerRobot.SAME_POS_THRESH_M));
+			}
+			String coordId = "Collector" + random.nextInt(3);
+			String memberId = coordId.equals("Collector0") ? "Collector1" : "Collector0";
+
+			List<Position> expected = new ArrayList<>();
+			for (Position mbrPos : route) {
+				if (!linearScan(mbrPos, coordId, coordTimes, memberId, memberTimes)) {
+					expected.add(mbrPos);
+				}
+			}
+
+			boolean member = AdoptedDestinationRemoveEnsemble.membership(coordId, coordAdopted, memberId, route,
+					memberAdopted, new HashMap<>(), NOW_MS, clock,
+					new EnsembleGuard(AdoptedDestinationRemoveEnsemble.class));
+			assertEquals(expected.size() != route.size(), member);
+
+			ParamHolder<List<Position>> memberRoute = new ParamHolder<>(new ArrayList<>(route));
+			AdoptedDestinationRemoveEnsemble.exchange(coordId, memberId, clock, coordAdopted, memberAdopted,
+					memberRoute, new ParamHolder<>(new HashMap<>()));
+			assertEquals(expected, memberRoute.value);
+		}
+	}
+
+	/**
+	 * Adopts random positions, records their adoption times into times
+	 */
+	private static AdoptedDestinations randomAdoptions(Random random, List<Position> positions,
+			Map<Position, Long> times) {
+		AdoptedDestinations adopted = new AdoptedDestinations();
+		int count = random.nextInt(AdoptedDestinations.CAPACITY + 1);
+		long time = NOW_MS - AdoptedDestinations.TTL_MS;
+		for (int i = 0; i < count; ++i) {
+			time += random.nextInt(2) * AdoptedDestinations.TIME_RESOLUTION_MS;
+			Position position = PositionGridTest.near(random, positions, CleanerRobot.SAME_POS_THRESH_M);
+			adopted.add(position, time);
+			times.merge(position, time, Math::max);
+		}
+		return adopted;
+	}
+
+	/**
+	 * Original nested loop of the membership, with the adoption time tie-break
+	 */
+	private static boolean linearScan(Position mbrPos, String coordId, Map<Position, Long> coordTimes,
+			String memberId, Map<Position, Long> memberTimes) {
+		long coordTime = -1;
+		for (Map.Entry<Position, Long> cord : coordTimes.entrySet()) {
+			if (mbrPos.euclidDistanceTo(cord.getKey()) < CleanerRobot.SAME_POS_THRESH_M) {
+				coordTime = Math.max(coordTime, cord.getValue());
+			}
+		}
+		if (coordTime < 0) {
+			return false;
+		}
+
+		long memberTime = -1;
+		for (Map.Entry<Position, Long> mbr : memberTimes.entrySet()) {
+			if (mbrPos.euclidDistanceTo(mbr.getKey()) < CleanerRobot.SAME_POS_THRESH_M) {
+				memberTime = Math.max(memberTime, mbr.getValue());
+			}
+		}
+		return memberTime < 0 || coordTime > memberTime || (coordTime == memberTime && coordId.compareTo(memberId) < 0);
+	}
+}
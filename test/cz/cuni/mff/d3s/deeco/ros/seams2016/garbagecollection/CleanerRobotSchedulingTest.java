@@ -0,0 +1,194 @@
+package cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import org.junit.Test;
+
+import cz.cuni.mff.d3s.deeco.annotations.In;
+import cz.cuni.mff.d3s.deeco.annotations.InOut;
+import cz.cuni.mff.d3s.deeco.annotations.Out;
+import cz.cuni.mff.d3s.deeco.annotations.PeriodicScheduling;
+import cz.cuni.mff.d3s.deeco.annotations.Process;
+import cz.cuni.mff.d3s.deeco.annotations.TriggerOnChange;
+import cz.cuni.mff.d3s.deeco.task.ParamHolder;
+import cz.cuni.mff.d3s.jdeeco.position.Position;
+import cz.cuni.mff.d3s.jdeeco.ros.Positioning;
+import cz.cuni.mff.d3s.jdeeco.ros.datatypes.Orientation;
+import cz.cuni.mff.d3s.jdeeco.ros.datatypes.PoseWithCovariance;
+import cz.cuni.mff.d3s.jdeeco.ros.datatypes.ROSPosition;
+
+/**
+ * Invocations of robot processes scheduled the way the jDEECo runtime does it
+ *
+ * Each process runs at the period of its PeriodicScheduling annotation. Every out and inout parameter is written back
+ * after the invocation and triggers all processes with TriggerOnChange on that knowledge, whether the value changed or
+ * not.
+ */
+public class CleanerRobotSchedulingTest {
+	private static final long RUN_MS = 60000;
+	private static final long TICK_MS = 10;
+
+	/**
+	 * Process of the robot with its period and knowledge
+	 */
+	private static class RobotProcess {
+		final Method method;
+		final long periodMs;
+		final Set<String> triggers = new HashSet<>();
+		final Set<String> written = new HashSet<>();
+		long nextMs = 0;
+		int invocations = 0;
+
+		RobotProcess(Method method) {
+			this.method = method;
+			this.periodMs = method.getAnnotation(PeriodicScheduling.class).period();
+			Annotation[][] annotations = method.getParameterAnnotations();
+			for (int i = 0; i < annotations.length; ++i) {
+				boolean trigger = false;
+				String path = null;
+				for (Annotation annotation : annotations[i]) {
+					if (annotation instanceof TriggerOnChange) {
+						trigger = true;
+					} else if (annotation instanceof In) {
+						path = ((In) annotation).value();
+					} else if (annotation instanceof Out) {
+						path = ((Out) annotation).value();
+						written.add(path);
+					} else if (annotation instanceof InOut) {
+						path = ((InOut) annotation).value();
+						written.add(path);
+					}
+				}
+				if (trigger) {
+					triggers.add(path);
+				}
+			}
+		}
+	}
+
+	private long now;
+
+	@Test
+	public void standingRobotRunsAtBasePeriods() throws Exception {
+		Position standing = new Position(5, 5, 0);
+		int[] routeScans = { 0 };
+		Route route = new Route(Collections.singletonList(standing)) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public int removeWithin(double x, double y, double threshold, Consumer<Position> removed) {
+				routeScans[0]++;
+				return super.removeWithin(x, y, threshold, removed);
+			}
+		};
+		CleanerRobot robot = new CleanerRobot("Collector0", standingAt(standing), () -> now, route,
+				new PositionMonitor(() -> now), null);
+		robot.schedule = null;
+
+		Map<String, RobotProcess> processes = run(robot);
+
+		// The only goal is reached at once, then the robot just stands
+		assertTrue(robot.route.isEmpty());
+		assertNull(robot.destination);
+		RobotProcess setDestination = processes.get("setDestination");
+		assertEquals(RUN_MS / setDestination.periodMs, (long) setDestination.invocations);
+		RobotProcess driveRobot = processes.get("driveRobot");
+		assertEquals(RUN_MS / driveRobot.periodMs, (long) driveRobot.invocations);
+		assertEquals("Route scanned again while standing", 1, routeScans[0]);
+	}
+
+	/**
+	 * Runs all processes of the robot for RUN_MS
+	 *
+	 * @return Processes by name
+	 */
+	private Map<String, RobotProcess> run(CleanerRobot robot) throws Exception {
+		Map<String, RobotProcess> processes = new HashMap<>();
+		for (Method method : CleanerRobot.class.getDeclaredMethods()) {
+			if (method.isAnnotationPresent(Process.class)) {
+				processes.put(method.getName(), new RobotProcess(method));
+			}
+		}
+
+		List<RobotProcess> ordered = new ArrayList<>(processes.values());
+		ordered.sort((a, b) -> a.method.getName().compareTo(b.method.getName()));
+		for (now = 0; now < RUN_MS; now += TICK_MS) {
+			Deque<RobotProcess> ready = new ArrayDeque<>();
+			for (RobotProcess process : ordered) {
+				if (process.nextMs <= now) {
+					process.nextMs += process.periodMs;
+					ready.add(process);
+				}
+			}
+			while (!ready.isEmpty()) {
+				RobotProcess process = ready.poll();
+				invoke(robot, process);
+				for (RobotProcess other : ordered) {
+					if (!Collections.disjoint(other.triggers, process.written) && !ready.contains(other)) {
+						ready.add(other);
+					}
+				}
+			}
+		}
+		return processes;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void invoke(CleanerRobot robot, RobotProcess process) throws Exception {
+		Annotation[][] annotations = process.method.getParameterAnnotations();
+		Object[] args = new Object[annotations.length];
+		String[] paths = new String[annotations.length];
+		for (int i = 0; i < annotations.length; ++i) {
+			for (Annotation annotation : annotations[i]) {
+				if (annotation instanceof In) {
+					args[i] = knowledge(robot, ((In) annotation).value());
+				} else if (annotation instanceof Out) {
+					paths[i] = ((Out) annotation).value();
+					args[i] = new ParamHolder<>();
+				} else if (annotation instanceof InOut) {
+					paths[i] = ((InOut) annotation).value();
+					args[i] = new ParamHolder<>(knowledge(robot, paths[i]));
+				}
+			}
+		}
+		process.method.invoke(null, args);
+		process.invocations++;
+		for (int i = 0; i < args.length; ++i) {
+			if (paths[i] != null) {
+				CleanerRobot.class.getField(paths[i]).set(robot, ((ParamHolder<Object>) args[i]).value);
+			}
+		}
+	}
+
+	private static Object knowledge(CleanerRobot robot, String path) throws Exception {
+		return CleanerRobot.class.getField(path).get(robot);
+	}
+
+	/**
+	 * Positioning of a robot that does not move
+	 */
+	private static Positioning standingAt(Position position) {
+		return new Positioning() {
+			@Override
+			public PoseWithCovariance getPoseWithCovariance() {
+				return new PoseWithCovariance(new ROSPosition(position.x, position.y, 0), new Orientation(0, 0, 0, 1),
+						new double[36]);
+			}
+		};
+	}
+}
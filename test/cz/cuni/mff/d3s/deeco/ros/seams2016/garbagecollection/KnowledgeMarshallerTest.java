@@ -0,0 +1,189 @@
+package cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+import cz.cuni.mff.d3s.deeco.knowledge.ValueSet;
+import cz.cuni.mff.d3s.deeco.model.runtime.RuntimeModelHelper;
+import cz.cuni.mff.d3s.deeco.network.KnowledgeData;
+import cz.cuni.mff.d3s.deeco.network.KnowledgeMetaData;
+import cz.cuni.mff.d3s.jdeeco.position.Position;
+
+/**
+ * Size and fidelity of the compact knowledge format
+ */
+public class KnowledgeMarshallerTest {
+	/**
+	 * Extent of the corridor map
+	 */
+	private static final double MAP_WIDTH_M = 30, MAP_HEIGHT_M = 15;
+
+	/**
+	 * Robot ids and times of a long run of the largest fleet
+	 */
+	private static final String ID = "Collector999";
+	private static final long NOW_MS = 4 * 3600 * 1000;
+
+	private final KnowledgeMarshaller marshaller = new KnowledgeMarshaller();
+
+	@Test
+	public void worstCaseFitsFrame() throws IOException {
+		byte[] data = marshaller.marshall(worstCase());
+		assertTrue("Knowledge takes " + data.length + " bytes", data.length <= KnowledgeMarshaller.FRAME_BYTES);
+	}
+
+	@Test
+	public void roundTripKeepsKnowledge() throws Exception {
+		KnowledgeData original = worstCase();
+		KnowledgeData copy = (KnowledgeData) marshaller.unmarshall(marshaller.marshall(original));
+
+		KnowledgeMetaData meta = copy.getMetaData();
+		assertEquals(ID, meta.componentId);
+		assertEquals(original.getMetaData().sender, meta.sender);
+		assertEquals(original.getMetaData().versionId, meta.versionId);
+		assertEquals(original.getMetaData().createdAt, meta.createdAt);
+		assertEquals(original.getMetaData().hopCount, meta.hopCount);
+
+		ValueSet knowledge = copy.getKnowledge();
+		assertEquals(ID, value(knowledge, "id"));
+		assertSame((Position) value(original.getKnowledge(), "position"), (Position) value(knowledge, "position"));
+		assertNull(value(knowledge, "destination"));
+		assertEquals(CleanerRobot.State.Blocked, value(knowledge, "state"));
+		assertEquals(NOW_MS - 950, value(knowledge, "timestamp"));
+		assertEquals(123, value(knowledge, "load"));
+
+		AdoptedDestinations adopted = (AdoptedDestinations) value(original.getKnowledge(), "adoptedDestinations");
+		AdoptedDestinations adoptedCopy = (AdoptedDestinations) value(knowledge, "adoptedDestinations");
+		assertEquals(adopted.getVersion(), adoptedCopy.getVersion());
+		assertEquals(adopted.size(), adoptedCopy.size());
+		Iterator<Position> it = adoptedCopy.iterator();
+		for (Position position : adopted) {
+			Position copied = it.next();
+			assertSame(position, copied);
+			assertEquals(adopted.getAdoptionTime(position), adoptedCopy.getAdoptionTime(copied));
+		}
+
+		OfferedGoals offered = (OfferedGoals) value(original.getKnowledge(), "offeredGoals");
+		OfferedGoals offeredCopy = (OfferedGoals) value(knowledge, "offeredGoals");
+		assertEquals(offered.size(), offeredCopy.size());
+		for (int i = 0; i < offered.size(); ++i) {
+			assertSame(offered.get(i), offeredCopy.get(i));
+		}
+	}
+
+	@Test
+	public void unknownKnowledgeIsSerialized() throws Exception {
+		KnowledgeData original = worstCase();
+		original.getKnowledge().setValue(RuntimeModelHelper.createKnowledgePath("other"), "value");
+		byte[] data = marshaller.marshall(original);
+		KnowledgeData copy = (KnowledgeData) marshaller.unmarshall(data);
+		assertEquals("value", value(copy.getKnowledge(), "other"));
+		assertEquals(ID, value(copy.getKnowledge(), "id"));
+	}
+
+	@Test
+	public void longStringsAreSerialized() throws Exception {
+		// Fewer characters than MAX_STRING_BYTES, but more bytes in UTF-8
+		StringBuilder id = new StringBuilder();
+		while (id.length() < 200) {
+			id.append("Sb\u011Bra\u010D");
+		}
+		KnowledgeData original = worstCase();
+		original.getKnowledge().setValue(RuntimeModelHelper.createKnowledgePath("id"), id.toString());
+		byte[] data = marshaller.marshall(original);
+		KnowledgeData copy = (KnowledgeData) marshaller.unmarshall(data);
+		assertEquals(id.toString(), value(copy.getKnowledge(), "id"));
+
+		original = worstCase();
+		KnowledgeMetaData meta = original.getMetaData();
+		meta = new KnowledgeMetaData(id.toString(), meta.versionId, meta.sender, meta.createdAt, meta.hopCount);
+		original = new KnowledgeData(original.getKnowledge(), new ValueSet(), new ValueSet(), meta);
+		copy = (KnowledgeData) marshaller.unmarshall(marshaller.marshall(original));
+		assertEquals(id.toString(), copy.getMetaData().componentId);
+		assertEquals(ID, value(copy.getKnowledge(), "id"));
+	}
+
+	@Test
+	public void adoptionTimesStayComparable() throws Exception {
+		Position goal = new CompactPosition(5, 5);
+		AdoptedDestinations first = new AdoptedDestinations();
+		AdoptedDestinations second = new AdoptedDestinations();
+		first.add(goal, NOW_MS + 1250);
+		second.add(goal, NOW_MS + 1230);
+
+		AdoptedDestinations firstReplica = transfer("Collector1", first);
+		AdoptedDestinations secondReplica = transfer("Collector2", second);
+		boolean firstRemoves = AdoptedDestinationRemoveEnsemble.shouldRemove(goal, "Collector2", secondReplica,
+				"Collector1", first);
+		boolean secondRemoves = AdoptedDestinationRemoveEnsemble.shouldRemove(goal, "Collector1", firstReplica,
+				"Collector2", second);
+		assertTrue("Exactly one robot keeps the goal", firstRemoves != secondRemoves);
+	}
+
+	/**
+	 * Knowledge of a robot with full collections spread over the whole map
+	 */
+	private static KnowledgeData worstCase() {
+		ValueSet knowledge = new ValueSet();
+		knowledge.setValue(RuntimeModelHelper.createKnowledgePath("id"), ID);
+		knowledge.setValue(RuntimeModelHelper.createKnowledgePath("position"),
+				new CompactPosition(MAP_WIDTH_M, MAP_HEIGHT_M));
+		knowledge.setValue(RuntimeModelHelper.createKnowledgePath("destination"), null);
+		knowledge.setValue(RuntimeModelHelper.createKnowledgePath("state"), CleanerRobot.State.Blocked);
+		knowledge.setValue(RuntimeModelHelper.createKnowledgePath("timestamp"), NOW_MS - 950);
+		knowledge.setValue(RuntimeModelHelper.createKnowledgePath("load"), 123);
+
+		// Many adoptions in the past, then full capacity spread over the TTL
+		AdoptedDestinations adopted = new AdoptedDestinations();
+		for (int i = 0; i < 1000; ++i) {
+			adopted.add(corner(i), 0);
+		}
+		for (int i = 0; i < AdoptedDestinations.CAPACITY; ++i) {
+			adopted.add(corner(i), NOW_MS - AdoptedDestinations.TTL_MS
+					+ i * AdoptedDestinations.TTL_MS / (AdoptedDestinations.CAPACITY - 1));
+		}
+		knowledge.setValue(RuntimeModelHelper.createKnowledgePath("adoptedDestinations"), adopted);
+
+		List<Position> offered = new ArrayList<>();
+		for (int i = 0; i < WorkStealingEnsemble.OFFER_SIZE; ++i) {
+			offered.add(corner(i));
+		}
+		knowledge.setValue(RuntimeModelHelper.createKnowledgePath("offeredGoals"), new OfferedGoals(offered));
+
+		KnowledgeMetaData meta = new KnowledgeMetaData(ID, 1 << 20, "999", NOW_MS, 1);
+		return new KnowledgeData(knowledge, new ValueSet(), new ValueSet(), meta);
+	}
+
+	/**
+	 * Alternates opposite corners of the map, so that the deltas are the largest
+	 */
+	private static Position corner(int i) {
+		return i % 2 == 0 ? new CompactPosition(0, 0) : new CompactPosition(MAP_WIDTH_M, MAP_HEIGHT_M);
+	}
+
+	private AdoptedDestinations transfer(String id, AdoptedDestinations adopted) throws Exception {
+		ValueSet knowledge = new ValueSet();
+		knowledge.setValue(RuntimeModelHelper.createKnowledgePath("adoptedDestinations"), adopted);
+		KnowledgeData data = new KnowledgeData(knowledge, new ValueSet(), new ValueSet(),
+				new KnowledgeMetaData(id, 1, id, NOW_MS, 1));
+		KnowledgeData copy = (KnowledgeData) marshaller.unmarshall(marshaller.marshall(data));
+		return (AdoptedDestinations) value(copy.getKnowledge(), "adoptedDestinations");
+	}
+
+	private static Object value(ValueSet knowledge, String path) {
+		return knowledge.getValue(RuntimeModelHelper.createKnowledgePath(path));
+	}
+
+	private static void assertSame(Position expected, Position actual) {
+		assertEquals(expected.x, actual.x, 0);
+		assertEquals(expected.y, actual.y, 0);
+	}
+}
@@ -0,0 +1,93 @@
+package cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.Test;
+
+import cz.cuni.mff.d3s.jdeeco.position.Position;
+
+/**
+ * Map loaded from PGM image and positions generated on its free cells
+ */
+public class OccupancyPositionGeneratorTest {
+	/**
+	 * Map image, first row is the top of the map, '#' occupied, '?' unknown, '.' free
+	 *
+	 * Free cells on the right are not connected to the room on the left, no positions are generated there.
+	 */
+	private static final String[] IMAGE = {
+			"?#######",
+			"#....#.#",
+			"#....###",
+			"#....#.#",
+			"########" };
+
+	private static final double RESOLUTION_M = 0.5;
+	private static final double ORIGIN_X = -1, ORIGIN_Y = 2;
+
+	@Test
+	public void pgmMatchesImage() throws IOException {
+		OccupancyGrid grid = load();
+		assertEquals(IMAGE[0].length(), grid.getWidth());
+		assertEquals(IMAGE.length, grid.getHeight());
+		for (int row = 0; row < IMAGE.length; ++row) {
+			for (int cx = 0; cx < grid.getWidth(); ++cx) {
+				int cy = IMAGE.length - 1 - row;
+				assertEquals("Cell " + cx + ", " + cy, IMAGE[row].charAt(cx) == '.', grid.isFree(cx, cy));
+				assertEquals(IMAGE[row].charAt(cx) == '.',
+						grid.isFreeAt(ORIGIN_X + (cx + 0.5) * RESOLUTION_M, ORIGIN_Y + (cy + 0.5) * RESOLUTION_M));
+			}
+		}
+	}
+
+	@Test
+	public void fillMatchesSingleGeneration() throws IOException {
+		OccupancyGrid grid = load();
+		double[] xs = new double[1000];
+		double[] ys = new double[xs.length];
+		new OccupancyPositionGenerator(new Random(42), grid).fill(xs, ys);
+
+		OccupancyPositionGenerator single = new OccupancyPositionGenerator(new Random(42), grid);
+		for (int i = 0; i < xs.length; ++i) {
+			// Only the room on the left, cells 1..4 by 1..3
+			assertTrue(xs[i] >= ORIGIN_X + RESOLUTION_M && xs[i] < ORIGIN_X + 5 * RESOLUTION_M);
+			assertTrue(ys[i] >= ORIGIN_Y + RESOLUTION_M && ys[i] < ORIGIN_Y + 4 * RESOLUTION_M);
+			assertTrue(grid.isFreeAt(xs[i], ys[i]));
+
+			// Single positions are compact, with the same coordinates as a compact position of the bulk ones
+			Position expected = new CompactPosition(xs[i], ys[i]);
+			Position position = single.getRandomPosition();
+			assertEquals(expected.x, position.x, 0);
+			assertEquals(expected.y, position.y, 0);
+		}
+	}
+
+	/**
+	 * Writes the image as binary PGM with a comment in the header, as map_server saves it, and loads it
+	 */
+	private static OccupancyGrid load() throws IOException {
+		ByteArrayOutputStream image = new ByteArrayOutputStream();
+		String header = String.format("P5\n# CREATOR: map_saver.cpp %.3f m/pix\n%d %d\n255\n", RESOLUTION_M,
+				IMAGE[0].length(), IMAGE.length);
+		image.write(header.getBytes(StandardCharsets.US_ASCII));
+		for (String row : IMAGE) {
+			for (char c : row.toCharArray()) {
+				image.write(c == '.' ? 254 : c == '?' ? 205 : 0);
+			}
+		}
+
+		// Mapped file can not be deleted on some platforms until the mapping is collected
+		Path file = Files.createTempFile("map", ".pgm");
+		file.toFile().deleteOnExit();
+		Files.write(file, image.toByteArray());
+		return OccupancyGrid.fromPgm(file, RESOLUTION_M, ORIGIN_X, ORIGIN_Y);
+	}
+}
@@ -0,0 +1,108 @@
+package cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import cz.cuni.mff.d3s.jdeeco.position.Position;
+
+/**
+ * Grid lookups return the same positions as a linear scan of all positions
+ */
+public class PositionGridTest {
+	private static final double[] CELL_SIZES = { CleanerRobot.SAME_POS_THRESH_M, 0.5, 3 };
+
+	@Test
+	public void candidatesMatchLinearScan() {
+		for (int seed = 0; seed < 20; ++seed) {
+			for (double cellSize : CELL_SIZES) {
+				Random random = new Random(seed);
+				List<Position> positions = randomPositions(random, cellSize, 500);
+				PositionGrid<Integer> grid = new PositionGrid<>(cellSize);
+				for (int i = 0; i < positions.size(); ++i) {
+					grid.add(positions.get(i), i);
+				}
+
+				for (int query = 0; query < 200; ++query) {
+					Position center = near(random, positions, cellSize);
+					double radius = random.nextDouble() * 2 * cellSize;
+					assertEquals(linearScan(positions, center, radius), gridLookup(grid, positions, center, radius));
+				}
+
+				// Removed values are not returned anymore
+				for (int i = 0; i < positions.size(); i += 3) {
+					grid.remove(positions.get(i), i);
+					positions.set(i, null);
+				}
+				for (int query = 0; query < 200; ++query) {
+					Position center = near(random, positions, cellSize);
+					double radius = random.nextDouble() * 2 * cellSize;
+					assertEquals(linearScan(positions, center, radius), gridLookup(grid, positions, center, radius));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Random positions including negative coordinates, cell borders and clusters of close positions
+	 */
+	static List<Position> randomPositions(Random random, double cellSize, int count) {
+		List<Position> positions = new ArrayList<>();
+		while (positions.size() < count) {
+			switch (random.nextInt(4)) {
+			case 0:
+				positions.add(new Position(random.nextDouble() * 40 - 5, random.nextDouble() * 25 - 5, 0));
+				break;
+			case 1:
+				positions.add(new Position((random.nextInt(200) - 20) * cellSize, (random.nextInt(200) - 20) * cellSize,
+						0));
+				break;
+			default:
+				if (!positions.isEmpty()) {
+					Position base = positions.get(random.nextInt(positions.size()));
+					positions.add(new Position(base.x + (random.nextDouble() - 0.5) * 3 * cellSize,
+							base.y + (random.nextDouble() - 0.5) * 3 * cellSize, 0));
+				}
+			}
+		}
+		return positions;
+	}
+
+	/**
+	 * Random point close to one of the positions, or anywhere
+	 */
+	static Position near(Random random, List<Position> positions, double distance) {
+		Position base = positions.get(random.nextInt(positions.size()));
+		if (base == null || random.nextInt(5) == 0) {
+			return new Position(random.nextDouble() * 40 - 5, random.nextDouble() * 25 - 5, 0);
+		}
+		return new Position(base.x + random.nextGaussian() * distance, base.y + random.nextGaussian() * distance, 0);
+	}
+
+	private static Set<Integer> linearScan(List<Position> positions, Position center, double radius) {
+		Set<Integer> result = new TreeSet<>();
+		for (int i = 0; i < positions.size(); ++i) {
+			if (positions.get(i) != null && positions.get(i).euclidDistanceTo(center) < radius) {
+				result.add(i);
+			}
+		}
+		return result;
+	}
+
+	private static Set<Integer> gridLookup(PositionGrid<Integer> grid, List<Position> positions, Position center,
+			double radius) {
+		Set<Integer> result = new TreeSet<>();
+		grid.forEachCandidate(center, radius, i -> {
+			if (positions.get(i).euclidDistanceTo(center) < radius) {
+				result.add(i);
+			}
+		});
+		return result;
+	}
+}
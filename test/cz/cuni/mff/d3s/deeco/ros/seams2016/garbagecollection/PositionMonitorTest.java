@@ -0,0 +1,67 @@
+package cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import cz.cuni.mff.d3s.jdeeco.position.Position;
+
+/**
+ * Indexed reach reports mark the same positions as the original scan of all positions
+ */
+public class PositionMonitorTest {
+	private long now;
+
+	@Test
+	public void reachesMatchLinearScan() {
+		for (int seed = 0; seed < 20; ++seed) {
+			Random random = new Random(seed);
+			now = 0;
+			PositionMonitor monitor = new PositionMonitor(() -> now);
+			List<PositionMonitor.PositionInfo> expected = new ArrayList<>();
+
+			List<Position> garbage = PositionGridTest.randomPositions(random, CleanerRobot.SAME_POS_THRESH_M, 300);
+			for (int i = 0; i < garbage.size(); ++i) {
+				String owner = "Collector" + i % 4;
+				monitor.addPosition(garbage.get(i), owner);
+				expected.add(new PositionMonitor.PositionInfo(garbage.get(i), owner));
+			}
+
+			for (int report = 0; report < 1000; ++report) {
+				Position position = PositionGridTest.near(random, garbage, CleanerRobot.SAME_POS_THRESH_M);
+				String robot = "Collector" + random.nextInt(4);
+				now += random.nextInt(100);
+				monitor.reportReached(position, robot);
+				linearScan(expected, position, robot);
+			}
+
+			assertEquals(toString(expected), monitor.toString());
+			assertEquals(expected.stream().filter(PositionMonitor.PositionInfo::isReached).count(),
+					monitor.getLiveStats().reached);
+		}
+	}
+
+	/**
+	 * Original implementation of PositionMonitor.reportReached
+	 */
+	private void linearScan(List<PositionMonitor.PositionInfo> positions, Position position, String reachedBy) {
+		for (PositionMonitor.PositionInfo posInfo : positions) {
+			if (posInfo.position.euclidDistanceTo(position) < CleanerRobot.SAME_POS_THRESH_M) {
+				posInfo.reached(reachedBy, now);
+			}
+		}
+	}
+
+	private static String toString(List<PositionMonitor.PositionInfo> positions) {
+		StringBuilder builder = new StringBuilder();
+		for (PositionMonitor.PositionInfo info : positions) {
+			builder.append(info.toString());
+			builder.append(", ");
+		}
+		return builder.toString();
+	}
+}
@@ -0,0 +1,263 @@
+package cz.cuni.mff.d3s.deeco.ros.seams2016.garbagecollection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import cz.cuni.mff.d3s.deeco.task.ParamHolder;
+import cz.cuni.mff.d3s.deeco.timer.CurrentTimeProvider;
+import cz.cuni.mff.d3s.jdeeco.position.Position;
+
+/**
+ * Races of offering, stealing and removing goals
+ *
+ * Robots exchange knowledge through serialized replicas, the same way the network does. Whatever the order of steals
+ * and removals, no goal may be lost and once all adoptions were seen by all robots every goal is in exactly one route.
+ */
+public class WorkStealingTest {
+	/**
+	 * Knowledge of single robot needed by work stealing
+	 */
+	private class Robot {
+		final String id;
+		final Position position;
+		final ParamHolder<Route> route;
+		final ParamHolder<AdoptedDestinations> adopted = new ParamHolder<>(new AdoptedDestinations());
+		final ParamHolder<Map<String, Long>> processed = new ParamHolder<>(new HashMap<>());
+		final ParamHolder<WorkStealingEnsemble.Offer> offer = new ParamHolder<>(null);
+		final ParamHolder<Long> lastSteal = new ParamHolder<>(null);
+		final EnsembleGuard guard = new EnsembleGuard(AdoptedDestinationRemoveEnsemble.class);
+
+		Robot(String id, Position position, List<Position> route) {
+			this.id = id;
+			this.position = position;
+			this.route = new ParamHolder<>(new Route(route));
+		}
+
+		/**
+		 * Receives offer of the victim and steals from it
+		 */
+		void steal(Robot victim) throws IOException {
+			OfferedGoals offered = WorkStealingEnsemble.selectOffered(victim.route.value, victim.route.value.get(0));
+			if (WorkStealingEnsemble.membership(victim.id, victim.position, victim.route.value.size(),
+					replica(offered), id, position, route.value, now, clock)) {
+				WorkStealingEnsemble.exchange(clock, victim.id, victim.route.value.size(), replica(offered), id, offer);
+			}
+			CleanerRobot.stealGoals(id, clock, position, route, adopted, offer, lastSteal, monitor);
+		}
+
+		/**
+		 * Receives adopted destinations of the coordinator and removes them from the route
+		 */
+		void remove(Robot coord) throws IOException {
+			AdoptedDestinations coordAdopted = replica(coord.adopted.value);
+			if (AdoptedDestinationRemoveEnsemble.membership(coord.id, coordAdopted, id, route.value, adopted.value,
+					processed.value, now, clock, guard)) {
+				AdoptedDestinationRemoveEnsemble.exchange(coord.id, id, clock, coordAdopted, adopted.value,
+						new ParamHolder<List<Position>>(route.value), processed);
+			}
+		}
+	}
+
+	private long now;
+	private CurrentTimeProvider clock;
+	private PositionMonitor monitor;
+	private List<Position> goals;
+
+	@Before
+	public void setUp() {
+		now = 100000;
+		clock = () -> now;
+		monitor = new PositionMonitor(clock);
+		goals = new ArrayList<>();
+		for (int i = 0; i < 10; ++i) {
+			goals.add(new Position(i * 1.5, 2, 0));
+		}
+	}
+
+	@Test
+	public void offerIsSmallAndKeepsGoals() throws IOException {
+		Route route = new Route(goals);
+		OfferedGoals offered = WorkStealingEnsemble.selectOffered(route, route.get(0));
+		assertEquals(WorkStealingEnsemble.OFFER_SIZE, offered.size());
+		OfferedGoals copy = replica(offered);
+		for (int i = 0; i < offered.size(); ++i) {
+			Position goal = route.get(route.size() - 1 - i);
+			assertTrue(copy.get(i).euclidDistanceTo(goal) < CleanerRobot.SAME_POS_THRESH_M);
+		}
+		assertTrue(serializedSize(copy) < serializedSize(new Route(copy)));
+		assertEquals(0, WorkStealingEnsemble.selectOffered(new Route(goals.subList(0, 2)), goals.get(0)).size());
+	}
+
+	@Test
+	public void thievesStealingAtOnceKeepEveryGoalOnce() throws IOException {
+		Robot victim = new Robot("Collector0", new Position(0, 0, 0), goals);
+		Robot first = new Robot("Collector1", new Position(14, 2, 0), Collections.emptyList());
+		Robot second = new Robot("Collector2", new Position(14, 3, 0), Collections.emptyList());
+
+		first.steal(victim);
+		second.steal(victim);
+		assertTrue(first.route.value.size() > 0);
+		assertEquals(first.route.value.size(), second.route.value.size());
+
+		exchangeAll(new Random(1), victim, first, second);
+		assertEveryGoalOnce(victim, first, second);
+	}
+
+	@Test
+	public void laterStealWins() throws IOException {
+		Robot victim = new Robot("Collector0", new Position(0, 0, 0), goals);
+		Robot first = new Robot("Collector2", new Position(14, 2, 0), Collections.emptyList());
+		Robot second = new Robot("Collector1", new Position(14, 3, 0), Collections.emptyList());
+
+		first.steal(victim);
+		now += 1000;
+		second.steal(victim);
+
+		exchangeAll(new Random(2), victim, first, second);
+		assertEveryGoalOnce(victim, first, second);
+		assertTrue(first.route.value.isEmpty());
+	}
+
+	@Test
+	public void stolenGoalStolenAgain() throws IOException {
+		Robot victim = new Robot("Collector0", new Position(0, 0, 0), goals);
+		Robot first = new Robot("Collector1", new Position(14, 2, 0), Collections.emptyList());
+		Robot second = new Robot("Collector2", new Position(14, 3, 0), Collections.emptyList());
+
+		first.steal(victim);
+		// First thief got more work meanwhile, so it is loaded enough to offer
+		List<Position> more = Arrays.asList(new Position(20, 5, 0), new Position(21, 5, 0));
+		first.route.value.addAll(0, more);
+		goals.addAll(more);
+		now += WorkStealingEnsemble.STEAL_BACKOFF_MS;
+		second.steal(first);
+		assertTrue(second.route.value.size() > 0);
+
+		exchangeAll(new Random(3), victim, first, second);
+		assertEveryGoalOnce(victim, first, second);
+	}
+
+	@Test
+	public void randomOrderOfStealsAndRemovals() throws IOException {
+		for (int seed = 0; seed < 50; ++seed) {
+			setUp();
+			Random random = new Random(seed);
+			Robot[] robots = { new Robot("Collector0", new Position(0, 0, 0), goals),
+					new Robot("Collector1", new Position(14, 2, 0), Collections.emptyList()),
+					new Robot("Collector2", new Position(14, 3, 0), Collections.emptyList()),
+					new Robot("Collector3", new Position(13, 2, 0), Collections.emptyList()) };
+
+			for (int step = 0; step < 30; ++step) {
+				Robot robot = robots[random.nextInt(robots.length)];
+				Robot other = robots[random.nextInt(robots.length)];
+				if (robot == other) {
+					continue;
+				}
+				if (random.nextBoolean() && robot.route.value.isEmpty()
+						&& other.route.value.size() >= WorkStealingEnsemble.MIN_LOAD_TO_OFFER) {
+					robot.steal(other);
+				} else {
+					robot.remove(other);
+				}
+				assertNoGoalLost(robots);
+				now += random.nextInt(3) * 1000;
+			}
+
+			exchangeAll(random, robots);
+			assertEveryGoalOnce(robots);
+		}
+	}
+
+	/**
+	 * Lets every robot see adoptions of every other robot, in random order
+	 */
+	private void exchangeAll(Random random, Robot... robots) throws IOException {
+		List<Robot[]> pairs = new ArrayList<>();
+		for (Robot member : robots) {
+			for (Robot coord : robots) {
+				if (member != coord) {
+					pairs.add(new Robot[] { member, coord });
+				}
+			}
+		}
+		Collections.shuffle(pairs, random);
+		for (Robot[] pair : pairs) {
+			pair[0].remove(pair[1]);
+			assertNoGoalLost(robots);
+		}
+	}
+
+	private void assertNoGoalLost(Robot... robots) {
+		for (Position goal : goals) {
+			assertTrue("Lost goal " + goal, count(goal, robots) > 0);
+		}
+	}
+
+	private void assertEveryGoalOnce(Robot... robots) {
+		Set<String> seen = new HashSet<>();
+		for (Position goal : goals) {
+			assertEquals("Copies of goal " + goal, 1, count(goal, robots));
+			seen.add(goal.x + " " + goal.y);
+		}
+		int total = 0;
+		for (Robot robot : robots) {
+			total += robot.route.value.size();
+		}
+		assertEquals(seen.size(), total);
+	}
+
+	private static int count(Position goal, Robot... robots) {
+		int count = 0;
+		for (Robot robot : robots) {
+			for (Position pos : robot.route.value) {
+				if (pos.euclidDistanceTo(goal) < CleanerRobot.SAME_POS_THRESH_M) {
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Copies the value the way it is transferred by the network
+	 */
+	@SuppressWarnings("unchecked")
+	static <T extends Serializable> T replica(T value) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(value);
+		}
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+			return (T) in.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException(e);
+		}
+	}
+
+	static int serializedSize(Serializable value) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(value);
+		}
+		return bytes.size();
+	}
+}